@@ -0,0 +1,255 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import software.aws.solution.clickstream.common.RuleConfig;
+import software.aws.solution.clickstream.common.TransformConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Builds the benchmark input from the checked-in corpus: SDK bundles are assembled from seed events,
+ * so that every bundle size carries the same events, and are encoded the way the ingestion server stores them.
+ */
+public final class BenchmarkCorpus {
+    /**
+     * Every parser benchmark invocation handles this many events, so throughput and allocation are reported per event.
+     */
+    public static final int EVENTS_PER_INVOCATION = 100;
+    public static final String PROJECT_ID = "benchmark_project";
+    public static final String FILE_NAME = "benchmark.gz";
+    public static final String CLICKSTREAM_APP_ID = "uba-app";
+    public static final String SENSORS_APP_ID = "sensorTest";
+    public static final String GTM_APP_ID = "testGTM";
+    private static final String EMPTY_VALUE = "_";
+    private static final long INGEST_TIME = 1_682_319_109_403L;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * The v0 traffic source rules of the test resources for the corpus apps, as the jobs configure them.
+     */
+    public static TransformConfig transformConfig() {
+        RuleConfig ruleConfig = new RuleConfig();
+        ruleConfig.setOptChannelRuleJson(readResource("ts/traffic_source_channel_rule_v0.json"));
+        ruleConfig.setOptCategoryRuleJson(readResource("ts/traffic_source_category_rule_v0.json"));
+        Map<String, RuleConfig> appRuleConfig = new HashMap<>();
+        appRuleConfig.put(CLICKSTREAM_APP_ID, ruleConfig);
+        appRuleConfig.put(SENSORS_APP_ID, ruleConfig);
+        appRuleConfig.put(GTM_APP_ID, ruleConfig);
+        TransformConfig transformConfig = new TransformConfig();
+        transformConfig.setAppRuleConfig(appRuleConfig);
+        return transformConfig;
+    }
+
+    /**
+     * Ingested lines of clickstream SDK bundles, gzip and base64 encoded, with eventsPerBundle events each.
+     */
+    public static List<String> clickstreamLines(final int eventsPerBundle) {
+        List<String> uas = userAgents();
+        List<String[]> trafficSources = trafficSources();
+        JsonNode seeds = readJson("corpus/clickstream-events.json");
+        Random random = new Random(eventsPerBundle);
+        List<String> lines = new ArrayList<>();
+        int seq = 0;
+        for (int i = 0; i < EVENTS_PER_INVOCATION / eventsPerBundle; i++) {
+            ArrayNode bundle = OBJECT_MAPPER.createArrayNode();
+            for (int j = 0; j < eventsPerBundle; j++) {
+                ObjectNode event = seeds.get(seq++ % seeds.size()).deepCopy();
+                event.put("event_id", new UUID(random.nextLong(), random.nextLong()).toString());
+                event.put("timestamp", INGEST_TIME - random.nextInt(60_000));
+                String[] trafficSource = trafficSources.get(random.nextInt(trafficSources.size()));
+                ObjectNode attributes = (ObjectNode) event.get("attributes");
+                attributes.put("_page_url", trafficSource[0]);
+                attributes.put("_page_referrer", trafficSource[1]);
+                bundle.add(event);
+            }
+            String data = Base64.getEncoder().encodeToString(gzip(toJsonBytes(bundle)));
+            lines.add(ingestLine(CLICKSTREAM_APP_ID, data, uas.get(random.nextInt(uas.size())),
+                    "/collect?appId=" + CLICKSTREAM_APP_ID + "&compression=gzip&event_bundle_sequence_id=" + i, "ANDROID"));
+        }
+        return lines;
+    }
+
+    /**
+     * Ingested lines of Sensors SDK bundles, posted as a url encoded gzip data_list with eventsPerBundle events each.
+     */
+    public static List<String> sensorsLines(final int eventsPerBundle) {
+        List<String> uas = userAgents();
+        JsonNode seeds = readJson("corpus/sensors-events.json");
+        Random random = new Random(eventsPerBundle);
+        List<String> lines = new ArrayList<>();
+        int seq = 0;
+        for (int i = 0; i < EVENTS_PER_INVOCATION / eventsPerBundle; i++) {
+            ArrayNode bundle = OBJECT_MAPPER.createArrayNode();
+            for (int j = 0; j < eventsPerBundle; j++) {
+                ObjectNode event = seeds.get(seq++ % seeds.size()).deepCopy();
+                event.put("_track_id", random.nextInt());
+                bundle.add(event);
+            }
+            String dataList = Base64.getEncoder().encodeToString(gzip(toJsonBytes(bundle)));
+            String data = "crc=" + random.nextInt() + "&gzip=1&data_list=" + URLEncoder.encode(dataList, StandardCharsets.UTF_8);
+            lines.add(ingestLine(SENSORS_APP_ID, data, uas.get(random.nextInt(uas.size())), "/collect?platform=Android&appId=" + SENSORS_APP_ID, "Android"));
+        }
+        return lines;
+    }
+
+    /**
+     * Ingested lines of GTM server side tagging requests, one event each.
+     */
+    public static List<String> gtmLines() {
+        JsonNode seeds = readJson("corpus/gtm-events.json");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < EVENTS_PER_INVOCATION; i++) {
+            lines.add(ingestLine(GTM_APP_ID, toJson(seeds.get(i % seeds.size())), null, "/collect?appId=" + GTM_APP_ID, null));
+        }
+        return lines;
+    }
+
+    /**
+     * The gzip payloads of clickstream SDK bundles with eventsPerBundle events each.
+     */
+    public static List<byte[]> gzipBundles(final int eventsPerBundle) {
+        List<byte[]> bundles = new ArrayList<>();
+        for (String line : clickstreamLines(eventsPerBundle)) {
+            bundles.add(Base64.getDecoder().decode(readJson(line).get("data").asText()));
+        }
+        return bundles;
+    }
+
+    public static List<String> userAgents() {
+        return readLines("corpus/user-agents.txt");
+    }
+
+    /**
+     * The page url, page referrer, latest referrer and latest referrer host of the corpus page views.
+     */
+    public static List<String[]> trafficSources() {
+        List<String[]> trafficSources = new ArrayList<>();
+        for (String line : readLines("corpus/traffic-sources.tsv")) {
+            String[] values = line.split("\t");
+            for (int i = 0; i < values.length; i++) {
+                values[i] = EMPTY_VALUE.equals(values[i]) ? null : values[i];
+            }
+            trafficSources.add(values);
+        }
+        return trafficSources;
+    }
+
+    /**
+     * A repeating sequence telling which lookups should miss the enrichment caches, misses are spread evenly.
+     */
+    public static boolean[] cacheMisses(final double cacheHitRatio, final int length) {
+        boolean[] misses = new boolean[length];
+        double missCredit = 0;
+        for (int i = 0; i < length; i++) {
+            missCredit += 1 - cacheHitRatio;
+            if (missCredit >= 1) {
+                misses[i] = true;
+                missCredit -= 1;
+            }
+        }
+        return misses;
+    }
+
+    private static String ingestLine(final String appId, final String data, final String ua, final String uri, final String platform) {
+        ObjectNode line = OBJECT_MAPPER.createObjectNode();
+        line.put("appId", appId);
+        line.put("data", data);
+        line.put("ip", "13.212.229.59");
+        line.put("rid", "07157da84281bb7234ba6f8613df7d32");
+        line.put("ua", ua);
+        line.put("method", "POST");
+        line.put("uri", uri);
+        line.put("platform", platform);
+        line.put("path", "/collect");
+        line.put("source_type", "http_server");
+        line.put("ingest_time", INGEST_TIME);
+        line.put("upload_timestamp", INGEST_TIME);
+        return toJson(line);
+    }
+
+    private static byte[] gzip(final byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static JsonNode readJson(final String resourceOrContent) {
+        try {
+            if (resourceOrContent.startsWith("{")) {
+                return OBJECT_MAPPER.readTree(resourceOrContent);
+            }
+            return OBJECT_MAPPER.readTree(readResource(resourceOrContent));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<String> readLines(final String resource) {
+        List<String> lines = new ArrayList<>();
+        for (String line : readResource(resource).split("\n")) {
+            if (!line.isBlank()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static String readResource(final String resource) {
+        try (InputStream in = BenchmarkCorpus.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Benchmark corpus not found: " + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String toJson(final JsonNode node) {
+        return new String(toJsonBytes(node), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toJsonBytes(final JsonNode node) {
+        try {
+            return OBJECT_MAPPER.writeValueAsBytes(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.aws.solution.clickstream.common.enrich.RuleBasedTrafficSourceHelper;
+import software.aws.solution.clickstream.common.enrich.UAEnrichHelper;
+import software.aws.solution.clickstream.common.enrich.ts.CategoryTrafficSource;
+import software.aws.solution.clickstream.common.model.ClickstreamUA;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enriches one event per operation. The cacheHitRatio share of the lookups reuses corpus values, which are cached
+ * after warmup, the others get a value never seen before, so the ratio holds for the whole run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EnrichmentBenchmark {
+    private static final int MISS_PATTERN_LENGTH = 1000;
+
+    @Param({"1.0", "0.9", "0.5", "0.0"})
+    public double cacheHitRatio;
+
+    private List<String> userAgents;
+    private List<String[]> trafficSources;
+    private boolean[] cacheMisses;
+    private RuleBasedTrafficSourceHelper trafficSourceHelper;
+    private long seq;
+
+    @Setup
+    public void setup() {
+        userAgents = BenchmarkCorpus.userAgents();
+        trafficSources = BenchmarkCorpus.trafficSources();
+        cacheMisses = BenchmarkCorpus.cacheMisses(cacheHitRatio, MISS_PATTERN_LENGTH);
+        trafficSourceHelper = RuleBasedTrafficSourceHelper.getInstance(BenchmarkCorpus.CLICKSTREAM_APP_ID,
+                BenchmarkCorpus.transformConfig().getAppRuleConfig().get(BenchmarkCorpus.CLICKSTREAM_APP_ID));
+    }
+
+    @Benchmark
+    public ClickstreamUA parserUA() {
+        long i = seq++;
+        String userAgent = userAgents.get((int) (i % userAgents.size()));
+        if (cacheMisses[(int) (i % MISS_PATTERN_LENGTH)]) {
+            userAgent = userAgent + " Benchmark/" + i;
+        }
+        return UAEnrichHelper.parserUA(userAgent);
+    }
+
+    @Benchmark
+    public CategoryTrafficSource trafficSourceParse() {
+        long i = seq++;
+        String[] trafficSource = trafficSources.get((int) (i % trafficSources.size()));
+        String pageUrl = trafficSource[0];
+        if (cacheMisses[(int) (i % MISS_PATTERN_LENGTH)]) {
+            pageUrl = pageUrl + (pageUrl.contains("?") ? "&" : "?") + "benchmark=" + i;
+        }
+        return trafficSourceHelper.parse(pageUrl, trafficSource[1], trafficSource[2], trafficSource[3]);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import software.aws.solution.clickstream.common.ClickstreamEventParser;
+import software.aws.solution.clickstream.common.Util;
+import software.aws.solution.clickstream.common.sensors.SensorsEventParser;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static software.aws.solution.clickstream.common.benchmark.BenchmarkCorpus.EVENTS_PER_INVOCATION;
+import static software.aws.solution.clickstream.common.benchmark.BenchmarkCorpus.FILE_NAME;
+import static software.aws.solution.clickstream.common.benchmark.BenchmarkCorpus.PROJECT_ID;
+
+/**
+ * Parses SDK bundles of different sizes, every invocation handles the same number of events,
+ * so the scores and gc.alloc.rate.norm are per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventParserBenchmark {
+    @Param({"1", "10", "100"})
+    public int eventsPerBundle;
+
+    private ClickstreamEventParser clickstreamEventParser;
+    private SensorsEventParser sensorsEventParser;
+    private List<String> clickstreamLines;
+    private List<String> sensorsLines;
+    private List<byte[]> gzipBundles;
+
+    @Setup
+    public void setup() {
+        clickstreamEventParser = ClickstreamEventParser.getInstance(BenchmarkCorpus.transformConfig());
+        sensorsEventParser = SensorsEventParser.getInstance(BenchmarkCorpus.transformConfig());
+        clickstreamLines = BenchmarkCorpus.clickstreamLines(eventsPerBundle);
+        sensorsLines = BenchmarkCorpus.sensorsLines(eventsPerBundle);
+        gzipBundles = BenchmarkCorpus.gzipBundles(eventsPerBundle);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_INVOCATION)
+    public void clickstreamParseLineToDBRow(final Blackhole blackhole) throws JsonProcessingException {
+        for (String line : clickstreamLines) {
+            blackhole.consume(clickstreamEventParser.parseLineToDBRow(line, PROJECT_ID, FILE_NAME));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_INVOCATION)
+    public void sensorsParseLineToDBRow(final Blackhole blackhole) throws JsonProcessingException {
+        for (String line : sensorsLines) {
+            blackhole.consume(sensorsEventParser.parseLineToDBRow(line, PROJECT_ID, FILE_NAME));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_INVOCATION)
+    public void decompress(final Blackhole blackhole) {
+        for (byte[] bundle : gzipBundles) {
+            blackhole.consume(Util.decompress(bundle));
+        }
+    }
+}
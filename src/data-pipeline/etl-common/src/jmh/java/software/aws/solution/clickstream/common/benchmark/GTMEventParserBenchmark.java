@@ -0,0 +1,58 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import software.aws.solution.clickstream.common.gtm.GTMEventParser;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static software.aws.solution.clickstream.common.benchmark.BenchmarkCorpus.EVENTS_PER_INVOCATION;
+import static software.aws.solution.clickstream.common.benchmark.BenchmarkCorpus.FILE_NAME;
+import static software.aws.solution.clickstream.common.benchmark.BenchmarkCorpus.PROJECT_ID;
+
+/**
+ * Parses GTM server side tagging requests, which carry one event each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GTMEventParserBenchmark {
+    private GTMEventParser gtmEventParser;
+    private List<String> gtmLines;
+
+    @Setup
+    public void setup() {
+        gtmEventParser = GTMEventParser.getInstance(BenchmarkCorpus.transformConfig());
+        gtmLines = BenchmarkCorpus.gtmLines();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_INVOCATION)
+    public void parseLineToDBRow(final Blackhole blackhole) throws JsonProcessingException {
+        for (String line : gtmLines) {
+            blackhole.consume(gtmEventParser.parseLineToDBRow(line, PROJECT_ID, FILE_NAME));
+        }
+    }
+}
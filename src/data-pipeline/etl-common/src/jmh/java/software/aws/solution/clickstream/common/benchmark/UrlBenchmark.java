@@ -0,0 +1,59 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.aws.solution.clickstream.common.Util;
+import software.aws.solution.clickstream.common.enrich.UrlParseResult;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the page urls of the corpus, one url per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UrlBenchmark {
+    private List<String[]> trafficSources;
+    private int seq;
+
+    @Setup
+    public void setup() {
+        trafficSources = BenchmarkCorpus.trafficSources();
+    }
+
+    @Benchmark
+    public UrlParseResult parseUrl() {
+        return Util.parseUrl(nextPageUrl());
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getUriParams() {
+        return Util.getUriParams(nextPageUrl());
+    }
+
+    private String nextPageUrl() {
+        seq = (seq + 1) % trafficSources.size();
+        return trafficSources.get(seq)[0];
+    }
+}
@@ -13,23 +13,27 @@
 
 package software.aws.solution.clickstream.common;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import software.aws.solution.clickstream.common.enrich.RuleBasedTrafficSourceHelper;
 import software.aws.solution.clickstream.common.enrich.UrlParseResult;
 import software.aws.solution.clickstream.common.enrich.ts.CategoryTrafficSource;
+import software.aws.solution.clickstream.common.exception.ExtractDataException;
 import software.aws.solution.clickstream.common.ingest.ClickstreamIngestRow;
 import software.aws.solution.clickstream.common.model.ClickstreamEvent;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import static software.aws.solution.clickstream.common.Util.deCodeUri;
-import static software.aws.solution.clickstream.common.Util.decompress;
 
 @Slf4j
 public abstract class BaseEventParser implements EventParser {
@@ -55,13 +59,18 @@ public abstract class BaseEventParser implements EventParser {
 
     @Override
     public JsonNode getData(final String ingestDataField) throws JsonProcessingException {
-        String rawStringData = ingestDataField;
-        if (!rawStringData.startsWith("[") && !rawStringData.startsWith("{")) {
-            log.debug("gzipData: " + true);
-            String gzipData = rawStringData;
-            rawStringData = decompress(Base64.getDecoder().decode(gzipData));
+        if (ingestDataField.startsWith("[") || ingestDataField.startsWith("{")) {
+            return OBJECT_MAPPER.readTree(ingestDataField);
+        }
+        log.debug("gzipData: " + true);
+        try (InputStream inflated = DataDecoder.inflateBase64(ingestDataField)) {
+            return OBJECT_MAPPER.readTree(inflated);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            log.error("decompress error:" + e.getMessage());
+            throw new ExtractDataException(e);
         }
-        return OBJECT_MAPPER.readTree(rawStringData);
     }
     @Override
     public ParseRowResult parseLineToDBRow(final String ingestLine, final String projectId, final String fileName) throws JsonProcessingException {
@@ -72,12 +81,6 @@ public abstract class BaseEventParser implements EventParser {
             log.warn("Data field is empty, skipping the row");
             return rowResult;
         }
-        JsonNode dataNode = getData(dataField);
-        if (dataNode == null) {
-            log.warn("getData is empty, skipping the row");
-            return rowResult;
-        }
-
         ExtraParams extraParams = ExtraParams.builder()
                 .ua(clickstreamIngestRow.getUa())
                 .ip(clickstreamIngestRow.getIp())
@@ -90,21 +93,62 @@ public abstract class BaseEventParser implements EventParser {
                 .appId(clickstreamIngestRow.getAppId())
                 .build();
 
-        int index = 0;
-        if (dataNode.isArray()) {
-            Iterator<JsonNode> iterator = dataNode.elements();
-            while (iterator.hasNext()) {
-                JsonNode element = iterator.next();
-                ParseDataResult result = parseData(element.toString(), extraParams, index++);
-                addDataResult(rowResult, result);
-            }
-        } else {
-            ParseDataResult result = parseData(dataNode.toString(), extraParams, 0);
+        for (ParseDataResult result : parseRawData(dataField, extraParams)) {
             addDataResult(rowResult, result);
         }
         return rowResult;
     }
 
+    @Override
+    public List<ParseDataResult> parseRawData(final String ingestDataField, final ExtraParams extraParams) throws JsonProcessingException {
+        List<ParseDataResult> results = new ArrayList<>();
+        try (JsonParser jsonParser = createDataParser(ingestDataField)) {
+            if (jsonParser == null || jsonParser.nextToken() == null) {
+                log.warn("Cannot parse data: {}", ingestDataField);
+                return results;
+            }
+            if (jsonParser.currentToken() == JsonToken.START_ARRAY) {
+                int index = 0;
+                while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+                    results.add(parseData(jsonParser, extraParams, index++));
+                }
+            } else {
+                results.add(parseData(jsonParser, extraParams, 0));
+            }
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            log.error("decompress error:" + e.getMessage());
+            throw new ExtractDataException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Create a parser over the decoded data field, gzip payloads are inflated while they are parsed,
+     * closing the parser gives the decoder back to the thread.
+     * Return null when there is no data to parse.
+     */
+    protected JsonParser createDataParser(final String ingestDataField) throws IOException {
+        if (!ingestDataField.startsWith("[") && !ingestDataField.startsWith("{")) {
+            log.debug("gzipData: " + true);
+            return getObjectMapper().getFactory().createParser(DataDecoder.inflateBase64(ingestDataField));
+        }
+        return getObjectMapper().getFactory().createParser(ingestDataField);
+    }
+
+    protected static ParseDataResult newParseDataResult() {
+        ParseDataResult parseDataResult = new ParseDataResult();
+        parseDataResult.setClickstreamEventList(new ArrayList<>());
+        parseDataResult.setClickstreamItemList(new ArrayList<>());
+        return parseDataResult;
+    }
+
+    /**
+     * Parse the event value the parser is positioned at.
+     */
+    protected abstract ParseDataResult parseData(JsonParser jsonParser, ExtraParams extraParams, int index) throws IOException;
+
     public ObjectMapper getObjectMapper() {
         return OBJECT_MAPPER;
     }
@@ -12,31 +12,258 @@
  */
 
 package software.aws.solution.clickstream.common;
-import java.util.HashMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
+/**
+ * Thread-safe LRU cache shared by the enrichment helpers across executor task threads.
+ * Entries are bounded by count and optionally by estimated bytes and time-to-live.
+ * Every named cache is registered and logs its statistics from time to time, in the log of the JVM that uses it.
+ * The jobs call {@link #logAllStats()} when the JVM is done with the caches, so the final statistics are always reported.
+ */
+@Slf4j
 public class Cache<T> {
-    private final Map<String, T> dataCached;
-    private final int size;
+    public static final int DEFAULT_MAX_ENTRIES = 200_000;
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_ENTRIES_PER_SEGMENT = 1024;
+    private static final long MIN_BYTES_PER_SEGMENT = 1024L * 1024;
+    private static final long ENTRY_OVERHEAD_BYTES = 64L;
+    private static final long STATS_LOG_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final Map<String, Cache<?>> REGISTERED_CACHES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final List<Segment<T>> segments;
+    private final long expireAfterWriteMillis;
+    private final ToLongFunction<T> weigher;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final AtomicLong nextStatsLogMillis = new AtomicLong(System.currentTimeMillis() + STATS_LOG_INTERVAL_MILLIS);
 
     public Cache() {
-        this(Integer.MAX_VALUE/2);
+        this(DEFAULT_MAX_ENTRIES);
     }
+
     public Cache(final int size) {
-        this.dataCached = new HashMap<>(1024 * 1024);
-        this.size = size;
+        this(null, size, 0L, 0L, null);
+    }
+
+    private Cache(final String name, final int maximumSize, final long maximumBytes,
+                  final long expireAfterWriteMillis, final ToLongFunction<T> weigher) {
+        this.name = name;
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+        this.weigher = weigher;
+        int segmentCount = Math.min(MAX_SEGMENTS, maximumSize / MIN_ENTRIES_PER_SEGMENT);
+        if (maximumBytes > 0) {
+            segmentCount = (int) Math.min(segmentCount, maximumBytes / MIN_BYTES_PER_SEGMENT);
+        }
+        segmentCount = Math.max(1, segmentCount);
+        int segmentMaxEntries = Math.max(1, maximumSize / segmentCount);
+        long segmentMaxBytes = maximumBytes > 0 ? Math.max(1L, maximumBytes / segmentCount) : 0L;
+        this.segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments.add(new Segment<>(segmentMaxEntries, segmentMaxBytes));
+        }
+        if (name != null) {
+            REGISTERED_CACHES.put(name, this);
+        }
+    }
+
+    public static <T> CacheBuilder<T> builder(final String name) {
+        return new CacheBuilder<>(name);
+    }
+
+    public static List<CacheStats> getAllStats() {
+        List<CacheStats> allStats = new ArrayList<>();
+        for (Cache<?> cache : REGISTERED_CACHES.values()) {
+            allStats.add(cache.getStats());
+        }
+        return allStats;
+    }
+
+    public static void logAllStats() {
+        getAllStats().forEach(stats -> log.info(stats.toString()));
     }
+
     public boolean containsKey(final String key) {
-        return dataCached.containsKey(key);
+        return getEntry(key, false) != null;
     }
+
+    /**
+     * Return the cached value, or null when the key is absent or its entry has expired.
+     */
     public T get(final String key) {
-        return dataCached.get(key);
+        Entry<T> entry = getEntry(key, true);
+        return entry == null ? null : entry.value;
     }
 
     public void put(final String key, final T data) {
-        if (dataCached.size() >= size) {
-            dataCached.remove(dataCached.keySet().iterator().next());
+        long weight = this.weigher == null ? 0L : 2L * key.length() + ENTRY_OVERHEAD_BYTES + this.weigher.applyAsLong(data);
+        Entry<T> entry = new Entry<>(data, weight, this.expireAfterWriteMillis > 0 ? System.currentTimeMillis() + this.expireAfterWriteMillis : 0L);
+        int evicted = segmentFor(key).put(key, entry);
+        if (evicted > 0) {
+            evictionCount.add(evicted);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment<T> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public CacheStats getStats() {
+        long bytes = 0;
+        for (Segment<T> segment : segments) {
+            bytes += segment.totalBytes();
+        }
+        return new CacheStats(this.name, hitCount.sum(), missCount.sum(), evictionCount.sum(), size(), bytes);
+    }
+
+    private Entry<T> getEntry(final String key, final boolean recordStats) {
+        Segment<T> segment = segmentFor(key);
+        Entry<T> entry = segment.get(key);
+        if (entry != null && entry.isExpired()) {
+            segment.remove(key, entry);
+            evictionCount.increment();
+            entry = null;
+        }
+        if (recordStats) {
+            if (entry == null) {
+                missCount.increment();
+                // a miss is followed by the computation of the value, the clock is only read then
+                logStatsPeriodically();
+            } else {
+                hitCount.increment();
+            }
+        }
+        return entry;
+    }
+
+    private void logStatsPeriodically() {
+        if (this.name == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long nextLogMillis = nextStatsLogMillis.get();
+        if (now >= nextLogMillis && nextStatsLogMillis.compareAndSet(nextLogMillis, now + STATS_LOG_INTERVAL_MILLIS)) {
+            log.info(getStats().toString());
+        }
+    }
+
+    private Segment<T> segmentFor(final String key) {
+        if (segments.size() == 1) {
+            return segments.get(0);
+        }
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments.get((hash & Integer.MAX_VALUE) % segments.size());
+    }
+
+    private static final class Entry<T> {
+        private final T value;
+        private final long weight;
+        private final long expireAtMillis;
+
+        Entry(final T value, final long weight, final long expireAtMillis) {
+            this.value = value;
+            this.weight = weight;
+            this.expireAtMillis = expireAtMillis;
+        }
+
+        boolean isExpired() {
+            return expireAtMillis > 0 && System.currentTimeMillis() > expireAtMillis;
+        }
+    }
+
+    private static final class Segment<T> {
+        private final LinkedHashMap<String, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes;
+
+        Segment(final int maxEntries, final long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Entry<T> get(final String key) {
+            return entries.get(key);
+        }
+
+        synchronized int put(final String key, final Entry<T> entry) {
+            Entry<T> previous = entries.put(key, entry);
+            bytes += entry.weight - (previous == null ? 0L : previous.weight);
+            int evicted = 0;
+            Iterator<Entry<T>> eldest = entries.values().iterator();
+            while (entries.size() > 1 && (entries.size() > maxEntries || maxBytes > 0 && bytes > maxBytes)) {
+                bytes -= eldest.next().weight;
+                eldest.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        synchronized void remove(final String key, final Entry<T> entry) {
+            if (entries.remove(key, entry)) {
+                bytes -= entry.weight;
+            }
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long totalBytes() {
+            return bytes;
+        }
+    }
+
+    public static final class CacheBuilder<T> {
+        private final String name;
+        private int maximumSize = DEFAULT_MAX_ENTRIES;
+        private long maximumBytes;
+        private long expireAfterWriteMillis;
+        private ToLongFunction<T> weigher;
+
+        private CacheBuilder(final String name) {
+            this.name = name;
+        }
+
+        public CacheBuilder<T> maximumSize(final int maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Bound the cache by the estimated size of its entries, the weigher estimates the bytes held by one value.
+         */
+        public CacheBuilder<T> maximumBytes(final long maximumBytes, final ToLongFunction<T> weigher) {
+            this.maximumBytes = maximumBytes;
+            this.weigher = weigher;
+            return this;
+        }
+
+        public CacheBuilder<T> expireAfterWriteMillis(final long expireAfterWriteMillis) {
+            this.expireAfterWriteMillis = expireAfterWriteMillis;
+            return this;
+        }
+
+        public Cache<T> build() {
+            return new Cache<>(name, maximumSize, maximumBytes, expireAfterWriteMillis, weigher);
         }
-        dataCached.put(key, data);
     }
 }
@@ -23,6 +23,7 @@ import software.aws.solution.clickstream.common.enrich.ts.TrafficSourceUtm;
 import software.aws.solution.clickstream.common.ingest.*;
 import software.aws.solution.clickstream.common.model.*;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.*;
 import java.util.*;
@@ -47,6 +48,10 @@ public final class ClickstreamEventParser extends BaseEventParser {
     public static final String EVENT_USER_ENGAGEMENT = "_user_engagement";
     public static final String EVENT_SCROLL = "_scroll";
 
+    private static final List<String> PLATFORM_OS_LIST = Stream.of(
+            PLATFORM_ANDROID, PLATFORM_IOS, PLATFORM_WECHATMP
+    ).map(String::toLowerCase).toList();
+
     private TransformConfig transformConfig;
 
     private ClickstreamEventParser(final TransformConfig transformConfig) {
@@ -70,19 +75,25 @@ public final class ClickstreamEventParser extends BaseEventParser {
 
     @Override
     public ParseDataResult parseData(final String dataString, final ExtraParams extraParams, final int index) throws JsonProcessingException {
-        ParseDataResult parseDataResult = new ParseDataResult();
-        List<ClickstreamEvent> clickstreamEventList = new ArrayList<>();
-        parseDataResult.setClickstreamEventList(clickstreamEventList);
-        parseDataResult.setClickstreamItemList(new ArrayList<>());
-
-        log.debug("Parsing data: " + dataString);
+        log.debug("Parsing data: {}", dataString);
         if (dataString == null || dataString.isEmpty()) {
             log.warn("Data field is empty, skipping the row");
-            return parseDataResult;
+            return newParseDataResult();
         }
-        Event ingestEvent = ingestDataToEvent(dataString);
+        return parseEvent(ingestDataToEvent(dataString), extraParams, index);
+    }
+
+    @Override
+    protected ParseDataResult parseData(final JsonParser jsonParser, final ExtraParams extraParams, final int index) throws IOException {
+        return parseEvent(getObjectMapper().readValue(jsonParser, Event.class), extraParams, index);
+    }
+
+    private ParseDataResult parseEvent(final Event ingestEvent, final ExtraParams extraParams, final int index) throws JsonProcessingException {
+        ParseDataResult parseDataResult = newParseDataResult();
+        List<ClickstreamEvent> clickstreamEventList = parseDataResult.getClickstreamEventList();
+
         if (ingestEvent.getEventName() == null || ingestEvent.getEventName().isEmpty()) {
-            log.warn("Event name is empty, skipping the row, dataString:" + dataString);
+            log.warn("Event name is empty, skipping the row");
             return parseDataResult;
         }
 
@@ -210,7 +221,6 @@ public final class ClickstreamEventParser extends BaseEventParser {
 
     private ClickstreamEvent getClickstreamEvent(final Event ingestEvent, final int index, final ExtraParams extraParams, final TimeShiftInfo timeShiftInfo) {
         ClickstreamEvent clickstreamEvent = new ClickstreamEvent();
-        Map<String, List<String>> uriParams = getUriParams(extraParams.getUri());
 
         clickstreamEvent.setEventTimeMsec(ingestEvent.getEventTimestamp() + timeShiftInfo.getTimeDiff());
         clickstreamEvent.setEventTimestamp(new Timestamp(clickstreamEvent.getEventTimeMsec()));
@@ -230,7 +240,7 @@ public final class ClickstreamEventParser extends BaseEventParser {
         clickstreamEvent.setEventName(ingestEvent.getEventName());
 
         setEventValue(ingestEvent, clickstreamEvent);
-        setEventBundleSeqId(uriParams, clickstreamEvent);
+        clickstreamEvent.setEventBundleSequenceId(extraParams.getRequestContext().getEventBundleSequenceId());
         setDeviceInfo(ingestEvent, clickstreamEvent);
         setUA(extraParams, clickstreamEvent);
         setAppInfo(ingestEvent, clickstreamEvent);
@@ -307,11 +317,7 @@ public final class ClickstreamEventParser extends BaseEventParser {
         clickstreamEvent.setDeviceViewportHeight(ingestEvent.getViewportHeight());
         clickstreamEvent.setGeoLocale(ingestEvent.getLocale());
 
-        List<String> platformOsList = Stream.of(
-                PLATFORM_ANDROID, PLATFORM_IOS, PLATFORM_WECHATMP
-        ).map(String::toLowerCase).toList();
-
-        if (ingestEvent.getPlatform() != null && platformOsList.contains(ingestEvent.getPlatform().toLowerCase())) {
+        if (ingestEvent.getPlatform() != null && PLATFORM_OS_LIST.contains(ingestEvent.getPlatform().toLowerCase())) {
             clickstreamEvent.setDeviceOperatingSystem(ingestEvent.getPlatform());
         }
 
@@ -600,15 +606,10 @@ public final class ClickstreamEventParser extends BaseEventParser {
         }
 
         if (uploadTimestamp == null) {
-            Map<String, List<String>> uriParams = getUriParams(extraParams.getUri());
-            if (uriParams.containsKey(UPLOAD_TIMESTAMP)) {
-                String uploadTimestampStr = uriParams.get(UPLOAD_TIMESTAMP).get(0);
-                try {
-                    uploadTimestamp = Long.parseLong(uploadTimestampStr);
-                    extraParams.setUploadTimestamp(uploadTimestamp);
-                } catch (Exception e) {
-                    log.warn("cannot parse upload_timestamp: " + uploadTimestampStr + ERROR_LOG + e.getMessage());
-                }
+            // the upload_timestamp parameter of the request uri
+            uploadTimestamp = extraParams.getRequestContext().getUploadTimestamp();
+            if (uploadTimestamp != null) {
+                extraParams.setUploadTimestamp(uploadTimestamp);
             }
             timeShiftInfo.setUri(extraParams.getUri());
         }
@@ -643,13 +644,10 @@ public final class ClickstreamEventParser extends BaseEventParser {
     }
 
     private void setProcessInfo(final ExtraParams extraParams, final ClickstreamEvent clickstreamEvent, final TimeShiftInfo timeShiftInfo) {
-        Map<String, String> processInfo = new HashMap<>();
-        processInfo.put("rid", extraParams.getRid());
-        processInfo.put("ingest_time", Instant.ofEpochMilli(extraParams.getIngestTimestamp()).toString());
-        processInfo.put(INPUT_FILE_NAME, extraParams.getInputFileName());
-        processInfo.put("source_ip", extraParams.getIp());
+        RequestContext requestContext = extraParams.getRequestContext();
+        Map<String, String> processInfo = new HashMap<>(requestContext.getProcessInfo());
         if (extraParams.getUploadTimestamp() != null) {
-            processInfo.put("upload_time", Instant.ofEpochMilli(extraParams.getUploadTimestamp()).toString());
+            processInfo.put("upload_time", requestContext.getUploadTime());
         }
         if (timeShiftInfo.isAdjusted()) {
             processInfo.put("event_timestamp_adjusted", true + "");
@@ -665,16 +663,6 @@ public final class ClickstreamEventParser extends BaseEventParser {
         return "{\"type\":\"" + type + "\",\"value\":\"" + value + "\"}";
     }
 
-    private void setEventBundleSeqId(final Map<String, List<String>> uriParams, final ClickstreamEvent clickstreamEvent) {
-        String eventBundleId = uriParams.get("event_bundle_sequence_id") == null ? null : uriParams.get("event_bundle_sequence_id").get(0);
-        try {
-            Long eventBundleIdLong = eventBundleId == null ? null : Long.parseLong(eventBundleId);
-            clickstreamEvent.setEventBundleSequenceId(eventBundleIdLong);
-        } catch (Exception e) {
-            log.warn("cannot parse event_bundle_sequence_id: " + eventBundleId + ERROR_LOG + e.getMessage());
-        }
-    }
-
     private void setEventValue(final Event ingestEvent, final ClickstreamEvent clickstreamEvent) {
         clickstreamEvent.setEventValue(ingestEvent.getEventValue());
         if (clickstreamEvent.getEventValue() != null) {
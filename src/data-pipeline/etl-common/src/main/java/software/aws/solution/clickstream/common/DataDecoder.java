@@ -0,0 +1,314 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes the base64 data field of the ingest rows into a stream of JSON bytes for a byte based parser.
+ * Gzip and zlib payloads are inflated while the stream is read, other payloads are read as they are.
+ * The gzip header and trailer are read here so that the deflate data of both formats is inflated by an inflater of the decoder.
+ * Every thread keeps one decoder, its buffer and inflaters are reused by the next payload once the stream is closed,
+ * a payload opened while the decoder of the thread is still in use gets a decoder of its own.
+ * The flink-etl job uses it from the etl-common jar, it must only depend on the JDK.
+ */
+public final class DataDecoder {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int DEFLATED = 8;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final ThreadLocal<DataDecoder> DECODERS = ThreadLocal.withInitial(() -> new DataDecoder(true));
+
+    private final boolean pooled;
+    private final Inflater zlibInflater = new Inflater();
+    private final Inflater gzipInflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+    private int position;
+    private Inflater inflater;
+    private boolean inUse;
+
+    private DataDecoder(final boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Open the base64 text of a payload, the stream must be closed to give the decoder back to the thread.
+     *
+     * @throws IllegalArgumentException when the text is not valid base64
+     */
+    public static InputStream decodeBase64(final String base64Data) throws IOException {
+        return openBase64(base64Data, false);
+    }
+
+    /**
+     * Open the base64 text of a gzip or zlib payload, other payloads are rejected.
+     */
+    public static InputStream inflateBase64(final String base64Data) throws IOException {
+        return openBase64(base64Data, true);
+    }
+
+    /**
+     * Open the bytes of a payload, the bytes are copied into the buffer of the decoder.
+     */
+    public static InputStream decode(final byte[] bytes) throws IOException {
+        return openBytes(bytes, false);
+    }
+
+    /**
+     * Open the bytes of a gzip or zlib payload, other payloads are rejected.
+     */
+    public static InputStream inflate(final byte[] bytes) throws IOException {
+        return openBytes(bytes, true);
+    }
+
+    private static InputStream openBase64(final String base64Data, final boolean compressedOnly) throws IOException {
+        DataDecoder decoder = acquire();
+        try {
+            // a character out of latin-1 becomes '?', which the decoder rejects
+            byte[] text = base64Data.getBytes(StandardCharsets.ISO_8859_1);
+            decoder.ensureCapacity((text.length + 3) / 4 * 3);
+            decoder.length = Base64.getDecoder().decode(text, decoder.buffer);
+            return decoder.start(compressedOnly);
+        } catch (IOException | RuntimeException e) {
+            decoder.release();
+            throw e;
+        }
+    }
+
+    private static InputStream openBytes(final byte[] bytes, final boolean compressedOnly) throws IOException {
+        DataDecoder decoder = acquire();
+        try {
+            decoder.ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, decoder.buffer, 0, bytes.length);
+            decoder.length = bytes.length;
+            return decoder.start(compressedOnly);
+        } catch (IOException | RuntimeException e) {
+            decoder.release();
+            throw e;
+        }
+    }
+
+    private static DataDecoder acquire() {
+        DataDecoder decoder = DECODERS.get();
+        if (decoder.inUse) {
+            decoder = new DataDecoder(false);
+        }
+        decoder.inUse = true;
+        return decoder;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (buffer.length < capacity) {
+            buffer = new byte[Math.max(capacity, buffer.length * 2)];
+        }
+    }
+
+    private InputStream start(final boolean compressedOnly) throws IOException {
+        position = 0;
+        inflater = null;
+        if (length >= 2 && readShort(0) == GZIP_MAGIC) {
+            inflater = gzipInflater;
+            startGzipMember(0);
+        } else if (length >= 2 && isZlibHeader(buffer[0] & 0xff, buffer[1] & 0xff)) {
+            inflater = zlibInflater;
+            inflater.setInput(buffer, 0, length);
+        } else if (compressedOnly) {
+            throw new ZipException("Not in GZIP format");
+        }
+        return new DecodedStream(this);
+    }
+
+    private static boolean isZlibHeader(final int cmf, final int flg) {
+        return (cmf & 0x0f) == DEFLATED && (cmf >> 4) <= 7 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * Skip the gzip member header at the offset and give the deflate data after it to the gzip inflater.
+     */
+    private void startGzipMember(final int offset) throws IOException {
+        require(offset, GZIP_HEADER_SIZE);
+        if (readShort(offset) != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if ((buffer[offset + 2] & 0xff) != DEFLATED) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = buffer[offset + 3] & 0xff;
+        int dataStart = offset + GZIP_HEADER_SIZE;
+        if ((flags & FEXTRA) != 0) {
+            require(dataStart, 2);
+            dataStart += 2 + readShort(dataStart);
+        }
+        if ((flags & FNAME) != 0) {
+            dataStart = skipZeroTerminated(dataStart);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            dataStart = skipZeroTerminated(dataStart);
+        }
+        if ((flags & FHCRC) != 0) {
+            dataStart += 2;
+        }
+        require(dataStart, 0);
+        gzipInflater.reset();
+        gzipInflater.setInput(buffer, dataStart, length - dataStart);
+        crc.reset();
+    }
+
+    /**
+     * Check the trailer of the finished gzip member and start the member that follows it.
+     *
+     * @return false when the payload has no more members, the bytes after the last member are ignored as GZIPInputStream does
+     */
+    private boolean nextGzipMember() throws IOException {
+        int trailer = length - gzipInflater.getRemaining();
+        require(trailer, GZIP_TRAILER_SIZE);
+        if (readInt(trailer) != (int) crc.getValue() || readInt(trailer + 4) != (int) gzipInflater.getBytesWritten()) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        int next = trailer + GZIP_TRAILER_SIZE;
+        if (length - next < GZIP_HEADER_SIZE || readShort(next) != GZIP_MAGIC) {
+            return false;
+        }
+        startGzipMember(next);
+        return true;
+    }
+
+    private int skipZeroTerminated(final int offset) throws IOException {
+        int index = offset;
+        while (index < length && buffer[index] != 0) {
+            index++;
+        }
+        require(index, 1);
+        return index + 1;
+    }
+
+    private void require(final int offset, final int size) throws IOException {
+        if (offset + size > length) {
+            throw new EOFException("Unexpected end of GZIP input stream");
+        }
+    }
+
+    private int readShort(final int offset) {
+        return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+    }
+
+    private int readInt(final int offset) {
+        return readShort(offset) | (readShort(offset + 2) << 16);
+    }
+
+    private int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (inflater == null) {
+            if (position >= length) {
+                return -1;
+            }
+            int n = Math.min(len, length - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+        try {
+            int n = 0;
+            while (n == 0) {
+                if (inflater.finished()) {
+                    if (inflater != gzipInflater || !nextGzipMember()) {
+                        // the payload is fully read, the raw branch reports the end from now on
+                        inflater = null;
+                        position = length;
+                        return -1;
+                    }
+                    continue;
+                }
+                if (inflater.needsInput() || inflater.needsDictionary()) {
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                }
+                n = inflater.inflate(b, off, len);
+            }
+            if (inflater == gzipInflater) {
+                crc.update(b, off, n);
+            }
+            return n;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid ZLIB data format");
+        }
+    }
+
+    private void release() {
+        inUse = false;
+        inflater = null;
+        if (pooled) {
+            zlibInflater.reset();
+            gzipInflater.reset();
+            if (buffer.length > BUFFER_SIZE * 64) {
+                // a large payload does not keep its buffer on the thread
+                buffer = new byte[BUFFER_SIZE];
+            }
+        } else {
+            zlibInflater.end();
+            gzipInflater.end();
+        }
+    }
+
+    /**
+     * The stream of one payload, it gives the decoder back on close and can not be read after that,
+     * so a caller that keeps the stream never reads the next payload of the thread.
+     */
+    private static final class DecodedStream extends InputStream {
+        private final byte[] single = new byte[1];
+        private DataDecoder decoder;
+
+        private DecodedStream(final DataDecoder decoder) {
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (decoder == null) {
+                throw new IOException("Stream closed");
+            }
+            return decoder.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            if (decoder != null) {
+                DataDecoder released = decoder;
+                decoder = null;
+                released.release();
+            }
+        }
+    }
+}
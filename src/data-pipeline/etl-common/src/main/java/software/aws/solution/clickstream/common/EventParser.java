@@ -16,8 +16,16 @@ package software.aws.solution.clickstream.common;
 import com.fasterxml.jackson.core.*;
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.util.List;
+
 public interface EventParser {
     ParseRowResult parseLineToDBRow(String ingestLine, String projectId, String fileName)  throws JsonProcessingException;
     JsonNode getData(String ingestDataField) throws JsonProcessingException;
     ParseDataResult parseData(String dataString, ExtraParams extraParams, int index)  throws JsonProcessingException;
+
+    /**
+     * Decode the ingested data field and parse each event of it straight into the typed event model,
+     * the result list holds one entry per event in the order of the payload.
+     */
+    List<ParseDataResult> parseRawData(String ingestDataField, ExtraParams extraParams) throws JsonProcessingException;
 }
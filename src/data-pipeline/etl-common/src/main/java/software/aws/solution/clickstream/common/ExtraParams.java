@@ -28,6 +28,17 @@ public class ExtraParams {
     String ua;
     String ip;
     String appId;
+    RequestContext requestContext;
+
+    /**
+     * The context shared by the events of this request, created with the first event that asks for it.
+     */
+    public RequestContext getRequestContext() {
+        if (requestContext == null) {
+            requestContext = new RequestContext(this);
+        }
+        return requestContext;
+    }
 
     public static ExtraParamsBuilder builder() {
         return new ExtraParamsBuilder();
@@ -91,7 +102,7 @@ public class ExtraParams {
         }
 
         public ExtraParams build() {
-            return new ExtraParams(ingestTimestamp, uploadTimestamp, rid, projectId, inputFileName, uri, ua, ip, appId);
+            return new ExtraParams(ingestTimestamp, uploadTimestamp, rid, projectId, inputFileName, uri, ua, ip, appId, null);
         }
     }
 }
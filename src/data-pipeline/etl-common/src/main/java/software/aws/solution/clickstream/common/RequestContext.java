@@ -0,0 +1,70 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static software.aws.solution.clickstream.common.BaseEventParser.INPUT_FILE_NAME;
+import static software.aws.solution.clickstream.common.BaseEventParser.UPLOAD_TIMESTAMP;
+import static software.aws.solution.clickstream.common.Util.ERROR_LOG;
+
+/**
+ * The values of an ingest request that all the events of its bundle share, computed once when the first event is parsed.
+ */
+@Slf4j
+@Getter
+public final class RequestContext {
+    public static final String EVENT_BUNDLE_SEQUENCE_ID = "event_bundle_sequence_id";
+
+    private final Long eventBundleSequenceId;
+    /**
+     * The upload timestamp of the request, or the upload_timestamp parameter of its uri.
+     */
+    private final Long uploadTimestamp;
+    private final String uploadTime;
+    private final Map<String, String> processInfo;
+
+    RequestContext(final ExtraParams extraParams) {
+        UrlTokenizer uri = UrlTokenizer.tokenize(extraParams.getUri() == null ? "" : extraParams.getUri());
+        this.eventBundleSequenceId = parseLongParam(uri, EVENT_BUNDLE_SEQUENCE_ID);
+        this.uploadTimestamp = extraParams.getUploadTimestamp() != null ? extraParams.getUploadTimestamp() : parseLongParam(uri, UPLOAD_TIMESTAMP);
+        this.uploadTime = this.uploadTimestamp == null ? null : Instant.ofEpochMilli(this.uploadTimestamp).toString();
+
+        Map<String, String> requestProcessInfo = new HashMap<>();
+        requestProcessInfo.put("rid", extraParams.getRid());
+        requestProcessInfo.put("ingest_time", Instant.ofEpochMilli(extraParams.getIngestTimestamp()).toString());
+        requestProcessInfo.put(INPUT_FILE_NAME, extraParams.getInputFileName());
+        requestProcessInfo.put("source_ip", extraParams.getIp());
+        this.processInfo = Collections.unmodifiableMap(requestProcessInfo);
+    }
+
+    private static Long parseLongParam(final UrlTokenizer uri, final String name) {
+        String value = uri.getParameter(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (Exception e) {
+            log.warn("cannot parse " + name + ": " + value + ERROR_LOG + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A url tokenizer that reads the same components as {@link java.net.URI}, without building the uri.
+ * The components are kept as offsets into the url and only decoded when they are read.
+ * A url that {@link java.net.URI} rejects is reported as invalid and has no components,
+ * the rare urls whose host or authority the tokenizer does not read itself, such as an IP literal, are parsed by {@link java.net.URI}.
+ * Query parameters are read as {@link Util#getUriParams(String)} always did: the decoded query is split on '&amp;' and '=',
+ * and the values are decoded again as form encoded.
+ */
+public final class UrlTokenizer {
+    private static final int NONE = -1;
+    private static final int MAX_PORT_DIGITS = 9;
+    private static final String UNRESERVED_MARKS = "-_.!~*'()";
+    private static final String RESERVED = ";/?:@&=+$,";
+
+    private final String url;
+    private boolean valid = true;
+    private URI uri;
+    private int schemeEnd = NONE;
+    private int hostStart = NONE;
+    private int hostEnd = NONE;
+    private int pathStart = NONE;
+    private int pathEnd = NONE;
+    private int queryStart = NONE;
+    private int queryEnd = NONE;
+    private int fragmentStart = NONE;
+
+    private UrlTokenizer(final String url) {
+        this.url = url;
+    }
+
+    public static UrlTokenizer tokenize(final String url) {
+        UrlTokenizer tokenizer = new UrlTokenizer(url);
+        if (!tokenizer.hasUriCharacters()) {
+            tokenizer.valid = false;
+        } else if (!tokenizer.scan()) {
+            tokenizer.parseWithUri();
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Whether the url is accepted by {@link java.net.URI}, an invalid url has no components.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Check the characters as {@link java.net.URI} does: unreserved, reserved and escaped characters,
+     * visible characters out of US-ASCII, and one '#' before the fragment.
+     */
+    private boolean hasUriCharacters() {
+        int length = url.length();
+        boolean fragment = false;
+        for (int i = 0; i < length; i++) {
+            char c = url.charAt(i);
+            if (c == '%') {
+                if (!isEscape(url, i, length)) {
+                    return false;
+                }
+                i += 2;
+            } else if (c == '#') {
+                if (fragment) {
+                    return false;
+                }
+                fragment = true;
+            } else if (c < 0x80) {
+                if (!isAlpha(c) && !isDigit(c) && UNRESERVED_MARKS.indexOf(c) < 0 && RESERVED.indexOf(c) < 0 && c != '[' && c != ']') {
+                    return false;
+                }
+            } else if (Character.isSpaceChar(c) || Character.isISOControl(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the components of the url.
+     *
+     * @return false when the url has a part that only {@link java.net.URI} reads exactly, such as an IP literal
+     */
+    private boolean scan() {
+        if (url.indexOf('[') >= 0 || url.indexOf(']') >= 0) {
+            return false;
+        }
+        int length = url.length();
+        int end = url.indexOf('#');
+        if (end >= 0) {
+            fragmentStart = end + 1;
+        } else {
+            end = length;
+        }
+        int position = 0;
+        int colon = findSchemeColon(end);
+        if (colon >= 0) {
+            if (!isScheme(colon)) {
+                valid = false;
+                return true;
+            }
+            schemeEnd = colon;
+            position = colon + 1;
+            if (position == end) {
+                // an opaque uri needs a scheme specific part
+                valid = false;
+                return true;
+            }
+            if (url.charAt(position) != '/') {
+                // an opaque uri such as mailto:, it has neither path nor query
+                return true;
+            }
+        }
+        if (url.startsWith("//", position)) {
+            if (position + 2 == length) {
+                // an empty authority must be followed by a path, a query or a fragment
+                valid = false;
+                return true;
+            }
+            position = scanAuthority(position + 2, end);
+            if (position == NONE) {
+                return false;
+            }
+        }
+        int question = url.indexOf('?', position);
+        pathStart = position;
+        pathEnd = question >= 0 && question < end ? question : end;
+        if (pathEnd < end) {
+            queryStart = pathEnd + 1;
+            queryEnd = end;
+        }
+        return true;
+    }
+
+    private void parseWithUri() {
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            valid = false;
+        }
+    }
+
+    /**
+     * The first ':' before any '/', '?' or '#', as {@link java.net.URI} looks for the scheme.
+     */
+    private int findSchemeColon(final int end) {
+        for (int i = 0; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == ':') {
+                return i;
+            }
+            if (c == '/' || c == '?') {
+                return NONE;
+            }
+        }
+        return NONE;
+    }
+
+    private boolean isScheme(final int end) {
+        if (end == 0 || !isAlpha(url.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < end; i++) {
+            char c = url.charAt(i);
+            if (!isAlpha(c) && !isDigit(c) && c != '+' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the host of the authority, it is null unless the authority is a server with a host name as {@link java.net.URI} reads it.
+     *
+     * @return the end of the authority, NONE when the authority needs {@link java.net.URI}
+     */
+    private int scanAuthority(final int start, final int end) {
+        int authorityEnd = start;
+        while (authorityEnd < end && url.charAt(authorityEnd) != '/' && url.charAt(authorityEnd) != '?') {
+            authorityEnd++;
+        }
+        int at = url.indexOf('@', start);
+        if (at >= 0 && at < authorityEnd && url.indexOf('@', at + 1) >= 0 && url.indexOf('@', at + 1) < authorityEnd) {
+            // the user info ends at the first '@'
+            return NONE;
+        }
+        int serverStart = at >= 0 && at < authorityEnd ? at + 1 : start;
+        int serverEnd = authorityEnd;
+        int portColon = url.lastIndexOf(':', authorityEnd - 1);
+        if (portColon >= serverStart) {
+            if (!isDigits(portColon + 1, authorityEnd)) {
+                return authorityEnd;
+            }
+            if (authorityEnd - portColon - 1 > MAX_PORT_DIGITS) {
+                // a port out of the int range makes the authority a registry name
+                return NONE;
+            }
+            serverEnd = portColon;
+        }
+        if (serverStart < serverEnd && isDigitsOrDots(serverStart, serverEnd)) {
+            // an IPv4 address or a host name of digits
+            return NONE;
+        }
+        if (isServerName(serverStart, serverEnd)) {
+            hostStart = serverStart;
+            hostEnd = serverEnd;
+        }
+        return authorityEnd;
+    }
+
+    private boolean isServerName(final int start, final int end) {
+        if (start == end) {
+            return false;
+        }
+        int labelStart = start;
+        int lastLabelStart = start;
+        int last = url.charAt(end - 1) == '.' ? end - 1 : end;
+        for (int i = start; i <= last; i++) {
+            if (i == last || url.charAt(i) == '.') {
+                if (i == labelStart || url.charAt(labelStart) == '-' || url.charAt(i - 1) == '-') {
+                    return false;
+                }
+                lastLabelStart = labelStart;
+                labelStart = i + 1;
+            } else if (!isAlpha(url.charAt(i)) && !isDigit(url.charAt(i)) && url.charAt(i) != '-') {
+                return false;
+            }
+        }
+        // the top label of a host name with more than one label starts with a letter
+        return lastLabelStart == start || isAlpha(url.charAt(lastLabelStart));
+    }
+
+    private boolean isDigitsOrDots(final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (!isDigit(url.charAt(i)) && url.charAt(i) != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDigits(final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (!isDigit(url.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAlpha(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHex(final char c) {
+        return isDigit(c) || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+    }
+
+    public String getScheme() {
+        if (!valid || uri != null) {
+            return valid ? uri.getScheme() : null;
+        }
+        return schemeEnd == NONE ? null : url.substring(0, schemeEnd);
+    }
+
+    public String getHost() {
+        if (!valid || uri != null) {
+            return valid ? uri.getHost() : null;
+        }
+        return hostStart == NONE ? null : url.substring(hostStart, hostEnd);
+    }
+
+    /**
+     * The decoded path, empty when the url has an authority but no path and null for an opaque uri.
+     */
+    public String getPath() {
+        if (!valid || uri != null) {
+            return valid ? uri.getPath() : null;
+        }
+        return pathStart == NONE ? null : decode(url, pathStart, pathEnd, false);
+    }
+
+    public String getRawQuery() {
+        if (!valid || uri != null) {
+            return valid ? uri.getRawQuery() : null;
+        }
+        return queryStart == NONE ? null : url.substring(queryStart, queryEnd);
+    }
+
+    /**
+     * The query with its escapes and form encoding decoded, as {@link Util#deCodeUri(String)} of the decoded query.
+     */
+    public String getQuery() {
+        return Util.deCodeUri(getDecodedQuery());
+    }
+
+    public String getFragment() {
+        if (!valid || uri != null) {
+            return valid ? uri.getFragment() : null;
+        }
+        return fragmentStart == NONE ? null : decode(url, fragmentStart, url.length(), false);
+    }
+
+    private String getDecodedQuery() {
+        if (!valid || uri != null) {
+            return valid ? uri.getQuery() : null;
+        }
+        return queryStart == NONE ? null : decode(url, queryStart, queryEnd, false);
+    }
+
+    /**
+     * The first value of a query parameter.
+     *
+     * @return null when the parameter is missing or has no value
+     */
+    public String getParameter(final String name) {
+        String query = getDecodedQuery();
+        if (query == null) {
+            return null;
+        }
+        int end = getPairsEnd(query);
+        int pairStart = 0;
+        while (pairStart < end) {
+            int pairEnd = indexOf(query, '&', pairStart, end);
+            int equals = indexOf(query, '=', pairStart, pairEnd);
+            int keyEnd = equals > pairStart ? equals : pairEnd;
+            if (keyEnd - pairStart == name.length() && query.startsWith(name, pairStart)) {
+                return getValue(query, pairStart, equals, pairEnd);
+            }
+            pairStart = pairEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * All the query parameters, a parameter without a value maps to a null value.
+     * The decoded query is split as {@link String#split(String)} splits it: an escaped separator separates the pairs as well,
+     * an empty query or an empty pair before the last pair gives an empty key, and the trailing empty pairs are dropped.
+     */
+    public Map<String, List<String>> getParameters() {
+        Map<String, List<String>> params = new HashMap<>();
+        String query = getDecodedQuery();
+        if (query == null) {
+            return params;
+        }
+        if (query.isEmpty()) {
+            params.computeIfAbsent(query, k -> new ArrayList<>()).add(null);
+            return params;
+        }
+        int end = getPairsEnd(query);
+        int pairStart = 0;
+        while (pairStart < end) {
+            int pairEnd = indexOf(query, '&', pairStart, end);
+            int equals = indexOf(query, '=', pairStart, pairEnd);
+            String key = query.substring(pairStart, equals > pairStart ? equals : pairEnd);
+            params.computeIfAbsent(key, k -> new ArrayList<>()).add(getValue(query, pairStart, equals, pairEnd));
+            pairStart = pairEnd + 1;
+        }
+        return params;
+    }
+
+    private static int getPairsEnd(final String query) {
+        int end = query.length();
+        while (end > 0 && query.charAt(end - 1) == '&') {
+            end--;
+        }
+        return end;
+    }
+
+    private static String getValue(final String query, final int pairStart, final int equals, final int pairEnd) {
+        return equals > pairStart && equals + 1 < pairEnd ? Util.deCodeUri(query.substring(equals + 1, pairEnd)) : null;
+    }
+
+    private static int indexOf(final String text, final char c, final int start, final int end) {
+        int index = text.indexOf(c, start);
+        return index >= 0 && index < end ? index : end;
+    }
+
+    /**
+     * Decode the UTF-8 escapes of a part of the text, a malformed escape is kept as it is.
+     */
+    static String decode(final String text, final int start, final int end, final boolean plusAsSpace) {
+        int first = start;
+        while (first < end && text.charAt(first) != '%' && !(plusAsSpace && text.charAt(first) == '+')) {
+            first++;
+        }
+        if (first == end) {
+            return text.substring(start, end);
+        }
+        StringBuilder decoded = new StringBuilder(end - start);
+        decoded.append(text, start, first);
+        byte[] bytes = null;
+        int i = first;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == '+' && plusAsSpace) {
+                decoded.append(' ');
+                i++;
+            } else if (c == '%' && isEscape(text, i, end)) {
+                if (bytes == null) {
+                    bytes = new byte[(end - i) / 3];
+                }
+                int count = 0;
+                while (i < end && text.charAt(i) == '%' && isEscape(text, i, end)) {
+                    bytes[count++] = (byte) ((Character.digit(text.charAt(i + 1), 16) << 4) | Character.digit(text.charAt(i + 2), 16));
+                    i += 3;
+                }
+                decoded.append(new String(bytes, 0, count, StandardCharsets.UTF_8));
+            } else {
+                decoded.append(c);
+                i++;
+            }
+        }
+        return decoded.toString();
+    }
+
+    private static boolean isEscape(final String text, final int index, final int end) {
+        return index + 2 < end && isHex(text.charAt(index + 1)) && isHex(text.charAt(index + 2));
+    }
+}
@@ -23,22 +23,16 @@ import software.aws.solution.clickstream.common.model.ClickstreamEventPropValue;
 import software.aws.solution.clickstream.common.model.ClickstreamUserPropValue;
 import software.aws.solution.clickstream.common.model.ValueType;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 @Slf4j
 public final class Util {
@@ -55,16 +49,22 @@ public final class Util {
         if (str == null) {
             return "";
         }
-        GZIPInputStream gis;
-        try {
-            gis = new GZIPInputStream(new ByteArrayInputStream(str));
-            BufferedReader bf = new BufferedReader(new InputStreamReader(gis, StandardCharsets.UTF_8));
-            StringBuilder outStr = new StringBuilder();
-            String line;
-            while ((line = bf.readLine()) != null) {
-                outStr.append(line);
+        try (InputStream inflated = DataDecoder.inflate(str)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(str.length * 4);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inflated.read(buffer)) > 0) {
+                // line breaks are dropped as the line based decompression did, they cannot be part of a JSON value
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n' || buffer[i] == '\r') {
+                        out.write(buffer, start, i - start);
+                        start = i + 1;
+                    }
+                }
+                out.write(buffer, start, read - start);
             }
-            return outStr.toString();
+            return out.toString(StandardCharsets.UTF_8.name());
         } catch (IOException e) {
             log.error("decompress error:" + e.getMessage());
             throw new ExtractDataException(e);
@@ -73,31 +73,18 @@ public final class Util {
 
 
     public static Map<String, List<String>> getUriParams(final String uri) {
-        try {
-            URI uriObj = new URI(uri);
-            return getUriParams(uriObj);
-        } catch (URISyntaxException e) {
-            log.warn("cannot parse uri: " + uri + ERROR_LOG + e.getMessage());
+        if (uri == null) {
+            return new HashMap<>();
+        }
+        UrlTokenizer tokenizer = UrlTokenizer.tokenize(uri);
+        if (!tokenizer.isValid()) {
+            log.warn("cannot parse uri: " + uri);
         }
-        return new HashMap<>();
+        return tokenizer.getParameters();
     }
 
     public static Map<String, List<String>> getUriParams(final URI uriObj) {
-        Map<String, List<String>> params = new HashMap<>();
-
-        String query = uriObj.getQuery();
-        if (query != null) {
-            String[] pairs = query.split("&");
-            for (String pair : pairs) {
-                int idx = pair.indexOf("=");
-                String key = idx > 0 ? pair.substring(0, idx) : pair;
-                params.computeIfAbsent(key, k -> new ArrayList<>());
-                String value = idx > 0 && pair.length() > idx + 1 ? pair.substring(idx + 1) : null;
-                params.get(key).add(deCodeUri(value));
-            }
-        }
-
-        return params;
+        return getUriParams(uriObj.toString());
     }
 
     public static UrlParseResult parseUrl(final String url) {
@@ -109,16 +96,17 @@ public final class Util {
             schemaUrl = "https://" + url;
         }
 
+        UrlTokenizer tokenizer = UrlTokenizer.tokenize(schemaUrl);
         UrlParseResult result = new UrlParseResult();
-        try {
-            URI uri = new URI(schemaUrl);
-            result.setHostName(uri.getHost());
-            result.setPath(uri.getPath());
-            result.setQueryString(deCodeUri(uri.getQuery()));
-            result.setQueryParameters(getUriParams(url));
-        } catch (URISyntaxException e) {
-            log.warn("cannot parse url: " + schemaUrl + ERROR_LOG + e.getMessage());
+        if (!tokenizer.isValid()) {
+            log.warn("cannot parse url: " + schemaUrl);
+            return result;
         }
+        result.setHostName(tokenizer.getHost());
+        result.setPath(tokenizer.getPath());
+        result.setQueryString(tokenizer.getQuery());
+        // the parameters are read from the url as it is given, without the added scheme
+        result.setQueryParameters(schemaUrl.equals(url) ? tokenizer.getParameters() : getUriParams(url));
         return result;
     }
 
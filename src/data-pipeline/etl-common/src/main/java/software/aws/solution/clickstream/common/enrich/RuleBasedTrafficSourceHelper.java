@@ -76,7 +76,7 @@ public final class RuleBasedTrafficSourceHelper implements TrafficSourceHelper {
     private final CategoryListEvaluator categoryListEvaluator;
     private final ChannelListEvaluator channelListEvaluator;
 
-    private static final Cache<CategoryTrafficSource> CACHED_CATEGORY_TRAFFIC_SOURCE = new Cache<>();
+    private static final Cache<CategoryTrafficSource> CACHED_CATEGORY_TRAFFIC_SOURCE = Cache.<CategoryTrafficSource>builder("categoryTrafficSource").build();
     @Getter
     private final String appId;
 
@@ -189,8 +189,9 @@ public final class RuleBasedTrafficSourceHelper implements TrafficSourceHelper {
         log.debug("parser() enter pageUrl: {}, pageReferrer: {}, latestReferrer: {}, latestReferrerHost: {}", pageUrl, pageReferrer, latestReferrer, latestReferrerHost);
 
         String cachedKey = String.join("|", pageUrl, pageReferrer, latestReferrer);
-        if (CACHED_CATEGORY_TRAFFIC_SOURCE.containsKey(cachedKey)) {
-            return CACHED_CATEGORY_TRAFFIC_SOURCE.get(cachedKey);
+        CategoryTrafficSource cachedResult = CACHED_CATEGORY_TRAFFIC_SOURCE.get(cachedKey);
+        if (cachedResult != null) {
+            return cachedResult;
         }
         TrafficSourceUtm trafficSourceUtm = new TrafficSourceUtm();
         String pageHostName = null;
@@ -325,8 +326,9 @@ public final class RuleBasedTrafficSourceHelper implements TrafficSourceHelper {
                 trafficSourceUtmInput, pageHostName, pageReferrer, latestReferrer, latestReferrerHost);
 
         String catchKey = String.join("|", trafficSourceUtmInput.hashCode() + "", pageReferrer, latestReferrer);
-        if (CACHED_CATEGORY_TRAFFIC_SOURCE.containsKey(catchKey)) {
-            return CACHED_CATEGORY_TRAFFIC_SOURCE.get(catchKey);
+        CategoryTrafficSource cachedResult = CACHED_CATEGORY_TRAFFIC_SOURCE.get(catchKey);
+        if (cachedResult != null) {
+            return cachedResult;
         }
         TrafficSourceUtm trafficSourceUtm = normEmptyInTrafficSourceUtm(trafficSourceUtmInput);
 
@@ -30,7 +30,11 @@ public final class UAEnrichHelper {
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     public static final String UA_STRING = "string";
     public static final String BOT = "Bot";
-    private static final Cache<ClickstreamUA> CACHED_UA = new Cache<>();
+    private static final long UA_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+    private static final long UA_ENTRY_BASE_BYTES = 512L;
+    private static final Cache<ClickstreamUA> CACHED_UA = Cache.<ClickstreamUA>builder("userAgent")
+            .maximumBytes(UA_CACHE_MAX_BYTES, ua -> UA_ENTRY_BASE_BYTES + 2L * String.valueOf(ua.getUaMap().get(UA_STRING)).length())
+            .build();
 
     private UAEnrichHelper() {
     }
@@ -39,8 +43,9 @@ public final class UAEnrichHelper {
         if (userAgent == null || userAgent.isEmpty()) {
             return clickstreamUA;
         }
-        if (CACHED_UA.containsKey(userAgent)) {
-            return CACHED_UA.get(userAgent);
+        ClickstreamUA cachedUA = CACHED_UA.get(userAgent);
+        if (cachedUA != null) {
+            return cachedUA;
         }
         Client client = UA_PARSER.parse(userAgent);
         if (client.userAgent != null) {
@@ -16,6 +16,7 @@ package software.aws.solution.clickstream.common.enrich.ts.rule;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -44,9 +45,14 @@ public final class CategoryListEvaluator {
     public static  final  Pattern HOST_NAME_AND_CONNTRY_PATTERN = Pattern.compile("(.*\\.[a-z]{2,3})\\.[a-z]{2}");
 
     public static final String UNASSIGNED = "Unassigned";
-    @Setter
+    private static final String WWW = "www.";
+    private static final String GOOGLE_COM = "google.com";
+
     Map<String, CategoryItem> categoryMap;
 
+    @Getter(AccessLevel.NONE)
+    HostPathIndex hostPathIndex;
+
     @Setter
     Map<String, String> sourceCategoryMap;
 
@@ -92,6 +98,12 @@ public final class CategoryListEvaluator {
         throw new FileNotFoundException("category rules file not found: " + fileName);
     }
 
+    public void setCategoryMap(final Map<String, CategoryItem> categoryMap) {
+        this.categoryMap = categoryMap;
+        this.hostPathIndex = new HostPathIndex();
+        categoryMap.forEach(this.hostPathIndex::put);
+    }
+
     public String getCategoryBySource(final String source) {
       return this.sourceCategoryMap.get(source);
     }
@@ -108,15 +120,9 @@ public final class CategoryListEvaluator {
         String path = r.getPath();
         Map<String, List<String>> urlParams = r.getQueryParameters();
 
-        List<String> candidateUrls = getCandidateUrls(theReferrerUrl, hostName, path);
-
-        CategoryItem categoryItem = null;
-        for (String candidateUrl : candidateUrls) {
-            categoryItem = this.categoryMap.get(candidateUrl);
-            if (categoryItem != null) {
-                log.debug("Category found for url: {}", theReferrerUrl);
-                break;
-            }
+        CategoryItem categoryItem = findCategoryItem(theReferrerUrl, hostName, path);
+        if (categoryItem != null) {
+            log.debug("Category found for url: {}", theReferrerUrl);
         }
 
         if (categoryItem != null) {
@@ -144,6 +150,98 @@ public final class CategoryListEvaluator {
         return categoryAndTerms;
     }
 
+    /**
+     * Find the rule of the longest of the candidate urls of {@link #getCandidateUrls(String, String, String)}.
+     * The host candidates are looked up with walks over the host in the host and path index instead of being built.
+     */
+    private CategoryItem findCategoryItem(final String theReferrerUrl, final String hostNameInput, final String pathInput) {
+        CandidateMatch match = new CandidateMatch();
+
+        int schemeIndex = theReferrerUrl.indexOf("://");
+        String urlWithoutScheme = theReferrerUrl;
+        if (schemeIndex >= 0) {
+            int nextSchemeIndex = theReferrerUrl.indexOf("://", schemeIndex + 3);
+            urlWithoutScheme = theReferrerUrl.substring(schemeIndex + 3, nextSchemeIndex < 0 ? theReferrerUrl.length() : nextSchemeIndex);
+        }
+        match.offer(this.categoryMap.get(urlWithoutScheme), urlWithoutScheme.length());
+
+        boolean hasPath = pathInput != null && !pathInput.isEmpty() && !pathInput.equals("/");
+        String path = hasPath && !pathInput.startsWith("/") ? "/" + pathInput : pathInput;
+        int pathLength = hasPath ? path.length() : 0;
+        String hostName = hostNameInput == null ? "" : hostNameInput;
+        int hostLength = hostName.length();
+        boolean hasWww = hostName.startsWith(WWW);
+
+        int hostStart = hasWww ? WWW.length() : 0;
+        HostPathIndex.Node withoutWwwNode = HostPathIndex.walk(this.hostPathIndex.getRoot(), hostName, hostStart, hostLength);
+        HostPathIndex.Node hostNode = HostPathIndex.walk(withoutWwwNode, hostName, 0, hostStart);
+        offerHost(match, hostNode, hasPath ? path : null, hostLength, pathLength);
+        if (hasWww) {
+            offerHost(match, withoutWwwNode, hasPath ? path : null, hostLength - hostStart, pathLength);
+        }
+
+        int countryCodeStart = getCountryCodeStart(hostName, 0);
+        if (countryCodeStart > 0) {
+            HostPathIndex.Node withoutWwwCountryNode = HostPathIndex.walk(this.hostPathIndex.getRoot(), hostName, hostStart, countryCodeStart);
+            offerHost(match, HostPathIndex.walk(withoutWwwCountryNode, hostName, 0, hostStart), null, countryCodeStart, 0);
+            if (hasWww && getCountryCodeStart(hostName, hostStart) > 0) {
+                offerHost(match, withoutWwwCountryNode, null, countryCodeStart - hostStart, 0);
+            }
+        }
+
+        if (theReferrerUrl.contains(".google.")) {
+            match.offer(this.categoryMap.get(GOOGLE_COM), GOOGLE_COM.length());
+        }
+        return match.item;
+    }
+
+    private static void offerHost(final CandidateMatch match, final HostPathIndex.Node node, final String path, final int hostLength, final int pathLength) {
+        if (node == null) {
+            return;
+        }
+        if (path != null) {
+            match.offer(node.getPathItem(path), hostLength + pathLength);
+        }
+        match.offer(node.getHostItem(), hostLength);
+    }
+
+    /**
+     * The index of the dot before the country code of a host that {@link #HOST_NAME_AND_CONNTRY_PATTERN} matches, read from start.
+     *
+     * @return -1 when the host has no country code
+     */
+    static int getCountryCodeStart(final String hostName, final int start) {
+        int dot = hostName.length() - 3;
+        if (dot - start < 3 || hostName.charAt(dot) != '.' || !isLowerCaseLetter(hostName.charAt(dot + 1)) || !isLowerCaseLetter(hostName.charAt(dot + 2))) {
+            return -1;
+        }
+        int labelStart = dot;
+        while (labelStart > start && isLowerCaseLetter(hostName.charAt(labelStart - 1))) {
+            labelStart--;
+        }
+        int labelLength = dot - labelStart;
+        if (labelLength < 2 || labelLength > 3 || labelStart - 1 < start || hostName.charAt(labelStart - 1) != '.') {
+            return -1;
+        }
+        return dot;
+    }
+
+    private static boolean isLowerCaseLetter(final char c) {
+        return c >= 'a' && c <= 'z';
+    }
+
+    private static final class CandidateMatch {
+        private CategoryItem item;
+        private int length = -1;
+
+        void offer(final CategoryItem candidateItem, final int candidateLength) {
+            if (candidateItem != null && candidateLength > length) {
+                item = candidateItem;
+                length = candidateLength;
+            }
+        }
+    }
+
    static List<String> getCandidateUrls(final String theReferrerUrl, final String hostNameInput, final String pathInput) {
         List<String> candidateUrls = new ArrayList<>();
         if (theReferrerUrl.contains("://")) {
@@ -18,12 +18,12 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import software.aws.solution.clickstream.common.Cache;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
+import java.util.function.Predicate;
 
 import static software.aws.solution.clickstream.common.Util.readResourceFile;
 import static software.aws.solution.clickstream.common.Util.readTextFile;
@@ -33,7 +33,7 @@ public final class ChannelListEvaluator {
     public static final String UNASSIGNED = "Unassigned";
     @Getter
     private List<ChannelRule> channelRules;
-    private static final Cache<String> CHANNEL_CACHED = new Cache<>();
+    private List<Predicate<ChannelRuleEvaluatorInput>> compiledRules;
 
     private ChannelListEvaluator() {
 
@@ -45,6 +45,7 @@ public final class ChannelListEvaluator {
         });
         ChannelListEvaluator channelListEvaluator = new ChannelListEvaluator();
         channelListEvaluator.channelRules = ruleList;
+        channelListEvaluator.compiledRules = ChannelRuleEvaluator.getInstance().compileAll(ruleList);
         return channelListEvaluator;
     }
 
@@ -65,23 +66,13 @@ public final class ChannelListEvaluator {
     }
 
     public String evaluate(final ChannelRuleEvaluatorInput channelRuleEvaluatorInput) {
-        log.debug("Evaluating channel rule for: {}", channelRuleEvaluatorInput.toString());
+        log.debug("Evaluating channel rule for: {}", channelRuleEvaluatorInput);
 
-        String cachedKey = channelRuleEvaluatorInput.hashCode() + "";
-        if (CHANNEL_CACHED.containsKey(cachedKey)) {
-            return CHANNEL_CACHED.get(cachedKey);
-        }
-
-        String channel = UNASSIGNED;
-        ChannelRuleEvaluator evaluator = ChannelRuleEvaluator.getInstance();
-
-        for (ChannelRule rule : this.channelRules) {
-            if (evaluator.evaluate(rule, channelRuleEvaluatorInput)) {
-                channel = rule.getChannel();
-                break;
+        for (int i = 0; i < this.compiledRules.size(); i++) {
+            if (this.compiledRules.get(i).test(channelRuleEvaluatorInput)) {
+                return this.channelRules.get(i).getChannel();
             }
         }
-        CHANNEL_CACHED.put(cachedKey, channel);
-        return channel;
+        return UNASSIGNED;
     }
 }
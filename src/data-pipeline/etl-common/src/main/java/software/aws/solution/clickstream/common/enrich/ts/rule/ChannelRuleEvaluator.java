@@ -17,20 +17,90 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import software.aws.solution.clickstream.common.Constant;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
+/**
+ * Compiles channel rules into predicate trees: field accessors are resolved, compared values are
+ * lower-cased into sets and regular expressions are compiled once, so evaluating an event only does
+ * the comparisons themselves.
+ */
 @Slf4j
 public final class ChannelRuleEvaluator {
     public static final String EMPTY_VALUE_FLAG = "__empty__";
+    private static final Map<String, Function<ChannelRuleEvaluatorInput, String>> FIELD_ACCESSORS = new HashMap<>();
+
+    static {
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_CATEGORY, ChannelRuleEvaluatorInput::getTrafficSourceCategory);
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_SOURCE, ChannelRuleEvaluatorInput::getTrafficSourceSource);
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_MEDIUM, ChannelRuleEvaluatorInput::getTrafficSourceMedium);
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_CAMPAIGN, ChannelRuleEvaluatorInput::getTrafficSourceCampaign);
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_CAMPAIGN_ID, ChannelRuleEvaluatorInput::getTrafficSourceCampaignId);
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_CONTENT, ChannelRuleEvaluatorInput::getTrafficSourceContent);
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_TERM, ChannelRuleEvaluatorInput::getTrafficSourceTerm);
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_CLID, ChannelRuleEvaluatorInput::getTrafficSourceClid);
+        FIELD_ACCESSORS.put(Constant.TRAFFIC_SOURCE_CLID_PLATFORM, ChannelRuleEvaluatorInput::getTrafficSourceClidPlatform);
+        FIELD_ACCESSORS.put(Constant.PAGE_VIEW_LATEST_REFERRER, ChannelRuleEvaluatorInput::getPageViewLatestReferrer);
+        FIELD_ACCESSORS.put(Constant.PAGE_VIEW_LATEST_REFERRER_HOST, ChannelRuleEvaluatorInput::getPageViewLatestReferrerHost);
+    }
 
     @Getter
     private static ChannelRuleEvaluator instance = new ChannelRuleEvaluator();
 
+    /**
+     * The compiled predicate of each rule, held as long as the rule is. A rule is compiled on its first evaluation
+     * unless its list was compiled before, so it must not be changed once it is evaluated.
+     */
+    private final Map<ChannelRule, Predicate<ChannelRuleEvaluatorInput>> compiledRules = Collections.synchronizedMap(new WeakHashMap<>());
+
     private ChannelRuleEvaluator() {
     }
 
     public boolean evaluate(final ChannelRule channelRule, final ChannelRuleEvaluatorInput channelRuleEvaluatorInput) {
+        Predicate<ChannelRuleEvaluatorInput> predicate = compiledRules.get(channelRule);
+        if (predicate == null) {
+            // an invalid rule throws here and is compiled again on its next evaluation
+            predicate = compile(channelRule, new HashMap<>());
+            compiledRules.put(channelRule, predicate);
+        }
+        return predicate.test(channelRuleEvaluatorInput);
+    }
+
+    /**
+     * Compile the rules in order, identical field conditions of different rules share one predicate.
+     * An invalid condition is compiled into a predicate that throws when it is reached, the same as
+     * when the rule was interpreted for every event.
+     */
+    public List<Predicate<ChannelRuleEvaluatorInput>> compileAll(final List<ChannelRule> channelRules) {
+        Map<String, Predicate<ChannelRuleEvaluatorInput>> sharedConditions = new HashMap<>();
+        List<Predicate<ChannelRuleEvaluatorInput>> predicates = new ArrayList<>(channelRules.size());
+        for (ChannelRule rule : channelRules) {
+            Predicate<ChannelRuleEvaluatorInput> predicate;
+            try {
+                predicate = compile(rule, sharedConditions);
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid channel rule {}: {}", rule.getId(), e.getMessage());
+                predicate = failing(e);
+            }
+            predicates.add(predicate);
+            compiledRules.put(rule, predicate);
+        }
+        log.info("Compiled {} channel rules with {} distinct field conditions", predicates.size(), sharedConditions.size());
+        return predicates;
+    }
+
+    private Predicate<ChannelRuleEvaluatorInput> compile(final ChannelRule channelRule,
+                                                         final Map<String, Predicate<ChannelRuleEvaluatorInput>> sharedConditions) {
 
         List<ChannelRuleConditionItem> andList = channelRule.getCondition().getOpAndList();
 
@@ -47,36 +117,27 @@ public final class ChannelRuleEvaluator {
         }
 
         if (andList != null) {
-            return evaluateAndList(channelRuleEvaluatorInput, andList);
+            return new AndCondition(compileItems(andList, sharedConditions));
         }
 
-        return evaluateOrList(channelRuleEvaluatorInput, orList);
-
-    }
-
-    private boolean evaluateOrList(final ChannelRuleEvaluatorInput channelRuleEvaluatorInput, final List<ChannelRuleConditionItem> orList) {
-        for (ChannelRuleConditionItem item : orList) {
-            if (evaluateConditionItem(item, channelRuleEvaluatorInput)) {
-                log.debug("evaluateOrList rule matched: {}", item);
-                return true;
-            }
-        }
-        log.debug("evaluateOrList rule not matched");
-        return false;
+        return new OrCondition(compileItems(orList, sharedConditions));
     }
 
-    private boolean evaluateAndList(final ChannelRuleEvaluatorInput channelRuleEvaluatorInput, final List<ChannelRuleConditionItem> andList) {
-        for (ChannelRuleConditionItem item : andList) {
-            if (!evaluateConditionItem(item, channelRuleEvaluatorInput)) {
-                log.debug("evaluateAndList rule not matched: {}", item);
-                return false;
+    private List<Predicate<ChannelRuleEvaluatorInput>> compileItems(final List<ChannelRuleConditionItem> items,
+                                                                    final Map<String, Predicate<ChannelRuleEvaluatorInput>> sharedConditions) {
+        List<Predicate<ChannelRuleEvaluatorInput>> predicates = new ArrayList<>(items.size());
+        for (ChannelRuleConditionItem item : items) {
+            try {
+                predicates.add(compileConditionItem(item, sharedConditions));
+            } catch (IllegalArgumentException e) {
+                predicates.add(failing(e));
             }
         }
-        log.debug("evaluateAndList rule matched");
-        return true;
+        return predicates;
     }
 
-    private boolean evaluateConditionItem(final ChannelRuleConditionItem item, final ChannelRuleEvaluatorInput channelRuleEvaluatorInput) {
+    private Predicate<ChannelRuleEvaluatorInput> compileConditionItem(final ChannelRuleConditionItem item,
+                                                                      final Map<String, Predicate<ChannelRuleEvaluatorInput>> sharedConditions) {
 
         if (item.getField() == null && item.getOpAndList() == null && item.getOpOrList() == null) {
             throw new IllegalArgumentException("Channel rule condition item is empty");
@@ -95,18 +156,19 @@ public final class ChannelRuleEvaluator {
         }
 
         if (item.getField() != null) {
-            return evaluateConditionItemField(item, channelRuleEvaluatorInput);
+            return compileConditionItemField(item, sharedConditions);
         }
 
         if (item.getOpAndList() != null) {
-            return evaluateAndList(channelRuleEvaluatorInput, item.getOpAndList());
+            return new AndCondition(compileItems(item.getOpAndList(), sharedConditions));
         }
 
-        return evaluateOrList(channelRuleEvaluatorInput, item.getOpOrList());
+        return new OrCondition(compileItems(item.getOpOrList(), sharedConditions));
 
     }
 
-    private boolean evaluateConditionItemField(final ChannelRuleConditionItem item, final ChannelRuleEvaluatorInput channelRuleEvaluatorInput) {
+    private Predicate<ChannelRuleEvaluatorInput> compileConditionItemField(final ChannelRuleConditionItem item,
+                                                                           final Map<String, Predicate<ChannelRuleEvaluatorInput>> sharedConditions) {
         String field = item.getField();
         String op = item.getOp();
         String value = item.getValue();
@@ -114,40 +176,28 @@ public final class ChannelRuleEvaluator {
 
         validateInput(field, op, value, values);
 
-        String actualValue = null;
-
-        if (field.equals(Constant.TRAFFIC_SOURCE_CATEGORY)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceCategory();
-        } else if (field.equals(Constant.TRAFFIC_SOURCE_SOURCE)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceSource();
-        } else if (field.equals(Constant.TRAFFIC_SOURCE_MEDIUM)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceMedium();
-        } else if (field.equals(Constant.TRAFFIC_SOURCE_CAMPAIGN)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceCampaign();
-        } else if (field.equals(Constant.TRAFFIC_SOURCE_CAMPAIGN_ID)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceCampaignId();
-        } else if (field.equals(Constant.TRAFFIC_SOURCE_CONTENT)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceContent();
-        } else if (field.equals(Constant.TRAFFIC_SOURCE_TERM)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceTerm();
-        } else if (field.equals(Constant.TRAFFIC_SOURCE_CLID)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceClid();
-        } else if (field.equals(Constant.TRAFFIC_SOURCE_CLID_PLATFORM)) {
-            actualValue = channelRuleEvaluatorInput.getTrafficSourceClidPlatform();
-        } else if (field.equals(Constant.PAGE_VIEW_LATEST_REFERRER)) {
-            actualValue = channelRuleEvaluatorInput.getPageViewLatestReferrer();
-        } else if (field.equals(Constant.PAGE_VIEW_LATEST_REFERRER_HOST)) {
-            actualValue = channelRuleEvaluatorInput.getPageViewLatestReferrerHost();
-        } else {
+        Function<ChannelRuleEvaluatorInput, String> accessor = FIELD_ACCESSORS.get(field);
+        if (accessor == null) {
             throw new IllegalArgumentException("Config Error::Channel rule condition item field has unknown field: " + field + ", config detail: " + item);
         }
 
-        if ((op.equals(OpEnum.IN.getOp()) || op.equals(OpEnum.NOT_IN.getOp()))) {
-            return compareIn(actualValue, op, values);
-        } else {
-            return compare(actualValue, op, value);
+        OpEnum opEnum = OpEnum.fromOp(op);
+        if (opEnum == null) {
+            throw new IllegalArgumentException("Channel rule condition item field has unknown operator " + op);
         }
 
+        if (opEnum == OpEnum.IN || opEnum == OpEnum.NOT_IN) {
+            Set<String> valueSet = new HashSet<>();
+            for (String v : values) {
+                valueSet.add(v.toLowerCase());
+            }
+            String conditionKey = field + "|" + op + "|" + new TreeSet<>(valueSet);
+            return sharedConditions.computeIfAbsent(conditionKey, k -> new InCondition(accessor, opEnum == OpEnum.NOT_IN, valueSet));
+        }
+
+        String expectedValue = EMPTY_VALUE_FLAG.equals(value) ? "" : value.toLowerCase();
+        String conditionKey = field + "|" + op + "|" + expectedValue;
+        return sharedConditions.computeIfAbsent(conditionKey, k -> new CompareCondition(accessor, opEnum, expectedValue));
     }
 
     private void validateInput(final String field, final String op, final String value, final List<String> values) {
@@ -164,57 +214,110 @@ public final class ChannelRuleEvaluator {
         }
     }
 
-    private boolean compare(final String actualValueInput, final String op, final String valueInput) {
-        String actualValue = actualValueInput;
-        String value = valueInput;
-
-        if (actualValue == null) {
-            actualValue = "";
-        } else {
-            actualValue = actualValue.toLowerCase();
-        }
-        if (EMPTY_VALUE_FLAG.equals(value)) {
-            value = "";
-        } else {
-            value = value.toLowerCase();
-        }
-
-        if (op.equals(OpEnum.EQ.getOp())) {
-            return actualValue.equals(value);
-        } else if (op.equals(OpEnum.NOT_EQ.getOp())) {
-            return !actualValue.equals(value);
-        } else if (op.equals(OpEnum.CONTAIN.getOp())) {
-            return actualValue.contains(value);
-        } else if (op.equals(OpEnum.NOT_CONTAIN.getOp())) {
-            return !actualValue.contains(value);
-        } else if (op.equals(OpEnum.START_WITH.getOp())) {
-            return actualValue.startsWith(value);
-        } else if (op.equals(OpEnum.NOT_START_WITH.getOp())) {
-            return !actualValue.startsWith(value);
-        } else if (op.equals(OpEnum.END_WITH.getOp())) {
-            return actualValue.endsWith(value);
-        } else if (op.equals(OpEnum.NOT_END_WITH.getOp())) {
-            return !actualValue.endsWith(value);
-        } else if (op.equals(OpEnum.MATCH.getOp())) {
-            return compareMatch(actualValue, value);
-        } else if (op.equals(OpEnum.NOT_MATCH.getOp())) {
-            return !compareMatch(actualValue, value);
-        }
-        throw new IllegalArgumentException("Channel rule condition item field has unknown operator " + op);
+    private static Predicate<ChannelRuleEvaluatorInput> failing(final IllegalArgumentException e) {
+        return input -> {
+            throw e;
+        };
+    }
+
+    private static final class AndCondition implements Predicate<ChannelRuleEvaluatorInput> {
+        private final List<Predicate<ChannelRuleEvaluatorInput>> conditions;
+
+        AndCondition(final List<Predicate<ChannelRuleEvaluatorInput>> conditions) {
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean test(final ChannelRuleEvaluatorInput input) {
+            for (Predicate<ChannelRuleEvaluatorInput> condition : conditions) {
+                if (!condition.test(input)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class OrCondition implements Predicate<ChannelRuleEvaluatorInput> {
+        private final List<Predicate<ChannelRuleEvaluatorInput>> conditions;
+
+        OrCondition(final List<Predicate<ChannelRuleEvaluatorInput>> conditions) {
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean test(final ChannelRuleEvaluatorInput input) {
+            for (Predicate<ChannelRuleEvaluatorInput> condition : conditions) {
+                if (condition.test(input)) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
-    private boolean compareIn(final String expectedValue, final String op, final List<String> values) {
-        String expectedValueLower = expectedValue !=null? expectedValue.toLowerCase(): null;
-        List<String> valueListLower = values.stream().map(String::toLowerCase).collect(Collectors.toList());
-        if (op.equals(OpEnum.IN.getOp())) {
-            return valueListLower.contains(expectedValueLower);
-        } else if (op.equals(OpEnum.NOT_IN.getOp())) {
-            return !valueListLower.contains(expectedValueLower);
+    private static final class InCondition implements Predicate<ChannelRuleEvaluatorInput> {
+        private final Function<ChannelRuleEvaluatorInput, String> accessor;
+        private final boolean negated;
+        private final Set<String> values;
+
+        InCondition(final Function<ChannelRuleEvaluatorInput, String> accessor, final boolean negated, final Set<String> values) {
+            this.accessor = accessor;
+            this.negated = negated;
+            this.values = values;
+        }
+
+        @Override
+        public boolean test(final ChannelRuleEvaluatorInput input) {
+            String actualValue = accessor.apply(input);
+            boolean contained = actualValue != null && values.contains(actualValue.toLowerCase());
+            return negated != contained;
         }
-        return false;
     }
 
-    private boolean compareMatch(final String actualValue, final String regex) {
-        return actualValue.matches(regex);
+    private static final class CompareCondition implements Predicate<ChannelRuleEvaluatorInput> {
+        private final Function<ChannelRuleEvaluatorInput, String> accessor;
+        private final OpEnum op;
+        private final String value;
+        private final Pattern pattern;
+
+        CompareCondition(final Function<ChannelRuleEvaluatorInput, String> accessor, final OpEnum op, final String value) {
+            this.accessor = accessor;
+            this.op = op;
+            this.value = value;
+            this.pattern = op == OpEnum.MATCH || op == OpEnum.NOT_MATCH ? Pattern.compile(value) : null;
+        }
+
+        @Override
+        public boolean test(final ChannelRuleEvaluatorInput input) {
+            String actualValue = accessor.apply(input);
+            // toLowerCase returns the same instance when there is nothing to convert
+            actualValue = actualValue == null ? "" : actualValue.toLowerCase();
+
+            switch (op) {
+                case EQ:
+                    return actualValue.equals(value);
+                case NOT_EQ:
+                    return !actualValue.equals(value);
+                case CONTAIN:
+                    return actualValue.contains(value);
+                case NOT_CONTAIN:
+                    return !actualValue.contains(value);
+                case START_WITH:
+                    return actualValue.startsWith(value);
+                case NOT_START_WITH:
+                    return !actualValue.startsWith(value);
+                case END_WITH:
+                    return actualValue.endsWith(value);
+                case NOT_END_WITH:
+                    return !actualValue.endsWith(value);
+                case MATCH:
+                    return pattern.matcher(actualValue).matches();
+                case NOT_MATCH:
+                    return !pattern.matcher(actualValue).matches();
+                default:
+                    throw new IllegalArgumentException("Channel rule condition item field has unknown operator " + op.getOp());
+            }
+        }
     }
 }
@@ -0,0 +1,100 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common.enrich.ts.rule;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The category rules indexed by their host, read from its last character back, with the rule paths kept on the host nodes.
+ * A walk over the host of a referrer passes the node of every host that the host ends with,
+ * so the host, the host without "www." and the paths of both are found without building their strings.
+ */
+final class HostPathIndex {
+    private final Node root = new Node();
+
+    void put(final String url, final CategoryItem item) {
+        int slash = url.indexOf('/');
+        int hostEnd = slash < 0 ? url.length() : slash;
+        Node node = root;
+        for (int i = hostEnd - 1; i >= 0; i--) {
+            node = node.getOrAddChild(url.charAt(i));
+        }
+        if (slash < 0) {
+            node.hostItem = item;
+        } else {
+            if (node.pathItems == null) {
+                node.pathItems = new HashMap<>();
+            }
+            node.pathItems.put(url.substring(slash), item);
+        }
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Walk from a node over the characters of the text between start and end, read from the end.
+     *
+     * @return the node reached, null when no rule host ends with these characters
+     */
+    static Node walk(final Node from, final String text, final int start, final int end) {
+        Node node = from;
+        for (int i = end - 1; i >= start && node != null; i--) {
+            node = node.getChild(text.charAt(i));
+        }
+        return node;
+    }
+
+    static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private CategoryItem hostItem;
+        private Map<String, CategoryItem> pathItems;
+
+        CategoryItem getHostItem() {
+            return hostItem;
+        }
+
+        CategoryItem getPathItem(final String path) {
+            return pathItems == null ? null : pathItems.get(path);
+        }
+
+        private Node getChild(final char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node getOrAddChild(final char c) {
+            Node child = getChild(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
@@ -15,6 +15,9 @@ package software.aws.solution.clickstream.common.enrich.ts.rule;
 
 import lombok.Getter;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Getter
 public enum OpEnum {
     IN("in"),
@@ -33,8 +36,23 @@ public enum OpEnum {
     NOT_END_WITH("not_end_with")
     ;
 
+    private static final Map<String, OpEnum> OP_MAP = new HashMap<>();
+
+    static {
+        for (OpEnum opEnum : values()) {
+            OP_MAP.put(opEnum.op, opEnum);
+        }
+    }
+
     private String op;
     OpEnum(final String op) {
         this.op = op;
     }
+
+    /**
+     * Return the operator for the given rule op name, or null when it is unknown.
+     */
+    public static OpEnum fromOp(final String op) {
+        return OP_MAP.get(op);
+    }
 }
@@ -21,6 +21,7 @@ import software.aws.solution.clickstream.common.*;
 import software.aws.solution.clickstream.common.gtm.event.*;
 import software.aws.solution.clickstream.common.model.*;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.*;
 import java.util.*;
@@ -78,6 +79,14 @@ public final class GTMEventParser extends BaseEventParser {
         return OBJECT_MAPPER.readTree(ingestDataField);
     }
 
+    @Override
+    protected JsonParser createDataParser(final String ingestDataField) throws IOException {
+        if (ingestDataField == null || ingestDataField.trim().isEmpty()) {
+            return null;
+        }
+        return getObjectMapper().getFactory().createParser(ingestDataField);
+    }
+
     @Override
     protected TransformConfig getTransformConfig() {
         return this.transformConfig;
@@ -85,19 +94,25 @@ public final class GTMEventParser extends BaseEventParser {
 
     @Override
     public ParseDataResult parseData(final String dataString, final ExtraParams extraParams, final int index) throws JsonProcessingException {
-        ParseDataResult parseDataResult = new ParseDataResult();
-        List<ClickstreamEvent> clickstreamEventList = new ArrayList<>();
-        parseDataResult.setClickstreamEventList(clickstreamEventList);
-        parseDataResult.setClickstreamItemList(new ArrayList<>());
-
-        log.debug("Parsing data: " + dataString);
+        log.debug("Parsing data: {}", dataString);
         if (dataString == null || dataString.isEmpty()) {
             log.warn("Data field is empty, skipping the row");
-            return parseDataResult;
+            return newParseDataResult();
         }
-        GTMEvent gtmEvent = ingestDataToEvent(dataString);
+        return parseEvent(ingestDataToEvent(dataString), extraParams, index);
+    }
+
+    @Override
+    protected ParseDataResult parseData(final JsonParser jsonParser, final ExtraParams extraParams, final int index) throws IOException {
+        return parseEvent(getObjectMapper().readValue(jsonParser, GTMEvent.class), extraParams, index);
+    }
+
+    private ParseDataResult parseEvent(final GTMEvent gtmEvent, final ExtraParams extraParams, final int index) throws JsonProcessingException {
+        ParseDataResult parseDataResult = newParseDataResult();
+        List<ClickstreamEvent> clickstreamEventList = parseDataResult.getClickstreamEventList();
+
         if (gtmEvent.getEventName() == null || gtmEvent.getEventName().isEmpty()) {
-            log.warn("Event name is empty, skipping the row, dataString:" + dataString);
+            log.warn("Event name is empty, skipping the row");
             return parseDataResult;
         }
 
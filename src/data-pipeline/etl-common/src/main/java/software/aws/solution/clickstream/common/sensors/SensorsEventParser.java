@@ -13,16 +13,20 @@
 
 package software.aws.solution.clickstream.common.sensors;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.extern.slf4j.Slf4j;
 import software.aws.solution.clickstream.common.BaseEventParser;
+import software.aws.solution.clickstream.common.DataDecoder;
 import software.aws.solution.clickstream.common.ExtraParams;
 import software.aws.solution.clickstream.common.ParseDataResult;
 import software.aws.solution.clickstream.common.TransformConfig;
 import software.aws.solution.clickstream.common.Util;
+import software.aws.solution.clickstream.common.exception.ExtractDataException;
 import software.aws.solution.clickstream.common.model.ClickstreamEvent;
 import software.aws.solution.clickstream.common.model.ClickstreamEventPropValue;
 import software.aws.solution.clickstream.common.model.ClickstreamItem;
@@ -32,11 +36,11 @@ import software.aws.solution.clickstream.common.model.ValueType;
 import software.aws.solution.clickstream.common.sensors.event.Item;
 import software.aws.solution.clickstream.common.sensors.event.SensorsEvent;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,7 +51,6 @@ import static software.aws.solution.clickstream.common.ClickstreamEventParser.EV
 import static software.aws.solution.clickstream.common.Util.convertStringObjectMapToStringEventPropMap;
 import static software.aws.solution.clickstream.common.Util.convertStringObjectMapToStringUserPropMap;
 import static software.aws.solution.clickstream.common.Util.deCodeUri;
-import static software.aws.solution.clickstream.common.Util.decompress;
 import static software.aws.solution.clickstream.common.Util.getStackTrace;
 import static software.aws.solution.clickstream.common.Util.objectToJsonString;
 import static software.aws.solution.clickstream.common.enrich.UAEnrichHelper.UA_STRING;
@@ -91,37 +94,31 @@ public final class SensorsEventParser extends BaseEventParser {
         return EVENT_NAME_MAP.getOrDefault(sensorsEvent.getEvent(), sensorsEvent.getEvent());
     }
 
-    private static String tryDecompress(final byte[] bytes) {
-        String rawStringData = null;
-        char firstC = (char) bytes[0];
-        char lastC = (char) bytes[bytes.length - 1];
-        if ((firstC == '[' && lastC == ']') || (firstC == '{' && lastC == '}')) {
-            rawStringData = new String(bytes, StandardCharsets.UTF_8);
-        } else {
-            rawStringData = decompress(bytes);
-        }
-        return rawStringData;
-    }
-
     public SensorsEvent ingestDataToEvent(final String inputJson) throws JsonProcessingException {
         return getObjectMapper().readValue(inputJson, SensorsEvent.class);
     }
 
     @Override
     public ParseDataResult parseData(final String dataString, final ExtraParams extraParams, final int index) throws JsonProcessingException {
-        ParseDataResult parseDataResult = new ParseDataResult();
-        List<ClickstreamEvent> clickstreamEventList = new ArrayList<>();
-        parseDataResult.setClickstreamEventList(clickstreamEventList);
-        parseDataResult.setClickstreamItemList(new ArrayList<>());
-
-        log.debug("Parsing data: " + dataString);
+        log.debug("Parsing data: {}", dataString);
         if (dataString == null || dataString.isEmpty()) {
             log.warn("Data field is empty, skipping the row");
-            return parseDataResult;
+            return newParseDataResult();
         }
-        SensorsEvent sensorsEvent = ingestDataToEvent(dataString);
+        return parseEvent(ingestDataToEvent(dataString), extraParams, index);
+    }
+
+    @Override
+    protected ParseDataResult parseData(final JsonParser jsonParser, final ExtraParams extraParams, final int index) throws IOException {
+        return parseEvent(getObjectMapper().readValue(jsonParser, SensorsEvent.class), extraParams, index);
+    }
+
+    private ParseDataResult parseEvent(final SensorsEvent sensorsEvent, final ExtraParams extraParams, final int index) throws JsonProcessingException {
+        ParseDataResult parseDataResult = newParseDataResult();
+        List<ClickstreamEvent> clickstreamEventList = parseDataResult.getClickstreamEventList();
+
         if (sensorsEvent.getEvent() == null || sensorsEvent.getEvent().isEmpty()) {
-            log.warn("Event name is empty, skipping the row, dataString:" + dataString);
+            log.warn("Event name is empty, skipping the row");
             return parseDataResult;
         }
 
@@ -158,12 +155,38 @@ public final class SensorsEventParser extends BaseEventParser {
     public JsonNode getData(final String ingestDataField) throws JsonProcessingException {
         try {
             String rawStringData = ingestDataField.trim();
-            if (!rawStringData.startsWith("[") && !rawStringData.startsWith("{")) {
-                String base64Data = getBase64Data(rawStringData);
-                byte[] bytes = Base64.getDecoder().decode(base64Data);
-                rawStringData = tryDecompress(bytes);
+            if (rawStringData.startsWith("[") || rawStringData.startsWith("{")) {
+                return OBJECT_MAPPER.readTree(rawStringData);
+            }
+            // the decoded payload is either gzip compressed or raw json
+            try (InputStream decoded = DataDecoder.decodeBase64(getBase64Data(rawStringData))) {
+                return OBJECT_MAPPER.readTree(decoded);
+            }
+        } catch (Exception e) {
+            log.error("Failed to parse data: " + ingestDataField + ", error:" + getStackTrace(e));
+            return null;
+        }
+    }
+
+    @Override
+    public List<ParseDataResult> parseRawData(final String ingestDataField, final ExtraParams extraParams) throws JsonProcessingException {
+        try {
+            return super.parseRawData(ingestDataField, extraParams);
+        } catch (JsonParseException | ExtractDataException e) {
+            // malformed payloads are skipped, the same as getData does
+            log.error("Failed to parse data: " + ingestDataField + ", error:" + getStackTrace(e));
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    protected JsonParser createDataParser(final String ingestDataField) {
+        try {
+            String rawStringData = ingestDataField.trim();
+            if (rawStringData.startsWith("[") || rawStringData.startsWith("{")) {
+                return getObjectMapper().getFactory().createParser(rawStringData);
             }
-            return OBJECT_MAPPER.readTree(rawStringData);
+            return getObjectMapper().getFactory().createParser(DataDecoder.decodeBase64(getBase64Data(rawStringData)));
         } catch (Exception e) {
             log.error("Failed to parse data: " + ingestDataField + ", error:" + getStackTrace(e));
             return null;
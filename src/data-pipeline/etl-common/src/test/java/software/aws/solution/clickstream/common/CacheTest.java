@@ -15,6 +15,11 @@ package software.aws.solution.clickstream.common;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class CacheTest {
@@ -53,4 +58,77 @@ class CacheTest {
     void shouldReturnNullWhenKeyDoesNotExist() {
         assertNull(cache.get("nonexistentKey"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldEvictLeastRecentlyUsedData() {
+        cache.put("key1", "data1");
+        cache.put("key2", "data2");
+        assertEquals("data1", cache.get("key1"));
+        cache.put("key3", "data3");
+        assertTrue(cache.containsKey("key1"));
+        assertFalse(cache.containsKey("key2"));
+        assertTrue(cache.containsKey("key3"));
+    }
+
+    @Test
+    void shouldExpireDataAfterWrite() throws InterruptedException {
+        Cache<String> ttlCache = Cache.<String>builder("testTtl").expireAfterWriteMillis(10).build();
+        ttlCache.put("key1", "data1");
+        assertEquals("data1", ttlCache.get("key1"));
+        Thread.sleep(50);
+        assertNull(ttlCache.get("key1"));
+        assertEquals(0, ttlCache.size());
+        assertEquals(1, ttlCache.getStats().getEvictionCount());
+    }
+
+    @Test
+    void shouldBoundCacheByEstimatedBytes() {
+        Cache<String> bytesCache = Cache.<String>builder("testBytes")
+                .maximumBytes(1000, v -> 2L * v.length())
+                .build();
+        for (int i = 0; i < 100; i++) {
+            bytesCache.put("key" + i, "data" + i);
+        }
+        CacheStats stats = bytesCache.getStats();
+        assertTrue(stats.getEstimatedBytes() <= 1000);
+        assertTrue(stats.getEvictionCount() > 0);
+        assertEquals(100, stats.getSize() + stats.getEvictionCount());
+        assertTrue(bytesCache.containsKey("key99"));
+    }
+
+    @Test
+    void shouldRecordStats() {
+        Cache<String> statsCache = Cache.<String>builder("testStats").build();
+        statsCache.put("key1", "data1");
+        statsCache.get("key1");
+        statsCache.get("key1");
+        statsCache.get("key2");
+
+        CacheStats stats = statsCache.getStats();
+        assertEquals("testStats", stats.getName());
+        assertEquals(2, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(2.0 / 3, stats.getHitRate(), 0.0001);
+        assertTrue(Cache.getAllStats().stream().anyMatch(s -> "testStats".equals(s.getName())));
+    }
+
+    @Test
+    void shouldStayBoundedUnderConcurrentAccess() throws InterruptedException {
+        Cache<String> concurrentCache = Cache.<String>builder("testConcurrent").maximumSize(20_000).build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            int offset = t * 10_000;
+            executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    String key = "key" + (offset + i);
+                    concurrentCache.put(key, key);
+                    concurrentCache.get(key);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        assertTrue(concurrentCache.size() <= 20_000);
+        assertEquals(80_000, concurrentCache.size() + concurrentCache.getStats().getEvictionCount());
+    }
+}
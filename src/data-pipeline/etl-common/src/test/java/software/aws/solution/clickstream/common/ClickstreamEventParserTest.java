@@ -27,6 +27,7 @@ import software.aws.solution.clickstream.common.model.*;
 
 import java.io.*;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static software.aws.solution.clickstream.common.Util.objectToJsonString;
@@ -524,4 +525,82 @@ public class ClickstreamEventParserTest extends BaseTest {
         Assertions.assertNull(event.getDeviceOperatingSystem());
     }
 
+    @Test
+    void test_parse_raw_data_same_as_parse_data() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.ClickstreamEventParserTest.test_parse_raw_data_same_as_parse_data
+        String dataString = resourceFileContent("/one_line.json");
+        ObjectMapper objectMapper = new ObjectMapper();
+        String data = objectMapper.readTree(dataString).get("data").asText();
+
+        ClickstreamEventParser clickstreamEventParser = getClickstreamEventParser();
+        JsonNode ingestionData = clickstreamEventParser.getData(data);
+        long eventTime = ingestionData.elements().next().get("timestamp").asLong();
+
+        ExtraParams params = ExtraParams.builder()
+                .appId("test")
+                .projectId("test_project_id")
+                .ingestTimestamp(eventTime + 20)
+                .uploadTimestamp(eventTime + 10)
+                .ua("test")
+                .ip("9.9.9.9")
+                .rid("test_rid")
+                .uri("test_uri")
+                .inputFileName("test_file")
+                .build();
+
+        List<ParseDataResult> results = clickstreamEventParser.parseRawData(data, params);
+        Assertions.assertEquals(ingestionData.size(), results.size());
+
+        int index = 0;
+        for (JsonNode element : ingestionData) {
+            ParseDataResult expected = clickstreamEventParser.parseData(element.toString(), params, index);
+            ParseDataResult actual = results.get(index);
+            Assertions.assertEquals(objectToJsonString(expected.getClickstreamEventList()), objectToJsonString(actual.getClickstreamEventList()));
+            Assertions.assertEquals(objectToJsonString(expected.getClickstreamUser()), objectToJsonString(actual.getClickstreamUser()));
+            Assertions.assertEquals(objectToJsonString(expected.getClickstreamItemList()), objectToJsonString(actual.getClickstreamItemList()));
+            index++;
+        }
+
+        Assertions.assertEquals(1, clickstreamEventParser.parseRawData(ingestionData.get(0).toString(), params).size());
+    }
+
+    @Test
+    void test_events_of_bundle_share_request_context() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.ClickstreamEventParserTest.test_events_of_bundle_share_request_context
+        String dataString = resourceFileContent("/one_line.json");
+        ObjectMapper objectMapper = new ObjectMapper();
+        String data = objectMapper.readTree(dataString).get("data").asText();
+
+        ClickstreamEventParser clickstreamEventParser = getClickstreamEventParser();
+        long eventTime = clickstreamEventParser.getData(data).elements().next().get("timestamp").asLong();
+
+        ExtraParams params = ExtraParams.builder()
+                .appId("test")
+                .projectId("test_project_id")
+                .ingestTimestamp(eventTime + 20)
+                .ua("test")
+                .ip("9.9.9.9")
+                .rid("test_rid")
+                .uri("/collect?platform=Android&event_bundle_sequence_id=12&upload_timestamp=" + (eventTime + 10))
+                .inputFileName("test_file")
+                .build();
+
+        List<ParseDataResult> results = clickstreamEventParser.parseRawData(data, params);
+        Assertions.assertTrue(results.size() > 1);
+
+        RequestContext requestContext = params.getRequestContext();
+        Assertions.assertSame(requestContext, params.getRequestContext());
+        Assertions.assertEquals(12L, requestContext.getEventBundleSequenceId());
+        Assertions.assertEquals(eventTime + 10, requestContext.getUploadTimestamp());
+        for (ParseDataResult result : results) {
+            ClickstreamEvent event = result.getClickstreamEventList().get(0);
+            Assertions.assertEquals(12L, event.getEventBundleSequenceId());
+            Assertions.assertEquals("test_rid", event.getProcessInfo().get("rid"));
+            Assertions.assertEquals("9.9.9.9", event.getProcessInfo().get("source_ip"));
+            // the shared process info is copied, not changed by the events
+            Assertions.assertNotSame(requestContext.getProcessInfo(), event.getProcessInfo());
+        }
+        Assertions.assertEquals(4, requestContext.getProcessInfo().size());
+    }
+
 }
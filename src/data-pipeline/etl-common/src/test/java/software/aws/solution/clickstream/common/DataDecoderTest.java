@@ -0,0 +1,160 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataDecoderTest {
+    private static final String JSON = "[{\"event_type\":\"_page_view\",\"name\":\"中文\"},{\"event_type\":\"_click\"}]";
+
+    @Test
+    void shouldInflateGzipAndZlibPayloads() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.DataDecoderTest.shouldInflateGzipAndZlibPayloads
+        assertEquals(JSON, read(DataDecoder.inflateBase64(encode(gzip(JSON)))));
+        assertEquals(JSON, read(DataDecoder.inflateBase64(encode(zlib(JSON)))));
+        assertEquals(JSON, read(DataDecoder.decodeBase64(encode(gzip(JSON)))));
+        assertEquals(JSON, read(DataDecoder.inflate(gzip(JSON))));
+    }
+
+    @Test
+    void shouldInflateLargePayloadsInSteps() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.DataDecoderTest.shouldInflateLargePayloadsInSteps
+        StringBuilder events = new StringBuilder("[");
+        for (int i = 0; i < 10000; i++) {
+            events.append(i == 0 ? "" : ",").append("{\"event_id\":\"").append(i).append("\"}");
+        }
+        String json = events.append("]").toString();
+        assertEquals(json, read(DataDecoder.decodeBase64(encode(gzip(json)))));
+        assertEquals(json, read(DataDecoder.decodeBase64(encode(gzip(json)))));
+    }
+
+    @Test
+    void shouldInflateGzipMembersWithOptionalHeaderFields() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.DataDecoderTest.shouldInflateGzipMembersWithOptionalHeaderFields
+        byte[] plain = gzip(JSON);
+        ByteArrayOutputStream named = new ByteArrayOutputStream();
+        named.write(plain, 0, 3);
+        // FEXTRA and FNAME
+        named.write(4 | 8);
+        named.write(plain, 4, 6);
+        named.write(new byte[] {3, 0, 'a', 'b', 'c'});
+        named.write("data.json\0".getBytes(StandardCharsets.ISO_8859_1));
+        named.write(plain, 10, plain.length - 10);
+        assertEquals(JSON, read(DataDecoder.inflate(named.toByteArray())));
+
+        // the members of a payload are read one after the other, the bytes after the last member are ignored
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(gzip("[1,"));
+        members.write(gzip("2]"));
+        members.write(new byte[] {0, 0});
+        assertEquals("[1,2]", read(DataDecoder.inflateBase64(encode(members.toByteArray()))));
+    }
+
+    @Test
+    void shouldReadRawPayloadsOnlyWhenNotInflating() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.DataDecoderTest.shouldReadRawPayloadsOnlyWhenNotInflating
+        String raw = encode(JSON.getBytes(StandardCharsets.UTF_8));
+        assertEquals(JSON, read(DataDecoder.decodeBase64(raw)));
+        assertThrows(ZipException.class, () -> DataDecoder.inflateBase64(raw));
+        assertThrows(ZipException.class, () -> DataDecoder.inflate("ab".getBytes(StandardCharsets.UTF_8)));
+        // the decoder is given back to the thread after a rejected payload
+        assertEquals(JSON, read(DataDecoder.inflateBase64(encode(gzip(JSON)))));
+    }
+
+    @Test
+    void shouldRejectInvalidPayloads() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.DataDecoderTest.shouldRejectInvalidPayloads
+        assertThrows(IllegalArgumentException.class, () -> DataDecoder.decodeBase64("not base64!"));
+        assertThrows(IllegalArgumentException.class, () -> DataDecoder.decodeBase64("abcde"));
+
+        byte[] corrupt = gzip(JSON);
+        corrupt[corrupt.length - 6]++;
+        assertThrows(ZipException.class, () -> read(DataDecoder.inflate(corrupt)));
+
+        byte[] gzip = gzip(JSON);
+        byte[] truncated = new byte[gzip.length / 2];
+        System.arraycopy(gzip, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> read(DataDecoder.inflate(truncated)));
+    }
+
+    @Test
+    void shouldDecodeNestedPayloads() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.DataDecoderTest.shouldDecodeNestedPayloads
+        try (InputStream outer = DataDecoder.decodeBase64(encode(gzip(JSON)))) {
+            // the decoder of the thread is in use, the inner payload gets its own
+            assertEquals("[1]", read(DataDecoder.decodeBase64(encode(gzip("[1]")))));
+            assertEquals('[', outer.read());
+        }
+    }
+
+    @Test
+    void shouldNotReadStreamAfterClose() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.DataDecoderTest.shouldNotReadStreamAfterClose
+        InputStream closed = DataDecoder.decodeBase64(encode(gzip(JSON)));
+        closed.close();
+        try (InputStream next = DataDecoder.decodeBase64(encode(zlib("[1]")))) {
+            // the decoder of the thread is reading the next payload, the closed stream does not see it
+            assertThrows(IOException.class, closed::read);
+            assertEquals("[1]", read(next));
+        }
+        closed.close();
+        assertEquals(JSON, read(DataDecoder.decodeBase64(encode(gzip(JSON)))));
+    }
+
+    private static String read(final InputStream input) throws IOException {
+        try (InputStream in = input) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[100];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8.name());
+        }
+    }
+
+    private static String encode(final byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static byte[] gzip(final String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] zlib(final String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -185,4 +185,54 @@ public class CategoryListEvaluatorTest extends BaseTest {
         Assertions.assertEquals(expectedStrList, urls);
     }
 
-}
\ No newline at end of file
+    @Test
+    void shouldMatchLongestCandidateUrl() throws IOException {
+        //  ./gradlew clean test --info --tests software.aws.solution.clickstream.common.enrich.ts.rule.CategoryListEvaluatorTest.shouldMatchLongestCandidateUrl
+        String content = Util.readResourceFile("ts/traffic_source_category_rule_v0.json");
+        CategoryListEvaluator categoryListEvaluator = CategoryListEvaluator.fromJson(content);
+
+        List<String> referrers = Arrays.asList(
+                "https://www.google.com/cse?q=hello",
+                "https://www.google.co.uk/search?q=hello",
+                "https://www.google.com.hk/imgres",
+                "https://bing.com/images/search?q=cat",
+                "https://www.bing.com/images/search?q=cat",
+                "http://apollo.lv/portal/search/?q=x",
+                "http://www.apollo.lv/portal/search",
+                "https://search.yahoo.co.jp/search",
+                "https://www.toile.com?q=2hello&q=1world",
+                "https://www.gnadenmeer.de/a",
+                "https://lastfm.de",
+                "https://sub.unknown-domain.com/path",
+                "https://my_host.example.com/p"
+        );
+        for (String referrer : referrers) {
+            String hostName = Util.parseUrl(referrer).getHostName();
+            String path = Util.parseUrl(referrer).getPath();
+            CategoryItem expected = null;
+            for (String candidateUrl : CategoryListEvaluator.getCandidateUrls(referrer, hostName, path)) {
+                expected = categoryListEvaluator.getCategoryMap().get(candidateUrl);
+                if (expected != null) {
+                    break;
+                }
+            }
+            SourceCategoryAndTerms result = categoryListEvaluator.evaluate(referrer);
+            Assertions.assertEquals(expected == null ? hostName : expected.getSource(), result.getSource(), referrer);
+            Assertions.assertEquals(expected == null ? CategoryListEvaluator.UNASSIGNED : expected.getCategory(), result.getCategory(), referrer);
+        }
+        Assertions.assertEquals("Google", categoryListEvaluator.evaluate("https://www.google.co.uk/search?q=hello").getSource());
+    }
+
+    @Test
+    void testGetCountryCodeStart() {
+        //  ./gradlew clean test --info --tests software.aws.solution.clickstream.common.enrich.ts.rule.CategoryListEvaluatorTest.testGetCountryCodeStart
+        Assertions.assertEquals(9, CategoryListEvaluator.getCountryCodeStart("google.co.uk", 0));
+        Assertions.assertEquals(14, CategoryListEvaluator.getCountryCodeStart("www.google.com.hk", 0));
+        Assertions.assertEquals(14, CategoryListEvaluator.getCountryCodeStart("www.google.com.hk", 4));
+        Assertions.assertEquals(-1, CategoryListEvaluator.getCountryCodeStart("www.google.com", 0));
+        Assertions.assertEquals(-1, CategoryListEvaluator.getCountryCodeStart("co.uk", 0));
+        Assertions.assertEquals(-1, CategoryListEvaluator.getCountryCodeStart("www.co.uk", 4));
+        Assertions.assertEquals(-1, CategoryListEvaluator.getCountryCodeStart("google.COM.hk", 0));
+    }
+
+}
@@ -14,6 +14,7 @@
 package software.aws.solution.clickstream.common.enrich.ts.rule;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -21,6 +22,8 @@ import software.aws.solution.clickstream.BaseTest;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
 
 import static software.aws.solution.clickstream.common.enrich.ts.rule.ChannelRuleEvaluator.EMPTY_VALUE_FLAG;
 
@@ -478,4 +481,61 @@ public class ChannelRuleEvaluatorTest extends BaseTest {
         ChannelRuleEvaluator evaluator = ChannelRuleEvaluator.getInstance();
         Assertions.assertTrue(evaluator.evaluate(channelRule, input2));
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldCompileRulesOnceAndDeferInvalidConditions() throws JsonProcessingException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.enrich.ts.rule.ChannelRuleEvaluatorTest.shouldCompileRulesOnceAndDeferInvalidConditions
+        String rulesJson = "[{\"id\": \"rule#1\", \"channel\": \"Paid Search\", \"condition\": {\"op::and\": [" +
+                "{\"field\": \"traffic_source_category\", \"op\": \"eq\", \"value\": \"Search\"}," +
+                "{\"field\": \"traffic_source_medium\", \"op\": \"match\", \"value\": \"^(.*cp.*|ppc|paid.*)$\"}]}}," +
+                "{\"id\": \"rule#2\", \"channel\": \"Organic Search\", \"condition\": {\"op::or\": [" +
+                "{\"field\": \"traffic_source_category\", \"op\": \"eq\", \"value\": \"SEARCH\"}," +
+                "{\"field\": \"unknown_field\", \"op\": \"eq\", \"value\": \"x\"}]}}," +
+                "{\"id\": \"rule#3\", \"channel\": \"Email\", \"condition\": {\"op::or\": [" +
+                "{\"field\": \"traffic_source_source\", \"op\": \"in\", \"values\": [\"Email\", \"e-mail\"]}]}}]";
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<ChannelRule> rules = objectMapper.readValue(rulesJson, new TypeReference<List<ChannelRule>>() {
+        });
+        List<Predicate<ChannelRuleEvaluatorInput>> predicates = ChannelRuleEvaluator.getInstance().compileAll(rules);
+        Assertions.assertEquals(3, predicates.size());
+
+        ChannelRuleEvaluatorInput input = new ChannelRuleEvaluatorInput();
+        input.setTrafficSourceCategory("Search");
+        input.setTrafficSourceMedium("CPC");
+        Assertions.assertTrue(predicates.get(0).test(input));
+        // the invalid condition is only reached when the first one does not match
+        Assertions.assertTrue(predicates.get(1).test(input));
+
+        input.setTrafficSourceCategory("Email");
+        input.setTrafficSourceSource("E-Mail");
+        Assertions.assertFalse(predicates.get(0).test(input));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> predicates.get(1).test(input));
+        Assertions.assertTrue(predicates.get(2).test(input));
+    }
+
+    @Test
+    void shouldEvaluateCompiledRuleWithoutCompilingAgain() throws JsonProcessingException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.enrich.ts.rule.ChannelRuleEvaluatorTest.shouldEvaluateCompiledRuleWithoutCompilingAgain
+        String rulesJson = "[{\"id\": \"rule#1\", \"channel\": \"Paid Search\", \"condition\": {\"op::and\": [" +
+                "{\"field\": \"traffic_source_category\", \"op\": \"eq\", \"value\": \"Search\"}]}}," +
+                "{\"id\": \"rule#2\", \"channel\": \"Email\", \"condition\": {\"op::or\": [" +
+                "{\"field\": \"traffic_source_source\", \"op\": \"in\", \"values\": [\"Email\", \"e-mail\"]}]}}]";
+        List<ChannelRule> rules = new ObjectMapper().readValue(rulesJson, new TypeReference<List<ChannelRule>>() {
+        });
+        ChannelRuleEvaluator evaluator = ChannelRuleEvaluator.getInstance();
+        evaluator.compileAll(rules.subList(0, 1));
+
+        ChannelRuleEvaluatorInput input = new ChannelRuleEvaluatorInput();
+        input.setTrafficSourceCategory("Search");
+        input.setTrafficSourceSource("Email");
+        Assertions.assertTrue(evaluator.evaluate(rules.get(0), input));
+        Assertions.assertTrue(evaluator.evaluate(rules.get(1), input));
+
+        // the predicates compiled by the list and by the first evaluation are used, the changed conditions are not read
+        rules.get(0).getCondition().setOpAndList(null);
+        rules.get(1).getCondition().setOpOrList(null);
+        Assertions.assertTrue(evaluator.evaluate(rules.get(0), input));
+        Assertions.assertTrue(evaluator.evaluate(rules.get(1), input));
+    }
+}
@@ -19,14 +19,19 @@ import org.junit.jupiter.api.Test;
 
 import software.aws.solution.clickstream.BaseTest;
 import software.aws.solution.clickstream.common.Util;
+import software.aws.solution.clickstream.common.UrlTokenizer;
 import software.aws.solution.clickstream.common.enrich.UrlParseResult;
 import software.aws.solution.clickstream.common.model.ClickstreamUserPropValue;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -93,6 +98,24 @@ public class UtilTest extends BaseTest {
         assertEquals(0, result.size());
     }
 
+    @Test
+    void test_getUriParams_decoded_query() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.util.UtilTest.test_getUriParams_decoded_query
+
+        // the query is decoded before it is split, an encoded '&' or '=' separates the pairs as well
+        Map<String, List<String>> result = Util.getUriParams("http://www.example.com?a=1%26b%3D2&k%3D=v");
+        assertEquals(3, result.size());
+        assertEquals(Collections.singletonList("1"), result.get("a"));
+        assertEquals(Collections.singletonList("2"), result.get("b"));
+        assertEquals(Collections.singletonList("=v"), result.get("k"));
+
+        // an empty pair before the last pair has an empty key, the trailing empty pairs are dropped
+        result = Util.getUriParams("http://www.example.com?&a=1&&");
+        assertEquals(2, result.size());
+        assertEquals(Collections.singletonList("1"), result.get("a"));
+        assertEquals(Collections.singletonList(null), result.get(""));
+    }
+
     @Test
     void test_decompress() {
         // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.util.UtilTest.test_decompress
@@ -176,4 +199,135 @@ public class UtilTest extends BaseTest {
         assertNull(Util.parseUrl(null));
     }
 
+    @Test
+    void test_parseUrl_rejected_url() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.util.UtilTest.test_parseUrl_rejected_url
+        UrlParseResult result = Util.parseUrl("https://www.example.com/a%20b/c d?q=x%2By+z#top");
+        assertNull(result.getHostName());
+        assertNull(result.getPath());
+        assertNull(result.getQueryString());
+        assertNull(result.getQueryParameters());
+        assertNull(Util.parseUrl("https://www.example.com/p?a=%zz").getHostName());
+        assertEquals(0, Util.getUriParams("https://www.example.com/p?a=%zz&b=1").size());
+
+        result = Util.parseUrl("www.example.com/a%20b/c?q=x%2By+z&empty=&flag&q=2#top");
+        assertEquals("www.example.com", result.getHostName());
+        assertEquals("/a b/c", result.getPath());
+        assertEquals("q=x y z&empty=&flag&q=2", result.getQueryString());
+        assertEquals(List.of("x y z", "2"), result.getQueryParameters().get("q"));
+        assertNull(result.getQueryParameters().get("empty").get(0));
+        assertNull(result.getQueryParameters().get("flag").get(0));
+
+        assertNull(Util.parseUrl("https://my_host.example.com/p").getHostName());
+        assertEquals("127.0.0.1", Util.parseUrl("http://user@127.0.0.1:80").getHostName());
+        assertEquals("", Util.parseUrl("http://127.0.0.1:80").getPath());
+        assertNull(Util.parseUrl("http://example.com:abc/").getHostName());
+    }
+
+    @Test
+    void test_UrlTokenizer_reads_urls_as_java_net_uri() throws URISyntaxException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.util.UtilTest.test_UrlTokenizer_reads_urls_as_java_net_uri
+        List<String> urls = List.of(
+                "https://www.example.com/iphone-cases/iphone-15-pro-max-cases?page=2",
+                "https://www.example.com/a b?page=2",
+                "https://www.example.com/a?q={x}",
+                "https://www.example.com/a?q=%E4%B8%AD%E6%96%87&q=%zz",
+                "https://www.example.com/a?q=%E4%B8%AD",
+                "https://www.example.com/中文?q=中文",
+                "https://www.example.com/a\u3000b",
+                "https://www.example.com/a#b#c",
+                "https://www.example.com/a?q=[1]",
+                "https://www.example.com/[1]",
+                "http://[::1]:8080/a?b=1",
+                "http://[::1/a",
+                "http://",
+                "http:///path?a=1",
+                "http://?a=1",
+                "http:",
+                "mailto:",
+                "mailto:someone@example.com?subject=hi",
+                "1abc:foo",
+                ":foo",
+                "www.example.com:8080/a?q=1",
+                "www.example.com/a:b?q=1",
+                "/collect?platform=Web&event_bundle_sequence_id=12",
+                "?a=1&&b=2&",
+                "",
+                "http://user:pw@host.example.com:8080/p",
+                "http://a@b@host.example.com/p",
+                "http://1.2.3.4/p",
+                "http://1.2.3.999/p",
+                "http://123/p",
+                "http://1abc/p",
+                "http://localhost:8080/p",
+                "http://example.com.:8080/p",
+                "http://example.com:99999999999/p",
+                "http://example.com:/p",
+                "http://exa_mple.com/p",
+                "http://-example.com/p",
+                "http://example-.com/p",
+                "http://example..com/p",
+                "http://1example.com/p",
+                "http://example.1com/p",
+                "http://exam%70le.com/p",
+                "http://例子.com/p",
+                "https://www.example.com/p?a=1%26b%3D2&k%3D=v&=x&y=&z",
+                "https://www.example.com/p?a=1+2%2B3&b=%2525zz&c=a%25"
+        );
+        for (String url : urls) {
+            UrlTokenizer tokenizer = UrlTokenizer.tokenize(url);
+            URI uri;
+            try {
+                uri = new URI(url);
+            } catch (URISyntaxException e) {
+                assertTrue(!tokenizer.isValid(), url);
+                assertEquals(0, tokenizer.getParameters().size(), url);
+                continue;
+            }
+            assertTrue(tokenizer.isValid(), url);
+            assertEquals(uri.getScheme(), tokenizer.getScheme(), url);
+            assertEquals(uri.getHost(), tokenizer.getHost(), url);
+            assertEquals(uri.getPath(), tokenizer.getPath(), url);
+            assertEquals(uri.getRawQuery(), tokenizer.getRawQuery(), url);
+            assertEquals(Util.deCodeUri(uri.getQuery()), tokenizer.getQuery(), url);
+            assertEquals(uri.getFragment(), tokenizer.getFragment(), url);
+            assertEquals(splitQuery(uri.getQuery()), tokenizer.getParameters(), url);
+        }
+    }
+
+    /**
+     * The parameters as getUriParams read them from {@link URI#getQuery()} before the tokenizer.
+     */
+    private static Map<String, List<String>> splitQuery(final String query) {
+        Map<String, List<String>> params = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int idx = pair.indexOf("=");
+                String key = idx > 0 ? pair.substring(0, idx) : pair;
+                String value = idx > 0 && pair.length() > idx + 1 ? pair.substring(idx + 1) : null;
+                params.computeIfAbsent(key, k -> new ArrayList<>()).add(Util.deCodeUri(value));
+            }
+        }
+        return params;
+    }
+
+    @Test
+    void test_UrlTokenizer() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.common.util.UtilTest.test_UrlTokenizer
+        UrlTokenizer tokenizer = UrlTokenizer.tokenize("/collect?platform=Android&event_bundle_sequence_id=12&ua=a%20b#frag%21");
+        assertNull(tokenizer.getScheme());
+        assertNull(tokenizer.getHost());
+        assertEquals("/collect", tokenizer.getPath());
+        assertEquals("frag!", tokenizer.getFragment());
+        assertEquals("12", tokenizer.getParameter("event_bundle_sequence_id"));
+        assertEquals("a b", tokenizer.getParameter("ua"));
+        assertNull(tokenizer.getParameter("missing"));
+
+        UrlTokenizer opaque = UrlTokenizer.tokenize("mailto:someone@example.com?subject=hi");
+        assertTrue(opaque.isValid());
+        assertEquals("mailto", opaque.getScheme());
+        assertNull(opaque.getPath());
+        assertNull(opaque.getParameter("subject"));
+    }
+
 }
@@ -124,6 +124,7 @@ public final class DataProcessor {
                             "com.amazonaws.glue.catalog.metastore.AWSGlueDataCatalogHiveClientFactory")
                     .config("spark.sql.warehouse.dir", ContextUtil.getWarehouseDir())
                     .config("spark.sql.mapKeyDedupPolicy", "LAST_WIN")
+                    .config("spark.plugins", CacheStatsPlugin.class.getName())
                     .enableHiveSupport().appName(APP_NAME).getOrCreate();
         }
 
@@ -17,6 +17,11 @@ package software.aws.solution.clickstream;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.spark.SparkContext;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Encoders;
 import org.apache.spark.sql.SaveMode;
@@ -35,6 +40,7 @@ import software.aws.solution.clickstream.exception.ExecuteTransformerException;
 import software.aws.solution.clickstream.util.*;
 
 import javax.validation.constraints.NotEmpty;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Paths;
@@ -47,14 +53,19 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.apache.spark.sql.functions.col;
-import static org.apache.spark.sql.functions.concat;
 import static org.apache.spark.sql.functions.decode;
-import static org.apache.spark.sql.functions.expr;
 import static org.apache.spark.sql.functions.input_file_name;
 import static org.apache.spark.sql.functions.date_format;
 
@@ -62,6 +73,7 @@ import static software.aws.solution.clickstream.TransformerV3.CLIENT_TIMESTAMP;
 import static software.aws.solution.clickstream.TransformerV3.INPUT_FILE_NAME;
 import static software.aws.solution.clickstream.util.ContextUtil.DISABLE_TRAFFIC_SOURCE_ENRICHMENT;
 import static software.aws.solution.clickstream.util.ContextUtil.JOB_NAME_PROP;
+import static software.aws.solution.clickstream.util.ContextUtil.LAZY_STAGE_METRICS;
 import static software.aws.solution.clickstream.util.ContextUtil.WAREHOUSE_DIR_PROP;
 import static software.aws.solution.clickstream.util.ContextUtil.OUTPUT_COALESCE_PARTITIONS_PROP;
 
@@ -76,10 +88,16 @@ public class ETLRunner {
     public static final String TRANSFORM_METHOD_NAME = "transform";
     public static final String EVENT_DATE = "event_date";
     public static final String CONFIG_METHOD = "config";
-    public static final String APP_ID_EVENT_DATE = "app_id_event_date";
+    public static final long UNKNOWN_COUNT = -1L;
+    private static final String SCHEDULER_POOL = "spark.scheduler.pool";
     private final SparkSession spark;
     private final ETLRunnerConfig runConfig;
     private TableName eventTableName = null;
+    private ProcessedFileLedger processedFileLedger = null;
+    private List<String> plannedInputFiles = new ArrayList<>();
+    private long planTimeMillis;
+    private final Map<TableName, Future<Long>> pendingTableWrites = new LinkedHashMap<>();
+    private ExecutorService tableWriteExecutor = null;
 
     @Getter
     private TransformConfig transformConfig;
@@ -226,6 +244,12 @@ public class ETLRunner {
         log.info(JOB_NAME_PROP + ":" + System.getProperty(JOB_NAME_PROP));
         log.info(WAREHOUSE_DIR_PROP + ":" + System.getProperty(WAREHOUSE_DIR_PROP));
 
+        ETLMetricListener metricListener = ETLMetricListener.start(spark);
+        if (ContextUtil.getEtlRunFlag().contains(LAZY_STAGE_METRICS)) {
+            log.info("Intermediate stage metrics are collected lazily");
+            ETLMetric.setLazyListener(metricListener);
+        }
+
         Dataset<Row> dataset = readInputDataset(true);
         ContextUtil.cacheDataset(dataset);
         log.info(new ETLMetric(dataset, "source").toString());
@@ -234,6 +258,10 @@ public class ETLRunner {
 
         long resultCount = writeResultEventDataset(dataset2);
         log.info(new ETLMetric(resultCount, SINK).toString());
+        awaitTableWrites();
+        commitInputFiles();
+        ETLMetric.setLazyListener(null);
+        metricListener.report();
     }
 
     private Dataset<Row> rePartitionInputDataset(final Dataset<Row> dataset) {
@@ -255,7 +283,21 @@ public class ETLRunner {
         if (this.eventTableName == null) {
             throw new IllegalStateException("eventTableName is null");
         }
-        return writeResult(outPath, dataset2, this.eventTableName);
+        if (pendingTableWrites.isEmpty()) {
+            return writeResult(outPath, dataset2, this.eventTableName);
+        }
+        // the event table is written while the other tables are still being written
+        SparkContext sparkContext = spark.sparkContext();
+        sparkContext.setLocalProperty(SCHEDULER_POOL, this.eventTableName.getTableName());
+        try {
+            return writeResult(outPath, dataset2, this.eventTableName);
+        } catch (RuntimeException e) {
+            cancelTableWrites();
+            closeTableWrites();
+            throw e;
+        } finally {
+            sparkContext.setLocalProperty(SCHEDULER_POOL, null);
+        }
     }
 
     public Dataset<Row> readInputDataset(final boolean checkModifiedTime) {
@@ -308,35 +350,55 @@ public class ETLRunner {
         options.put("timeZone", "UTC");
         options.put("mode", "PERMISSIVE");
         options.put("columnNameOfCorruptRecord", "_corrupt_record");
+
+        long modifiedAfterMillis = Long.MIN_VALUE;
+        long modifiedBeforeMillis = Long.MAX_VALUE;
         if (checkModifiedTime) {
-            //note the range is exclusive (modifiedAfter, modifiedBefore)
-            options.put("modifiedAfter", modifiedAfter);
-            options.put("modifiedBefore", modifiedBefore);
-        }
-        Dataset<Row> dataset = spark.read()
-                .options(options)
-                .schema(inputDataSchema)
-                .json(sourcePathsArray[0])
+            //note the range is exclusive (modifiedAfter, modifiedBefore), in whole seconds like the formatted times
+            modifiedAfterMillis = modifiedAfterDatetime.toEpochSecond() * 1000L;
+            modifiedBeforeMillis = modifiedBeforeDatetime.toEpochSecond() * 1000L;
+        }
+        Set<String> processedFiles = new HashSet<>();
+        planTimeMillis = System.currentTimeMillis();
+        if (ContextUtil.isProcessedFileLedgerEnabled()) {
+            // the files of the window that are not in the ledger yet are read, a rerun of the window skips its processed files
+            processedFileLedger = ProcessedFileLedger.of(spark.sessionState().newHadoopConf(), runConfig.getSourcePath());
+            long horizonMillis = processedFileLedger.getHorizonMillis(planTimeMillis);
+            if (checkModifiedTime && modifiedAfterMillis < horizonMillis) {
+                // files modified before the horizon may be missing from the ledger, they would be read again or not at all
+                throw new ExecuteTransformerException("startTimestamp " + runConfig.getStartTimestamp()
+                        + " is older than the processed file ledger horizon " + horizonMillis
+                        + ", increase " + ContextUtil.PROCESSED_FILE_LEDGER_KEEP_DAYS_PROP + " or run without the ledger");
+            }
+            processedFiles = processedFileLedger.load();
+            // the ledger only narrows the window, the first run with an empty ledger reads the same files as without it
+            modifiedAfterMillis = Math.max(modifiedAfterMillis, horizonMillis);
+            log.info("read files not in processed file ledger, modifiedAfterMillis:" + modifiedAfterMillis + ", modifiedBeforeMillis:" + modifiedBeforeMillis);
+        }
+        // list the days once and read all of the files in one scan, the file list is logged from the plan
+        InputFilePlanner inputFilePlanner = InputFilePlanner.plan(spark, runConfig.getSourcePath(), sourcePaths,
+                modifiedAfterMillis, modifiedBeforeMillis, processedFiles);
+        Dataset<Row> dataset = inputFilePlanner.readJson(inputDataSchema, options)
                 .withColumn(INPUT_FILE_NAME, input_file_name());
-        log.info("read source " + 0 + ", path:" + sourcePathsArray[0]);
-        for (int i = 1; i < sourcePathsArray.length; i++) {
-            Dataset<Row> datasetTemp = spark.read()
-                    .options(options)
-                    .schema(inputDataSchema)
-                    .json(sourcePathsArray[i])
-                    .withColumn(INPUT_FILE_NAME, input_file_name());
-            log.info("read source " + i + ", path:" + sourcePathsArray[i]);
-            dataset = dataset.unionAll(datasetTemp);
-        }
-
-        List<Row> inputFiles = dataset.select(col(INPUT_FILE_NAME).alias("fileName")).distinct().collectAsList();
-        inputFiles.forEach(row -> log.info(row.getAs("fileName")));
-        long fileNameCount = inputFiles.size();
-        log.info(new ETLMetric(fileNameCount, "loaded input files").toString());
+
+        List<String> inputFiles = inputFilePlanner.getFilePaths();
+        plannedInputFiles = inputFiles;
+        inputFiles.forEach(log::info);
+        log.info(new ETLMetric(inputFiles.size(), inputFilePlanner.getTotalBytes(), "loaded input files").toString());
 
         return rePartitionInputDataset(dataset);
     }
 
+    /**
+     * Record the input files of this run in the processed file ledger, called after all of the output is written.
+     */
+    @VisibleForTesting
+    public void commitInputFiles() {
+        if (processedFileLedger != null) {
+            processedFileLedger.commit(plannedInputFiles, planTimeMillis);
+        }
+    }
+
     @VisibleForTesting
     public Dataset<Row> executeTransformers(final Dataset<Row> dataset,
                                             final @NotEmpty List<String> transformerClassNames) {
@@ -406,16 +468,13 @@ public class ETLRunner {
         Dataset<Row> itemDataset = transformedDatasets.get(2);
         Dataset<Row> userDataset = transformedDatasets.get(3);
         String outPath = runConfig.getOutputPath();
-        long evenParamDatasetCount = writeResult(outPath, evenParamDataset, TableName.EVEN_PARAMETER);
-        log.info(new ETLMetric(evenParamDatasetCount, SINK + " " + TableName.EVEN_PARAMETER.getTableName()).toString());
+        writeTable(outPath, evenParamDataset, TableName.EVEN_PARAMETER);
 
         if (itemDataset != null) {
-            long itemDatasetCount = writeResult(outPath, itemDataset, TableName.ITEM);
-            log.info(new ETLMetric(itemDatasetCount, SINK + " " + TableName.ITEM.getTableName()).toString());
+            writeTable(outPath, itemDataset, TableName.ITEM);
         }
         if (userDataset != null) {
-            long userDatasetCount = writeResult(outPath, userDataset, TableName.USER);
-            log.info(new ETLMetric(userDatasetCount, SINK + " " + TableName.USER.getTableName()).toString());
+            writeTable(outPath, userDataset, TableName.USER);
         }
     }
 
@@ -428,21 +487,101 @@ public class ETLRunner {
             }
             Dataset<Row> dataset = entry.getValue();
             String outPath = runConfig.getOutputPath();
+            writeTable(outPath, dataset, tableName);
+        }
+    }
+
+    /**
+     * Write the table now, or submit the write as a concurrent Spark job in the scheduler pool of the table
+     * when concurrent table writes are enabled, the submitted writes are awaited by {@link #awaitTableWrites()}.
+     */
+    private void writeTable(final String outPath, final Dataset<Row> dataset, final TableName tableName) {
+        if (!ContextUtil.isConcurrentTableWritesEnabled()) {
             long datasetCount = writeResult(outPath, dataset, tableName);
             log.info(new ETLMetric(datasetCount, SINK + " " + tableName.getTableName()).toString());
+            return;
+        }
+        if (tableWriteExecutor == null) {
+            tableWriteExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "etl-table-write");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        log.info("submit concurrent write for table " + tableName);
+        pendingTableWrites.put(tableName, tableWriteExecutor.submit(() -> {
+            SparkContext sparkContext = spark.sparkContext();
+            // local properties are per thread, the jobs of this write run in the pool of the table and can be cancelled together
+            sparkContext.setLocalProperty(SCHEDULER_POOL, tableName.getTableName());
+            sparkContext.setJobGroup(getTableWriteJobGroup(), "write " + tableName.getTableName(), true);
+            try {
+                return writeResult(outPath, dataset, tableName);
+            } finally {
+                sparkContext.clearJobGroup();
+                sparkContext.setLocalProperty(SCHEDULER_POOL, null);
+            }
+        }));
+    }
+
+    /**
+     * Wait for the concurrent table writes. When one of them fails, the jobs of the others are cancelled and the failure
+     * is thrown, the input files are then not committed, the same as when a sequential write fails.
+     */
+    @VisibleForTesting
+    public void awaitTableWrites() {
+        try {
+            for (Map.Entry<TableName, Future<Long>> write : pendingTableWrites.entrySet()) {
+                long datasetCount = waitForTableWrite(write.getKey(), write.getValue());
+                log.info(new ETLMetric(datasetCount, SINK + " " + write.getKey().getTableName()).toString());
+            }
+        } finally {
+            closeTableWrites();
+        }
+    }
+
+    private void closeTableWrites() {
+        pendingTableWrites.clear();
+        if (tableWriteExecutor != null) {
+            tableWriteExecutor.shutdownNow();
+            tableWriteExecutor = null;
+        }
+    }
+
+    private long waitForTableWrite(final TableName tableName, final Future<Long> write) {
+        try {
+            return write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelTableWrites();
+            throw new ExecuteTransformerException(e);
+        } catch (ExecutionException e) {
+            log.error("concurrent write for table " + tableName + " failed: " + e.getCause().getMessage());
+            cancelTableWrites();
+            // the failure is thrown as it would be by a sequential write
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ExecuteTransformerException(e);
+        }
+    }
+
+    private void cancelTableWrites() {
+        spark.sparkContext().cancelJobGroup(getTableWriteJobGroup());
+        pendingTableWrites.values().forEach(write -> write.cancel(true));
     }
 
+    private static String getTableWriteJobGroup() {
+        return ContextUtil.getJobName() + "-table-writes";
+    }
+
+    /**
+     * Write the table and return the written rows from the metrics of the write,
+     * or {@link #UNKNOWN_COUNT} when the metric was not seen and the rows were appended to an existing output folder.
+     */
     protected long writeResult(final String outputPath, final Dataset<Row> dataset, final TableName tbName) {
         log.info("writeResult for table " + tbName);
         Dataset<Row> partitionedDataset = prepareForPartition(dataset, tbName);
-        partitionedDataset.cache();
-        long resultCount = partitionedDataset.count();
-        log.info(new ETLMetric(resultCount, "writeResult for table " + tbName).toString());
         log.info("outputPath: " + outputPath);
-        if (resultCount == 0) {
-            return 0L;
-        }
         String saveOutputPath = outputPath;
         if (!(saveOutputPath.endsWith(tbName.getTableName() + "/")
                 || saveOutputPath.endsWith(tbName.getTableName()))) {
@@ -452,44 +591,118 @@ public class ETLRunner {
         log.info("saveOutputPath: " + saveOutputPath);
 
         String[] partitionBy = new String[]{PARTITION_APP, PARTITION_YEAR, PARTITION_MONTH, PARTITION_DAY};
-        if ("json".equalsIgnoreCase(runConfig.getOutPutFormat())) {
-            partitionedDataset
-                    .drop(APP_ID_EVENT_DATE)
-                    .write()
-                    .partitionBy(partitionBy)
-                    .mode(SaveMode.Append)
-                    .json(saveOutputPath);
-        } else {
-            long outFolderCount = partitionedDataset
-                    .sample(0.15)
-                    .select(APP_ID_EVENT_DATE)
-                    .select(expr("approx_count_distinct(*)").alias("count"))
-                    .first()
-                    .getLong(0);
-
-            outFolderCount = outFolderCount == 0 ? 1 : outFolderCount;
-            log.info("sampled unique app_id and event_date count: " + outFolderCount);
-
-            int numPartitions = (int) (resultCount / (50_000 * outFolderCount)) + 1;
-            int outPartitions = Integer.parseInt(System.getProperty(OUTPUT_COALESCE_PARTITIONS_PROP, "-1"));
-            log.info("calculated numPartitions: " + numPartitions + ", outPartitions:" + outPartitions);
-
-            if (outPartitions > 0 && numPartitions > outPartitions) {
-                numPartitions = outPartitions;
+        boolean outputExists = pathExists(saveOutputPath);
+        // the written rows are taken from the metrics of the write instead of counting the dataset before it
+        ETLMetricListener writeListener = ETLMetricListener.start(spark);
+        ETLMetric writeMetric;
+        try {
+            if ("json".equalsIgnoreCase(runConfig.getOutPutFormat())) {
+                partitionedDataset
+                        .write()
+                        .partitionBy(partitionBy)
+                        .mode(SaveMode.Append)
+                        .json(saveOutputPath);
+            } else {
+                rebalanceByPartition(partitionedDataset, partitionBy)
+                        .write()
+                        .option("compression", "snappy")
+                        .partitionBy(partitionBy)
+                        .mode(SaveMode.Append)
+                        .parquet(saveOutputPath);
             }
-            log.info("actual numPartitions: " + numPartitions);
-            partitionedDataset
-                    .drop(APP_ID_EVENT_DATE)
-                    .coalesce(numPartitions)
-                    .write()
-                    .option("compression", "snappy")
-                    .partitionBy(partitionBy)
-                    .mode(SaveMode.Append)
-                    .parquet(saveOutputPath);
+            writeMetric = writeListener.getWriteMetric(saveOutputPath);
+        } finally {
+            writeListener.stop();
+        }
+        long resultCount;
+        if (writeMetric != null) {
+            resultCount = writeMetric.getCount();
+            log.info(writeMetric.toString());
+        } else if (!outputExists) {
+            // the metric of the write was not seen, an unknown count must not be taken for an empty write
+            log.warn("no write metric for " + saveOutputPath + ", counting the written rows");
+            resultCount = countOutputRows(saveOutputPath);
+        } else {
+            // the appended rows can not be told from the existing ones without evaluating the dataset again
+            log.warn("no write metric for " + saveOutputPath + ", the written rows are unknown");
+            resultCount = UNKNOWN_COUNT;
+        }
+        log.info(new ETLMetric(resultCount, "writeResult for table " + tbName).toString());
+        if (writeMetric != null && resultCount == 0 && !outputExists) {
+            // an empty table leaves no output folder behind
+            deletePath(saveOutputPath);
         }
         return resultCount;
     }
 
+    /**
+     * Count the rows under an output path that only this run has written to.
+     */
+    private long countOutputRows(final String outputPath) {
+        if (!hasDataFiles(outputPath)) {
+            return 0L;
+        }
+        String format = "json".equalsIgnoreCase(runConfig.getOutPutFormat()) ? "json" : "parquet";
+        return spark.read().format(format).load(outputPath).count();
+    }
+
+    private boolean pathExists(final String pathName) {
+        Path path = new Path(pathName);
+        try {
+            return path.getFileSystem(spark.sessionState().newHadoopConf()).exists(path);
+        } catch (IOException e) {
+            throw new ExecuteTransformerException(e);
+        }
+    }
+
+    private boolean hasDataFiles(final String pathName) {
+        Path path = new Path(pathName);
+        try {
+            FileSystem fs = path.getFileSystem(spark.sessionState().newHadoopConf());
+            if (!fs.exists(path)) {
+                return false;
+            }
+            RemoteIterator<LocatedFileStatus> files = fs.listFiles(path, true);
+            while (files.hasNext()) {
+                String name = files.next().getPath().getName();
+                // marker files such as _SUCCESS and hidden checksum files hold no rows
+                if (!name.startsWith("_") && !name.startsWith(".")) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw new ExecuteTransformerException(e);
+        }
+    }
+
+    private void deletePath(final String pathName) {
+        Path path = new Path(pathName);
+        try {
+            path.getFileSystem(spark.sessionState().newHadoopConf()).delete(path, true);
+        } catch (IOException e) {
+            throw new ExecuteTransformerException(e);
+        }
+    }
+
+    /**
+     * Shuffle the rows by output folder so that adaptive execution sizes the writer tasks from the shuffled bytes of this write,
+     * large folders are split over several writers and small folders share one, without counting the rows up front.
+     */
+    private static Dataset<Row> rebalanceByPartition(final Dataset<Row> dataset, final String[] partitionBy) {
+        List<Object> hintParams = new ArrayList<>();
+        int outPartitions = Integer.parseInt(System.getProperty(OUTPUT_COALESCE_PARTITIONS_PROP, "-1"));
+        if (outPartitions > 0) {
+            hintParams.add(outPartitions);
+        }
+        for (String partitionCol : partitionBy) {
+            // hint parameters are passed to the analyzer as they are, columns must be given as expressions
+            hintParams.add(col(partitionCol).expr());
+        }
+        log.info("rebalance output by " + String.join(",", partitionBy) + ", outPartitions:" + outPartitions);
+        return dataset.hint("rebalance", hintParams.toArray());
+    }
+
     private Dataset<Row> prepareForPartition(final Dataset<Row> dataset, final TableName tbName) {
         if (Arrays.asList(TableName.EVENT_V2,
                 TableName.USER_V2,
@@ -509,8 +722,7 @@ public class ETLRunner {
         Dataset<Row> dataset1 = dataset.withColumn(PARTITION_APP, appIdCol)
                 .withColumn(PARTITION_YEAR, date_format(col(EVENT_DATE), "yyyy"))
                 .withColumn(PARTITION_MONTH, date_format(col(EVENT_DATE), "MM"))
-                .withColumn(PARTITION_DAY, date_format(col(EVENT_DATE), "dd"))
-                .withColumn(APP_ID_EVENT_DATE, concat(appIdCol, date_format(col(EVENT_DATE), "yyyyMMdd")));
+                .withColumn(PARTITION_DAY, date_format(col(EVENT_DATE), "dd"));
 
         if (Arrays.asList(TableName.USER, TableName.EVEN_PARAMETER, TableName.ITEM).contains(tbName)) {
             return dataset1.drop(EVENT_DATE, appId);
@@ -525,8 +737,7 @@ public class ETLRunner {
                 .withColumn(PARTITION_APP, col(Constant.APP_ID))
                 .withColumn(PARTITION_YEAR, date_format(col(Constant.EVENT_TIMESTAMP), "yyyy"))
                 .withColumn(PARTITION_MONTH, date_format(col(Constant.EVENT_TIMESTAMP), "MM"))
-                .withColumn(PARTITION_DAY, date_format(col(Constant.EVENT_TIMESTAMP), "dd"))
-                .withColumn(APP_ID_EVENT_DATE, concat(col(Constant.APP_ID),  date_format(col(Constant.EVENT_TIMESTAMP), "yyyyMMdd")));
+                .withColumn(PARTITION_DAY, date_format(col(Constant.EVENT_TIMESTAMP), "dd"));
 
         if (tbName == TableName.ITEM_V2) {
             return datasetWithPartition.drop(Constant.APP_ID);
@@ -14,7 +14,8 @@
 
 package software.aws.solution.clickstream;
 
-import com.maxmind.db.CHMCache;
+import com.google.common.net.InetAddresses;
+import com.maxmind.db.DatabaseRecord;
 import com.maxmind.db.MaxMindDbConstructor;
 import com.maxmind.db.MaxMindDbParameter;
 import com.maxmind.db.Reader;
@@ -33,6 +34,7 @@ import software.aws.solution.clickstream.common.Cache;
 import software.aws.solution.clickstream.util.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Map;
 import java.util.Optional;
@@ -46,7 +48,12 @@ import static software.aws.solution.clickstream.ETLRunner.DEBUG_LOCAL_PATH;
 
 @Slf4j
 public class IPEnrichment {
-    private static final Cache<Row> CACHED_IP = new Cache<>();
+    private static final String GEO_FILE_NAME = "GeoLite2-City.mmdb";
+    private static final int IPV4_CACHE_PREFIX_LENGTH = 24;
+    private static final int IPV6_CACHE_PREFIX_LENGTH = 48;
+    private static volatile GeoDatabase geoDatabase;
+    private static volatile FailedOpen failedOpen;
+
     public Dataset<Row> transform(final Dataset<Row> dataset) {
         UserDefinedFunction udfEnrichIP = udf(enrich(), DataTypes.createStructType(
                 new StructField[]{
@@ -74,36 +81,162 @@ public class IPEnrichment {
 
     static UDF2<String, String, Row> enrich() {
         return (ipValue, localeValue) -> {
-            if (CACHED_IP.containsKey(ipValue)) {
-                return CACHED_IP.get(ipValue);
-            }
-            GenericRow defaultRow = new GenericRow(
-                    new Object[]{null, null, null, null, null, null, localeValue}
-            );
-            GenericRow resultRow = defaultRow;
-            try (Reader reader = new Reader(new File(SparkFiles.get("GeoLite2-City.mmdb")),
-                    new CHMCache(1024 * 128))) {
-                InetAddress address = InetAddress.getByName(ipValue);
-                LookupResult result = reader.get(address, LookupResult.class);
-                resultRow = Optional.ofNullable(result)
-                        .map(geo -> new GenericRow(new Object[]{
-                                Optional.ofNullable(geo.getCity()).map(LookupResult.City::getName).orElse(null),
-                                Optional.ofNullable(geo.getContinent()).map(LookupResult.Continent::getName).orElse(null),
-                                Optional.ofNullable(geo.getCountry()).map(LookupResult.Country::getName).orElse(null),
-                                null,
-                                null,
-                                null,
-                                localeValue
-                        }))
-                        .orElse(defaultRow);
+            GeoLocation location = GeoLocation.EMPTY;
+            try {
+                location = lookup(ipValue);
             } catch (Exception e) {
                 log.warn("failed to enrich IP: " + ipValue + ", " + getStackTrace(e));
             }
-            CACHED_IP.put(ipValue, resultRow);
-            return resultRow;
+            return new GenericRow(new Object[]{
+                    location.city,
+                    location.continent,
+                    location.country,
+                    null,
+                    null,
+                    null,
+                    localeValue
+            });
         };
     }
 
+    private static GeoLocation lookup(final String ipValue) throws IOException {
+        GeoDatabase database = getGeoDatabase();
+        if (database == null || ipValue == null) {
+            return GeoLocation.EMPTY;
+        }
+        InetAddress address;
+        try {
+            address = InetAddresses.forString(ipValue.trim());
+        } catch (IllegalArgumentException e) {
+            log.warn("failed to enrich IP: " + ipValue + ", " + e.getMessage());
+            return GeoLocation.EMPTY;
+        }
+        byte[] addressBytes = address.getAddress();
+        int cachePrefixLength = addressBytes.length == 4 ? IPV4_CACHE_PREFIX_LENGTH : IPV6_CACHE_PREFIX_LENGTH;
+        String prefixKey = prefixKey(addressBytes, cachePrefixLength);
+        GeoLocation location = database.networks.get(prefixKey);
+        if (location != null && location != GeoLocation.SPLIT_PREFIX) {
+            return location;
+        }
+        DatabaseRecord<LookupResult> dbRecord = database.reader.getRecord(address, LookupResult.class);
+        GeoLocation found = GeoLocation.of(dbRecord.getData());
+        if (location == null) {
+            // all addresses of the cache prefix share one entry only when the matched network covers the prefix,
+            // otherwise the prefix is marked so that its addresses go to the reader without another cache lookup
+            database.networks.put(prefixKey, dbRecord.getNetwork().getPrefixLength() <= cachePrefixLength ? found : GeoLocation.SPLIT_PREFIX);
+        }
+        return found;
+    }
+
+    private static String prefixKey(final byte[] addressBytes, final int prefixLength) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < prefixLength / 8; i++) {
+            sb.append(Integer.toHexString(addressBytes[i] & 0xff)).append('.');
+        }
+        return sb.append('/').append(prefixLength).toString();
+    }
+
+    /**
+     * Return the geo database of the current Spark files, it is opened once per executor JVM and shared by all tasks.
+     * A failed open is not kept, it is tried again as soon as the database file changes.
+     */
+    private static GeoDatabase getGeoDatabase() {
+        String sparkFilesDir = SparkFiles.getRootDirectory();
+        GeoDatabase database = geoDatabase;
+        if (database != null && database.sparkFilesDir.equals(sparkFilesDir)) {
+            return database;
+        }
+        File dbFile = new File(sparkFilesDir, GEO_FILE_NAME);
+        if (isUnchangedSinceFailedOpen(dbFile)) {
+            return null;
+        }
+        synchronized (IPEnrichment.class) {
+            database = geoDatabase;
+            if (database != null && database.sparkFilesDir.equals(sparkFilesDir)) {
+                return database;
+            }
+            if (isUnchangedSinceFailedOpen(dbFile)) {
+                return null;
+            }
+            long lastModified = dbFile.lastModified();
+            database = GeoDatabase.open(sparkFilesDir, dbFile);
+            if (database == null) {
+                failedOpen = new FailedOpen(dbFile, lastModified);
+                return null;
+            }
+            // the previous reader is not closed, tasks may still be looking up in it, it is unmapped once it is collected
+            geoDatabase = database;
+            failedOpen = null;
+            return database;
+        }
+    }
+
+    private static boolean isUnchangedSinceFailedOpen(final File dbFile) {
+        FailedOpen failed = failedOpen;
+        return failed != null && failed.dbFile.equals(dbFile) && failed.lastModified == dbFile.lastModified();
+    }
+
+    private static final class FailedOpen {
+        private final File dbFile;
+        private final long lastModified;
+
+        private FailedOpen(final File dbFile, final long lastModified) {
+            this.dbFile = dbFile;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final class GeoDatabase {
+        private final String sparkFilesDir;
+        private final Reader reader;
+        private final Cache<GeoLocation> networks;
+
+        private GeoDatabase(final String sparkFilesDir, final Reader reader) {
+            this.sparkFilesDir = sparkFilesDir;
+            this.reader = reader;
+            this.networks = Cache.<GeoLocation>builder("ip_network").build();
+        }
+
+        /**
+         * Open the database file memory-mapped, return null when it can not be opened.
+         */
+        static GeoDatabase open(final String sparkFilesDir, final File dbFile) {
+            try {
+                Reader reader = new Reader(dbFile, Reader.FileMode.MEMORY_MAPPED);
+                log.info("Opened geo database {}, build date: {}", dbFile, reader.getMetadata().getBuildDate());
+                return new GeoDatabase(sparkFilesDir, reader);
+            } catch (IOException e) {
+                log.warn("failed to open geo database: " + dbFile + ", " + getStackTrace(e));
+                return null;
+            }
+        }
+    }
+
+    private static final class GeoLocation {
+        private static final GeoLocation EMPTY = new GeoLocation(null, null, null);
+        private static final GeoLocation SPLIT_PREFIX = new GeoLocation(null, null, null);
+
+        private final String city;
+        private final String continent;
+        private final String country;
+
+        private GeoLocation(final String city, final String continent, final String country) {
+            this.city = city;
+            this.continent = continent;
+            this.country = country;
+        }
+
+        static GeoLocation of(final LookupResult result) {
+            if (result == null) {
+                return EMPTY;
+            }
+            return new GeoLocation(
+                    Optional.ofNullable(result.getCity()).map(LookupResult.City::getName).orElse(null),
+                    Optional.ofNullable(result.getContinent()).map(LookupResult.Continent::getName).orElse(null),
+                    Optional.ofNullable(result.getCountry()).map(LookupResult.Country::getName).orElse(null));
+        }
+    }
+
     public static class LookupResult {
 
         @Getter
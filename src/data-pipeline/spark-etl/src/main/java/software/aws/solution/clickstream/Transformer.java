@@ -69,10 +69,10 @@ public final class Transformer {
     private final EventParamsConverter eventParamsConverter = new EventParamsConverter();
 
     public Dataset<Row> transform(final Dataset<Row> dataset) {
-        log.info(new ETLMetric(dataset, "transform enter").toString());
-        Dataset<Row> cleanedDataset = cleaner.clean(dataset, DATA_SCHEMA_FILE_PATH);
+        Dataset<Row> enterDataset = ETLMetric.observe(dataset, "transform enter");
+        Dataset<Row> cleanedDataset = cleaner.clean(enterDataset, DATA_SCHEMA_FILE_PATH);
         ContextUtil.cacheDataset(cleanedDataset);
-        log.info(new ETLMetric(cleanedDataset, "after clean").toString());
+        cleanedDataset = ETLMetric.observe(cleanedDataset, "after clean");
 
         Dataset<Row> dataset1 = retrieveEventParams(cleanedDataset);
         Dataset<Row> dataset2 = convertAppInfo(dataset1);
@@ -96,8 +96,7 @@ public final class Transformer {
         Dataset<Row> dataset11= dataset10.select(
                 transformOutFields.toArray(new Column[]{})
         );
-        log.info(new ETLMetric(dataset11, "transform return").toString());
-        return dataset11;
+        return ETLMetric.observe(dataset11, "transform return");
     }
 
     private Dataset<Row> convertUri(final Dataset<Row> dataset) {
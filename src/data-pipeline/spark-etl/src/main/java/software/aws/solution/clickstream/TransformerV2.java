@@ -345,19 +345,19 @@ public final class TransformerV2 {
                 TABLE_ETL_USER_CHANNEL, TABLE_VERSION_SUFFIX_V1, userKeepDays
         ));
         l.add(new DatasetUtil.TableInfo(
-                TableName.USER.getTableName(), TABLE_VERSION_SUFFIX_V1, userKeepDays
+                TableName.USER.getTableName(), TABLE_VERSION_SUFFIX_V1, userKeepDays, true
         ));
         l.add(new DatasetUtil.TableInfo(
-                TableName.ITEM.getTableName(), TABLE_VERSION_SUFFIX_V1, itemKeepDays
+                TableName.ITEM.getTableName(), TABLE_VERSION_SUFFIX_V1, itemKeepDays, true
         ));
         DatasetUtil.mergeIncrementalTables(sparkSession, l);
     }
 
     public List<Dataset<Row>> transform(final Dataset<Row> dataset) {
-        log.info(new ETLMetric(dataset, "transform enter").toString());
-        Dataset<Row> cleanedDataset = cleaner.clean(dataset, DATA_SCHEMA_V2_FILE_PATH);
+        Dataset<Row> enterDataset = ETLMetric.observe(dataset, "transform enter");
+        Dataset<Row> cleanedDataset = cleaner.clean(enterDataset, DATA_SCHEMA_V2_FILE_PATH);
         ContextUtil.cacheDataset(cleanedDataset);
-        log.info(new ETLMetric(cleanedDataset, "after clean").toString());
+        cleanedDataset = ETLMetric.observe(cleanedDataset, "after clean");
         Column dataCol = col("data");
 
         Dataset<Row> dataset0 = cleanedDataset.withColumn(APP_ID, dataCol.getField(APP_ID))
@@ -370,17 +370,15 @@ public final class TransformerV2 {
                 .withColumn(USER_ID, get_json_object(dataCol.getField("user"), "$._user_id.value").cast(DataTypes.StringType));
         Dataset<Row> dataset1 = convertAppInfo(dataset0);
 
-        Dataset<Row> eventDataset = extractEvent(dataset1);
-        log.info(new ETLMetric(eventDataset, "eventDataset").toString());
+        Dataset<Row> eventDataset = ETLMetric.observe(extractEvent(dataset1), "eventDataset");
 
-        Dataset<Row> eventParameterDataset = extractEventParameter(dataset1);
-        log.info(new ETLMetric(eventParameterDataset, "eventParameterDataset").toString());
+        Dataset<Row> eventParameterDataset = ETLMetric.observe(extractEventParameter(dataset1), "eventParameterDataset");
 
         Optional<Dataset<Row>> itemDataset = extractItem(dataset1);
-        itemDataset.ifPresent(rowDataset -> log.info(new ETLMetric(rowDataset, "itemDataset").toString()));
+        itemDataset = itemDataset.map(rowDataset -> ETLMetric.observe(rowDataset, "itemDataset"));
 
         Optional<Dataset<Row>> userDataset = extractUser(dataset1);
-        userDataset.ifPresent(rowDataset -> log.info(new ETLMetric(rowDataset, "userDataset").toString()));
+        userDataset = userDataset.map(rowDataset -> ETLMetric.observe(rowDataset, "userDataset"));
 
         return Arrays.asList(eventDataset,
                 eventParameterDataset,
@@ -604,7 +602,7 @@ public final class TransformerV2 {
         userTrafficSourceDataset = reRepartitionUserDataset(userTrafficSourceDataset);
         userChannelDataset = reRepartitionUserDataset(userChannelDataset);
 
-        Dataset<Row> userPropsDataset = loadFullUserDataset(newUserProfileMainDataset, pathInfo);
+        Dataset<Row> userPropsDataset = loadFullUserDataset(newUserProfileMainDataset, newUniqueUserDataset.select(APP_ID, USER_PSEUDO_ID), pathInfo);
         userPropsDataset = reRepartitionUserDataset(userPropsDataset);
 
         Column userPseudoIdCol = newUniqueUserDataset.col(USER_PSEUDO_ID);
@@ -28,8 +28,10 @@ import software.aws.solution.clickstream.udfconverter.ClickstreamDataConverterV3
 import software.aws.solution.clickstream.udfconverter.DatasetConverter;
 import software.aws.solution.clickstream.common.TransformConfig;
 import software.aws.solution.clickstream.transformer.TransformerNameEnum;
+import software.aws.solution.clickstream.util.BucketedStateStore;
 import software.aws.solution.clickstream.util.ContextUtil;
 import software.aws.solution.clickstream.util.DatasetUtil;
+import software.aws.solution.clickstream.util.ETLMetric;
 
 import static org.apache.spark.sql.functions.col;
 import static org.apache.spark.sql.functions.expr;
@@ -40,6 +42,7 @@ import static org.apache.spark.sql.functions.max;
 import static org.apache.spark.sql.functions.max_by;
 import static org.apache.spark.sql.functions.min_by;
 import static org.apache.spark.sql.functions.struct;
+import static org.apache.spark.sql.functions.when;
 import static software.aws.solution.clickstream.model.ModelV2.toColumnArray;
 import static software.aws.solution.clickstream.transformer.MaxLengthTransformerV2.runMaxLengthTransformerForUserV2;
 import static software.aws.solution.clickstream.transformer.TransformerNameEnum.CLICKSTREAM;
@@ -78,21 +81,6 @@ public class TransformerV3 extends BaseTransformerV3 {
     }
 
     public static Dataset<Row> aggUserDataset(final Dataset<Row> userDataSet, final String info) {
-        Dataset<Row> userIdDataset = userDataSet
-                .select(Constant.APP_ID,
-                        Constant.USER_PSEUDO_ID,
-                        Constant.USER_ID,
-                        Constant.EVENT_TIMESTAMP,
-                        Constant.PROCESS_INFO)
-                .groupBy(Constant.APP_ID, Constant.USER_PSEUDO_ID)
-                .agg(
-                        max(Constant.USER_ID).alias(Constant.USER_ID),
-                        max(Constant.EVENT_TIMESTAMP).alias(Constant.EVENT_TIMESTAMP),
-                        first(Constant.PROCESS_INFO).alias(Constant.PROCESS_INFO)
-                );
-
-        log.info("aggUserDataset() userIdDataset count: {}, info: {}", userIdDataset.count(), info);
-
         boolean debugLocal = Boolean.parseBoolean(System.getProperty(DEBUG_LOCAL_PROP));
 
         if (debugLocal && userDataSet.count() > 0) {
@@ -101,49 +89,30 @@ public class TransformerV3 extends BaseTransformerV3 {
 
         String latest = "latest.";
         String latestEventName = USER_LATEST_EVENT_NAME;
-        Dataset<Row> profileSetUserPropsDataset = userDataSet.filter(
-                col(Constant.USER_PROPERTIES).isNotNull()
-                        .and(col(latestEventName).equalTo(EVENT_PROFILE_SET))
-        );
-
-        log.info("aggUserDataset() profileSetUserPropsDataset count: {}, info: {}", profileSetUserPropsDataset.count(), info);
+        Column isProfileSet = col(Constant.USER_PROPERTIES).isNotNull()
+                .and(col(latestEventName).equalTo(EVENT_PROFILE_SET));
 
-        Dataset<Row> latestUserPropsDataset1 = profileSetUserPropsDataset
+        String first = "first.";
+        String firstEventName = USER_FIRST_EVENT_NAME;
+        Column isFirstTouch = col(firstEventName).isin(
+                EVENT_FIRST_OPEN,
+                EVENT_FIRST_VISIT,
+                EVENT_SESSION_START,
+                EVENT_SCREEN_VIEW);
+
+        // max_by and min_by skip the rows whose ordering is null, so ordering by the timestamp of the matching rows only
+        // gives the same latest and first values as aggregating the filtered rows, all in one shuffle
+        Dataset<Row> userAggDataset = userDataSet
                 .groupBy(Constant.APP_ID, Constant.USER_PSEUDO_ID)
                 .agg(
+                        max(Constant.USER_ID).alias(Constant.USER_ID),
+                        max(Constant.EVENT_TIMESTAMP).alias(Constant.EVENT_TIMESTAMP),
+                        first(Constant.PROCESS_INFO).alias(Constant.PROCESS_INFO),
                         max_by(struct(
                                 Constant.USER_PROPERTIES,
                                 Constant.USER_PROPERTIES_JSON_STR,
                                 latestEventName
-                        ), col(Constant.EVENT_TIMESTAMP)).alias("latest")
-                );
-
-        Dataset<Row> latestUserPropsDataset = latestUserPropsDataset1.select(
-                col(Constant.APP_ID).alias("app_id_1"),
-                col(Constant.USER_PSEUDO_ID).alias("user_pseudo_id_1"),
-                col(latest + Constant.USER_PROPERTIES).alias(Constant.USER_PROPERTIES),
-                col(latest + Constant.USER_PROPERTIES_JSON_STR).alias(Constant.USER_PROPERTIES_JSON_STR),
-                col(latest + latestEventName).alias(latestEventName)
-        );
-
-        log.info("aggUserDataset() latestUserPropsDataset count: {}, info: {}", latestUserPropsDataset.count(), info);
-        if (debugLocal && latestUserPropsDataset.count() > 0) {
-            log.info("{} - latestUserPropsDataset: {}", info, latestUserPropsDataset.first().prettyJson());
-        }
-
-        String first = "first.";
-        String firstEventName = USER_FIRST_EVENT_NAME;
-        Dataset<Row> userFirstDataSet = userDataSet.filter(
-                col(firstEventName).isin(
-                        EVENT_FIRST_OPEN,
-                        EVENT_FIRST_VISIT,
-                        EVENT_SESSION_START,
-                        EVENT_SCREEN_VIEW));
-        log.info("aggUserDataset() userFirstDataSet count: {}, info: {}", userFirstDataSet.count(), info);
-
-        Dataset<Row> firstUserPropsDataset1 = userFirstDataSet
-                .groupBy(Constant.APP_ID, Constant.USER_PSEUDO_ID)
-                .agg(
+                        ), when(isProfileSet, col(Constant.EVENT_TIMESTAMP))).alias("latest"),
                         min_by(struct(
                                 firstEventName,
                                 Constant.FIRST_TOUCH_TIME_MSEC,
@@ -160,12 +129,16 @@ public class TransformerV3 extends BaseTransformerV3 {
                                 Constant.FIRST_TRAFFIC_CHANNEL_GROUP,
                                 Constant.FIRST_TRAFFIC_CATEGORY,
                                 Constant.FIRST_APP_INSTALL_SOURCE
-                        ), col(Constant.EVENT_TIMESTAMP)).alias("first"));
+                        ), when(isFirstTouch, col(Constant.EVENT_TIMESTAMP))).alias("first")
+                );
 
-        Dataset<Row> firstUserPropsDataset = firstUserPropsDataset1.select(
-                col(Constant.APP_ID).alias("app_id_2"),
-                col(Constant.USER_PSEUDO_ID).alias("user_pseudo_id_2"),
-                col(first + firstEventName).alias(firstEventName),
+        Dataset<Row> userFinalDataset = userAggDataset.select(
+                col(Constant.APP_ID),
+                col(Constant.USER_PSEUDO_ID),
+                col(Constant.EVENT_TIMESTAMP),
+                col(Constant.USER_ID),
+                col(latest + Constant.USER_PROPERTIES).alias(Constant.USER_PROPERTIES),
+                col(latest + Constant.USER_PROPERTIES_JSON_STR).alias(Constant.USER_PROPERTIES_JSON_STR),
                 col(first + Constant.FIRST_TOUCH_TIME_MSEC).alias(Constant.FIRST_TOUCH_TIME_MSEC),
                 col(first + Constant.FIRST_VISIT_DATE).alias(Constant.FIRST_VISIT_DATE),
                 col(first + Constant.FIRST_REFERRER).alias(Constant.FIRST_REFERRER),
@@ -179,68 +152,24 @@ public class TransformerV3 extends BaseTransformerV3 {
                 col(first + Constant.FIRST_TRAFFIC_CLID).alias(Constant.FIRST_TRAFFIC_CLID),
                 col(first + Constant.FIRST_TRAFFIC_CHANNEL_GROUP).alias(Constant.FIRST_TRAFFIC_CHANNEL_GROUP),
                 col(first + Constant.FIRST_TRAFFIC_CATEGORY).alias(Constant.FIRST_TRAFFIC_CATEGORY),
-                col(first + Constant.FIRST_APP_INSTALL_SOURCE).alias(Constant.FIRST_APP_INSTALL_SOURCE)
+                col(first + Constant.FIRST_APP_INSTALL_SOURCE).alias(Constant.FIRST_APP_INSTALL_SOURCE),
+                col(latest + latestEventName).alias(latestEventName),
+                col(first + firstEventName).alias(firstEventName),
+                mapConcatSafe(
+                        col(Constant.PROCESS_INFO),
+                        map(
+                                lit(latestEventName), col(latest + latestEventName),
+                                lit(firstEventName), col(first + firstEventName)
+                        )).alias(Constant.PROCESS_INFO)
         );
 
-        log.info("aggUserDataset() firstUserPropsDataset count: {}, info: {}", firstUserPropsDataset.count(), info);
-        if (debugLocal && firstUserPropsDataset.count() > 0) {
-            log.info("{} - firstUserPropsDataset: {}", info, firstUserPropsDataset.first().prettyJson());
-        }
-        Dataset<Row> userFinalDataset = joinUserDatasets(userIdDataset, latestUserPropsDataset, firstUserPropsDataset, latestEventName, firstEventName);
-
-        log.info("aggUserDataset() return count: {}, info: {}", userFinalDataset.count(), info);
+        userFinalDataset = ETLMetric.observe(userFinalDataset, "aggUserDataset() return, info: " + info);
         if (debugLocal && userFinalDataset.count() > 0) {
             log.info("{} - userFinalDataset: {}", info, userFinalDataset.first().prettyJson());
         }
         return userFinalDataset;
     }
 
-    private static Dataset<Row> joinUserDatasets(final Dataset<Row> userIdDataset,
-                                                 final Dataset<Row> latestUserPropsDataset,
-                                                 final Dataset<Row> firstUserPropsDataset,
-                                                 final String latestEventName, final String firstEventName) {
-        Column joinCondition1 = col(Constant.APP_ID).equalTo(col("app_id_1"))
-                .and(col(Constant.USER_PSEUDO_ID).equalTo(col("user_pseudo_id_1")));
-
-        Column joinCondition2 = col(Constant.APP_ID).equalTo(col("app_id_2"))
-                .and(col(Constant.USER_PSEUDO_ID).equalTo(col("user_pseudo_id_2")));
-
-        Dataset<Row> userFinalDatasetJoined = userIdDataset
-                .join(latestUserPropsDataset, joinCondition1, "left")
-                .join(firstUserPropsDataset, joinCondition2, "left");
-
-        return userFinalDatasetJoined.select(
-                col(Constant.APP_ID),
-                col(Constant.USER_PSEUDO_ID),
-                col(Constant.EVENT_TIMESTAMP),
-                col(Constant.USER_ID),
-                col(Constant.USER_PROPERTIES),
-                col(Constant.USER_PROPERTIES_JSON_STR),
-                col(Constant.FIRST_TOUCH_TIME_MSEC),
-                col(Constant.FIRST_VISIT_DATE),
-                col(Constant.FIRST_REFERRER),
-                col(Constant.FIRST_TRAFFIC_SOURCE),
-                col(Constant.FIRST_TRAFFIC_MEDIUM),
-                col(Constant.FIRST_TRAFFIC_CAMPAIGN),
-                col(Constant.FIRST_TRAFFIC_CONTENT),
-                col(Constant.FIRST_TRAFFIC_TERM),
-                col(Constant.FIRST_TRAFFIC_CAMPAIGN_ID),
-                col(Constant.FIRST_TRAFFIC_CLID_PLATFORM),
-                col(Constant.FIRST_TRAFFIC_CLID),
-                col(Constant.FIRST_TRAFFIC_CHANNEL_GROUP),
-                col(Constant.FIRST_TRAFFIC_CATEGORY),
-                col(Constant.FIRST_APP_INSTALL_SOURCE),
-                col(latestEventName),
-                col(firstEventName),
-                mapConcatSafe(
-                        col(Constant.PROCESS_INFO),
-                        map(
-                                lit(latestEventName), col(latestEventName),
-                                lit(firstEventName), col(firstEventName)
-                        )).alias(Constant.PROCESS_INFO)
-        );
-    }
-
     @Override
     public void config(final TransformConfig transformConfig) {
         this.transformConfig = transformConfig;
@@ -279,18 +208,25 @@ public class TransformerV3 extends BaseTransformerV3 {
         log.info("tableName: {}", tableName);
         log.info("pathInfo - incremental: " + pathInfo.getIncremental() + ", full: " + pathInfo.getFull());
 
-        // save new (append)
-        String path = saveIncrementalDatasetToPath(pathInfo.getIncremental(), newUserAggDataset);
+        Dataset<Row> fullUserAggDataset;
+        if (ContextUtil.isBucketedStateStoreEnabled()) {
+            // merge new into the touched buckets of the state store
+            fullUserAggDataset = BucketedStateStore.merge(newUserAggDataset, pathInfo.getState(), Constant.USER_PSEUDO_ID,
+                    ContextUtil.getUserKeepDays(), dataset -> aggUserDataset(dataset, "stateUserAggDataset"));
+        } else {
+            // save new (append)
+            String path = saveIncrementalDatasetToPath(pathInfo.getIncremental(), newUserAggDataset);
 
-        // read back full from incremental path
-        Dataset<Row> fullUserDataset = readDatasetFromPath(eventDataset.sparkSession(), path, ContextUtil.getUserKeepDays());
-        log.info("fullUserDataset count: {}", +fullUserDataset.count());
+            // read back full from incremental path
+            Dataset<Row> fullUserDataset = readDatasetFromPath(eventDataset.sparkSession(), path, ContextUtil.getUserKeepDays());
+            log.info("fullUserDataset count: {}", +fullUserDataset.count());
 
-        // agg full
-        Dataset<Row> fullUserAggDataset = aggUserDataset(fullUserDataset, "fullUserAggDataset");
+            // agg full
+            fullUserAggDataset = aggUserDataset(fullUserDataset, "fullUserAggDataset");
 
-        // save full(overwrite) to full path
-        saveFullDatasetToPath(pathInfo.getFull(), fullUserAggDataset);
+            // save full(overwrite) to full path
+            saveFullDatasetToPath(pathInfo.getFull(), fullUserAggDataset);
+        }
 
         // get new updated
         Dataset<Row> newUserIdDataset = newUserAggDataset.select(Constant.APP_ID, Constant.USER_PSEUDO_ID);
@@ -275,10 +275,10 @@ public class GTMServerDataTransformer {
                 TABLE_NAME_ETL_GTM_USER_VISIT, TABLE_VERSION_SUFFIX_V1, userKeepDays
         ));
         l.add(new DatasetUtil.TableInfo(
-                TableName.USER.getTableName(), TABLE_VERSION_SUFFIX_V1, userKeepDays
+                TableName.USER.getTableName(), TABLE_VERSION_SUFFIX_V1, userKeepDays, true
         ));
         l.add(new DatasetUtil.TableInfo(
-                TableName.ITEM.getTableName(), TABLE_VERSION_SUFFIX_V1, itemKeepDays
+                TableName.ITEM.getTableName(), TABLE_VERSION_SUFFIX_V1, itemKeepDays, true
         ));
 
         DatasetUtil.mergeIncrementalTables(sparkSession, l);
@@ -325,17 +325,15 @@ public class GTMServerDataTransformer {
 
         Dataset<Row> userFirstVisitDataset = getUserFirstVisitDataset(dataset1);
 
-        Dataset<Row> eventDataset = extractEvent(dataset1);
-        log.info(new ETLMetric(eventDataset, "eventDataset").toString());
+        Dataset<Row> eventDataset = ETLMetric.observe(extractEvent(dataset1), "eventDataset");
 
-        Dataset<Row> eventParameterDataset = extractEventParameter(dataset1);
-        log.info(new ETLMetric(eventParameterDataset, "eventParameterDataset").toString());
+        Dataset<Row> eventParameterDataset = ETLMetric.observe(extractEventParameter(dataset1), "eventParameterDataset");
 
         Optional<Dataset<Row>> itemDataset = extractItem(dataset1);
-        itemDataset.ifPresent(rowDataset -> log.info(new ETLMetric(rowDataset, "itemDataset").toString()));
+        itemDataset = itemDataset.map(rowDataset -> ETLMetric.observe(rowDataset, "itemDataset"));
 
         Optional<Dataset<Row>> userDataset = extractUser(dataset1, userFirstVisitDataset);
-        userDataset.ifPresent(rowDataset -> log.info(new ETLMetric(rowDataset, "userDataset").toString()));
+        userDataset = userDataset.map(rowDataset -> ETLMetric.observe(rowDataset, "userDataset"));
 
         return Arrays.asList(
                 eventDataset,
@@ -383,7 +381,7 @@ public class GTMServerDataTransformer {
             return Optional.empty();
         }
 
-        Dataset<Row> fullAggUserDataset = loadFullUserDataset(newProfileSetUserDataset, pathInfo);
+        Dataset<Row> fullAggUserDataset = loadFullUserDataset(newProfileSetUserDataset, newUserDataset.select(APP_ID, USER_PSEUDO_ID), pathInfo);
 
         Column userPseudoIdCol = newUserDataset.col(USER_PSEUDO_ID);
         Column appIdCol = newUserDataset.col(APP_ID);
@@ -21,6 +21,7 @@ import org.apache.spark.sql.types.DataTypes;
 import software.aws.solution.clickstream.common.Constant;
 import software.aws.solution.clickstream.udfconverter.DatasetConverter;
 import software.aws.solution.clickstream.model.ModelV2;
+import software.aws.solution.clickstream.util.BucketedStateStore;
 import software.aws.solution.clickstream.util.ContextUtil;
 import software.aws.solution.clickstream.util.DatasetUtil;
 import software.aws.solution.clickstream.util.TableName;
@@ -231,18 +232,25 @@ public abstract class BaseThirdPartyTransformer extends BaseTransformerV3 {
         log.info("tableName: {}", tableName);
         log.info("pathInfo - incremental: " + pathInfo.getIncremental() + ", full: " + pathInfo.getFull());
 
-        // save new (append)
-        String path = saveIncrementalDatasetToPath(pathInfo.getIncremental(), newUserAggDataset);
+        Dataset<Row> fullUserAggDataset;
+        if (ContextUtil.isBucketedStateStoreEnabled()) {
+            // merge new into the touched buckets of the state store
+            fullUserAggDataset = BucketedStateStore.merge(newUserAggDataset, pathInfo.getState(), Constant.USER_PSEUDO_ID,
+                    ContextUtil.getUserKeepDays(), dataset -> aggUserDataset(dataset, "stateUserAggDataset"));
+        } else {
+            // save new (append)
+            String path = saveIncrementalDatasetToPath(pathInfo.getIncremental(), newUserAggDataset);
 
-        // read back full from incremental path
-        Dataset<Row> fullUserDataset = readDatasetFromPath(eventDataset.sparkSession(), path, ContextUtil.getUserKeepDays());
-        log.info("fullUserDataset count: {}", +fullUserDataset.count());
+            // read back full from incremental path
+            Dataset<Row> fullUserDataset = readDatasetFromPath(eventDataset.sparkSession(), path, ContextUtil.getUserKeepDays());
+            log.info("fullUserDataset count: {}", +fullUserDataset.count());
 
-        // agg full
-        Dataset<Row> fullUserAggDataset = aggUserDataset(fullUserDataset, "fullUserAggDataset");
+            // agg full
+            fullUserAggDataset = aggUserDataset(fullUserDataset, "fullUserAggDataset");
 
-        // save full(overwrite) to full path
-        saveFullDatasetToPath(pathInfo.getFull(), fullUserAggDataset);
+            // save full(overwrite) to full path
+            saveFullDatasetToPath(pathInfo.getFull(), fullUserAggDataset);
+        }
 
         // get new updated
         Dataset<Row> newUserIdDataset = newUserAggDataset.select(Constant.APP_ID, Constant.USER_PSEUDO_ID);
@@ -19,10 +19,14 @@ import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
 import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.storage.StorageLevel;
+import scala.collection.immutable.Seq;
+import scala.jdk.javaapi.CollectionConverters;
 import software.aws.solution.clickstream.TransformerInterfaceV3;
 import software.aws.solution.clickstream.common.Constant;
 import software.aws.solution.clickstream.udfconverter.DatasetConverter;
 import software.aws.solution.clickstream.model.ModelV2;
+import software.aws.solution.clickstream.util.BucketedStateStore;
 import software.aws.solution.clickstream.util.ContextUtil;
 import software.aws.solution.clickstream.util.DatasetUtil;
 import software.aws.solution.clickstream.util.ETLMetric;
@@ -42,6 +46,7 @@ import static org.apache.spark.sql.functions.expr;
 import static org.apache.spark.sql.functions.lit;
 import static org.apache.spark.sql.functions.map;
 import static org.apache.spark.sql.functions.map_concat;
+import static org.apache.spark.sql.functions.max;
 import static org.apache.spark.sql.functions.min_by;
 import static org.apache.spark.sql.functions.struct;
 import static org.apache.spark.sql.functions.when;
@@ -106,7 +111,7 @@ public abstract class BaseTransformerV3 implements TransformerInterfaceV3 {
     public Map<TableName, Dataset<Row>> transform(final Dataset<Row> dataset) {
         Dataset<Row> cleanedDataset = getCleanedDataset(dataset);
         ContextUtil.cacheDataset(cleanedDataset);
-        log.info(new ETLMetric(cleanedDataset, "after clean").toString());
+        cleanedDataset = ETLMetric.observe(cleanedDataset, "after clean");
 
         log.debug(cleanedDataset.schema().prettyJson());
 
@@ -179,54 +184,71 @@ public abstract class BaseTransformerV3 implements TransformerInterfaceV3 {
                                         EVENT_APP_END)
                 );
 
-        sessionEventDataset.cache();
-        log.info("sessionEventDataset count: {}", sessionEventDataset.count());
-
-        Dataset<Row> sessionDatasetNonDirectAgg = getAggSessionDataset(
-                sessionEventDataset.filter(
-                        col(Constant.SESSION_SOURCE).isNotNull()
-                        .and(col(Constant.SESSION_SOURCE).notEqual(DIRECT))
-                )
-        );
-        Dataset<Row> sessionDatasetDirect = sessionEventDataset.join(sessionDatasetNonDirectAgg,
-                new String[]{Constant.APP_ID, Constant.USER_PSEUDO_ID, Constant.SESSION_ID},
-                "leftanti");
-
-
-        Dataset<Row> sessionDatasetDirectAgg = getAggSessionDataset(sessionDatasetDirect);
-
-        Dataset<Row> sessionDatasetAgg = sessionDatasetNonDirectAgg.union(sessionDatasetDirectAgg);
-
-        log.info("sessionDatasetAgg count: {}", sessionDatasetAgg.count());
+        Dataset<Row> sessionDatasetAgg = ETLMetric.observe(getAggSessionDataset(sessionEventDataset), "sessionDatasetAgg");
+        if (ContextUtil.isSessionStateStoreEnabled()) {
+            sessionDatasetAgg = mergeSessionState(sessionDatasetAgg);
+        }
         return addProcessInfo(runMaxLengthTransformerForSession(sessionDatasetAgg));
     }
 
-    private static Dataset<Row> getAggSessionDataset(final Dataset<Row> sessionDataset) {
-        Dataset<Row> sessionDatasetAgg = sessionDataset
+    /**
+     * Merge the sessions of this run into the session state and return them with the values of the whole session,
+     * a session that spans runs keeps the values of its first non-direct or first event instead of those of the events in this run.
+     * Only the state buckets of the users in this run are read and rewritten, sessions older than the keep days are expired,
+     * the late events of an expired session are emitted as a session of their own, as they are without the state.
+     */
+    private Dataset<Row> mergeSessionState(final Dataset<Row> sessionAggDataset) {
+        // the sessions of the run are read by the bucket collect and the state write of the merge and by both joins below,
+        // they are kept like the converted dataset so the events are aggregated once
+        Dataset<Row> sessionDataset = sessionAggDataset.persist(StorageLevel.MEMORY_AND_DISK());
+        DatasetUtil.PathInfo pathInfo = DatasetUtil.addSchemaToMap(sessionDataset, getSessionTableName(), TABLE_VERSION_SUFFIX_V3);
+        log.info("session state path: " + pathInfo.getState());
+        Dataset<Row> mergedDataset = BucketedStateStore.merge(sessionDataset, pathInfo.getState(), Constant.USER_PSEUDO_ID,
+                ContextUtil.getSessionStateKeepDays(), BaseTransformerV3::getAggSessionDataset);
+
+        // the touched buckets also hold the sessions of the users not in this run
+        List<String> keys = Arrays.asList(Constant.APP_ID, Constant.USER_PSEUDO_ID, Constant.SESSION_ID);
+        Seq<String> sessionKeys = CollectionConverters.asScala(keys).toSeq();
+        Dataset<Row> updatedDataset = mergedDataset.join(sessionDataset.select(toColumnArray(keys)), sessionKeys, "leftsemi");
+        Dataset<Row> expiredDataset = sessionDataset.join(updatedDataset.select(toColumnArray(keys)), sessionKeys, "leftanti");
+        return updatedDataset.unionByName(expiredDataset);
+    }
+
+    /**
+     * Aggregate the session events in one pass, a session takes the values of its first event with a non-direct source,
+     * or of its first event when all of its events are direct.
+     */
+    private static Dataset<Row> getAggSessionDataset(final Dataset<Row> sessionEventDataset) {
+        Column isNonDirect = col(Constant.SESSION_SOURCE).isNotNull()
+                .and(col(Constant.SESSION_SOURCE).notEqual(DIRECT));
+        Column sessionValues = struct(
+                col(Constant.EVENT_TIMESTAMP),
+                col(Constant.USER_ID),
+                col(Constant.SESSION_NUMBER),
+                col(Constant.SESSION_START_TIME_MSEC),
+                col(Constant.SESSION_SOURCE),
+                col(Constant.SESSION_MEDIUM),
+                col(Constant.SESSION_CAMPAIGN),
+                col(Constant.SESSION_CONTENT),
+                col(Constant.SESSION_TERM),
+                col(Constant.SESSION_CAMPAIGN_ID),
+                col(Constant.SESSION_CLID_PLATFORM),
+                col(Constant.SESSION_CLID),
+                col(Constant.SESSION_CHANNEL_GROUP),
+                col(Constant.SESSION_SOURCE_CATEGORY),
+                col(Constant.PROCESS_INFO)
+        );
+        // min_by skips the rows whose ordering is null, so the non-direct values are ordered by the timestamp of the non-direct events only
+        Dataset<Row> sessionDatasetAgg = sessionEventDataset
                 .groupBy(Constant.APP_ID, Constant.USER_PSEUDO_ID, Constant.SESSION_ID)
                 .agg(
-                        min_by(
-                                struct(
-                                        col(Constant.EVENT_TIMESTAMP),
-                                        col(Constant.USER_ID),
-                                        col(Constant.SESSION_NUMBER),
-                                        col(Constant.SESSION_START_TIME_MSEC),
-                                        col(Constant.SESSION_SOURCE),
-                                        col(Constant.SESSION_MEDIUM),
-                                        col(Constant.SESSION_CAMPAIGN),
-                                        col(Constant.SESSION_CONTENT),
-                                        col(Constant.SESSION_TERM),
-                                        col(Constant.SESSION_CAMPAIGN_ID),
-                                        col(Constant.SESSION_CLID_PLATFORM),
-                                        col(Constant.SESSION_CLID),
-                                        col(Constant.SESSION_CHANNEL_GROUP),
-                                        col(Constant.SESSION_SOURCE_CATEGORY),
-                                        col(Constant.PROCESS_INFO)
-                                ),
-                                col(Constant.EVENT_TIMESTAMP)
-                        ).alias("t")
+                        max(isNonDirect).alias("has_non_direct"),
+                        min_by(sessionValues, when(isNonDirect, col(Constant.EVENT_TIMESTAMP))).alias("non_direct"),
+                        min_by(sessionValues, col(Constant.EVENT_TIMESTAMP)).alias("direct")
                 );
-        return sessionDatasetAgg.select(col(Constant.APP_ID), col(Constant.USER_PSEUDO_ID), col(Constant.SESSION_ID), expr("t.*"));
+        return sessionDatasetAgg
+                .withColumn("t", when(col("has_non_direct"), col("non_direct")).otherwise(col("direct")))
+                .select(col(Constant.APP_ID), col(Constant.USER_PSEUDO_ID), col(Constant.SESSION_ID), expr("t.*"));
     }
 
 
@@ -238,6 +260,10 @@ public abstract class BaseTransformerV3 implements TransformerInterfaceV3 {
 
     public abstract DatasetConverter getDatasetTransformer();
 
+    public String getSessionTableName() {
+        return ("etl_" + this.getName() + "_session").toLowerCase();
+    }
+
     public String getUserPropsTableName() {
         return ("etl_" + this.getName() + "_user_props").toLowerCase();
     }
@@ -256,7 +282,7 @@ public abstract class BaseTransformerV3 implements TransformerInterfaceV3 {
         List<DatasetUtil.TableInfo> l = new ArrayList<>();
 
         l.add(new DatasetUtil.TableInfo(
-                getUserPropsTableName(), TABLE_VERSION_SUFFIX_V3, userKeepDays
+                getUserPropsTableName(), TABLE_VERSION_SUFFIX_V3, userKeepDays, true
         ));
 
         DatasetUtil.mergeIncrementalTables(sparkSession, l);
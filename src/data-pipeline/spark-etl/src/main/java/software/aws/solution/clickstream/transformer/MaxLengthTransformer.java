@@ -17,22 +17,27 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SaveMode;
-import org.apache.spark.sql.api.java.UDF2;
-import org.apache.spark.sql.catalyst.expressions.GenericRow;
-import org.apache.spark.sql.expressions.UserDefinedFunction;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.catalyst.expressions.Expression;
+import org.apache.spark.sql.catalyst.expressions.objects.StaticInvoke;
+import org.apache.spark.sql.types.AbstractDataType;
 import org.apache.spark.sql.types.DataTypes;
-import org.apache.spark.sql.types.StructField;
+import org.apache.spark.unsafe.Platform;
+import org.apache.spark.unsafe.types.UTF8String;
+import scala.jdk.javaapi.CollectionConverters;
 import software.aws.solution.clickstream.util.*;
 
-import java.nio.charset.StandardCharsets;
-
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import static org.apache.spark.sql.functions.coalesce;
 import static org.apache.spark.sql.functions.col;
 import static org.apache.spark.sql.functions.expr;
 import static org.apache.spark.sql.functions.lit;
-import static org.apache.spark.sql.functions.udf;
+import static org.apache.spark.sql.functions.octet_length;
 import static software.aws.solution.clickstream.util.ContextUtil.WAREHOUSE_DIR_PROP;
 import static software.aws.solution.clickstream.util.ContextUtil.getJobName;
 import static software.aws.solution.clickstream.util.DatasetUtil.APP_ID;
@@ -61,47 +66,85 @@ import static software.aws.solution.clickstream.util.DatasetUtil.USER_PSEUDO_ID;
 @Slf4j
 public class MaxLengthTransformer {
 
-     static UDF2<String, Integer, Row> truncateWithMaxByteLength() {
-        return (value, maxByteLen) -> {
-            if (value != null && value.getBytes(StandardCharsets.UTF_8).length > maxByteLen) {
-                return new GenericRow(new Object[]{checkStringValueLength(value, maxByteLen), Boolean.TRUE});
-            } else {
-                return new GenericRow(new Object[]{value, Boolean.FALSE});
-            }
-        };
-    }
-
+    /**
+     * Truncate a string to at most maxByteLen UTF-8 bytes without splitting a code point, in one pass over the value.
+     */
     public static String checkStringValueLength(final String sValue, final int len) {
         if (sValue == null) {
             return null;
         }
-        String reString = sValue;
-        if (reString.length() > len) {
-            reString = reString.substring(0, len);
+        int byteLen = 0;
+        int index = 0;
+        while (index < sValue.length()) {
+            int codePoint = sValue.codePointAt(index);
+            int codePointByteLen = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (byteLen + codePointByteLen > len) {
+                return sValue.substring(0, index);
+            }
+            byteLen += codePointByteLen;
+            index += Character.charCount(codePoint);
+        }
+        return sValue;
+    }
+
+    /**
+     * Same as {@link #checkStringValueLength(String, int)} on Spark's UTF-8 bytes, called from the generated code of
+     * {@link #truncateColumns(Dataset, Map)}. The cut is moved back over the continuation bytes of the code point it falls into.
+     */
+    public static UTF8String truncateUtf8(final UTF8String value, final int maxByteLen) {
+        if (value.numBytes() <= maxByteLen) {
+            return value;
         }
-        while (reString.getBytes(StandardCharsets.UTF_8).length > len) {
-            reString = reString.substring(0, reString.length() - 1);
+        Object base = value.getBaseObject();
+        long offset = value.getBaseOffset();
+        int end = Math.max(maxByteLen, 0);
+        while (end > 0 && (Platform.getByte(base, offset + end) & 0xC0) == 0x80) {
+            end--;
         }
-        return reString;
+        byte[] bytes = new byte[end];
+        Platform.copyMemory(base, offset, bytes, Platform.BYTE_ARRAY_OFFSET, end);
+        return UTF8String.fromBytes(bytes);
     }
 
-    public Dataset<Row> transform(final Dataset<Row> dataset, final List<String> colNameList, final int maxLength) {
+    /**
+     * Truncate the columns to their max byte length in one projection, the truncated flag of each column
+     * is added as column name + {@value DatasetUtil#TRUNCATED}. The number of truncated values per column is observed
+     * and reported with the lazy stage metrics, no job is run to count them.
+     */
+    public static Dataset<Row> truncateColumns(final Dataset<Row> dataset, final Map<String, Integer> maxByteLengths) {
+        Map<String, Column> truncatedFlags = new LinkedHashMap<>();
+        maxByteLengths.forEach((colName, maxLength) ->
+                truncatedFlags.put(colName + TRUNCATED, coalesce(octet_length(col(colName)).gt(maxLength), lit(false))));
 
-        UserDefinedFunction truncateWithMaxByteLengthUdf = udf(truncateWithMaxByteLength(), DataTypes.createStructType(
-                        new StructField[]{
-                                DataTypes.createStructField("value", DataTypes.StringType, true),
-                                DataTypes.createStructField(TRUNCATED, DataTypes.BooleanType, true),
-                        }
-                ));
-
-        Dataset<Row> datasetOut = dataset;
-        for (String colName : colNameList) {
-            datasetOut = datasetOut.withColumn(colName + "_new", truncateWithMaxByteLengthUdf.apply(col(colName), lit(maxLength)))
-                    .withColumn(colName + TRUNCATED, expr(colName + "_new." + TRUNCATED))
-                    .withColumn(colName, expr(colName + "_new.value"))
-                    .drop(colName + "_new");
+        List<Column> columns = new ArrayList<>();
+        for (String colName : dataset.columns()) {
+            if (maxByteLengths.containsKey(colName)) {
+                columns.add(truncateUtf8(col(colName), maxByteLengths.get(colName)).alias(colName));
+            } else if (truncatedFlags.containsKey(colName)) {
+                columns.add(truncatedFlags.remove(colName).alias(colName));
+            } else {
+                columns.add(col(colName));
+            }
         }
-        return datasetOut;
+        truncatedFlags.forEach((flagName, flag) -> columns.add(flag.alias(flagName)));
+
+        Map<String, Column> truncatedCounts = new LinkedHashMap<>();
+        maxByteLengths.keySet().forEach(colName -> truncatedCounts.put("truncated " + colName, col(colName + TRUNCATED)));
+        return ETLMetric.observeCountsIfLazy(dataset.select(columns.toArray(new Column[0])), truncatedCounts);
+    }
+
+    private static Column truncateUtf8(final Column value, final int maxByteLen) {
+        List<Expression> arguments = Arrays.asList(value.expr(), lit(maxByteLen).expr());
+        List<AbstractDataType> inputTypes = Arrays.asList(DataTypes.StringType, DataTypes.IntegerType);
+        return new Column(new StaticInvoke(MaxLengthTransformer.class, DataTypes.StringType, "truncateUtf8",
+                CollectionConverters.asScala(arguments).toList(), CollectionConverters.asScala(inputTypes).toList(),
+                true, true, true));
+    }
+
+    public Dataset<Row> transform(final Dataset<Row> dataset, final List<String> colNameList, final int maxLength) {
+        Map<String, Integer> maxByteLengths = new LinkedHashMap<>();
+        colNameList.forEach(colName -> maxByteLengths.put(colName, maxLength));
+        return truncateColumns(dataset, maxByteLengths);
     }
 
 
@@ -16,18 +16,13 @@ package software.aws.solution.clickstream.transformer;
 import lombok.*;
 import lombok.extern.slf4j.*;
 import org.apache.spark.sql.*;
-import org.apache.spark.sql.api.java.*;
-import org.apache.spark.sql.expressions.*;
-import org.apache.spark.sql.types.*;
 import software.aws.solution.clickstream.common.Constant;
 import software.aws.solution.clickstream.model.*;
 import software.aws.solution.clickstream.util.ContextUtil;
 
 import java.util.*;
 
-import static org.apache.spark.sql.functions.*;
 import static software.aws.solution.clickstream.util.ContextUtil.DISABLE_MAX_LENGTH_CHECK;
-import static software.aws.solution.clickstream.util.DatasetUtil.*;
 import static software.aws.solution.clickstream.model.ModelV2.toColumnArray;
 
 @Slf4j
@@ -37,10 +32,6 @@ public class MaxLengthTransformerV2 {
     private static final int MAX_STRING_VALUE_LEN_MAX = 65535;
     private static final int MAX_STRING_VALUE_LEN_2K = 2048;
 
-    private static UDF2<String, Integer, Row> truncateWithMaxByteLength() {
-      return MaxLengthTransformer.truncateWithMaxByteLength();
-    }
-
     public static Dataset<Row> runMaxLengthTransformerForItemV2(final Dataset<Row> newItemsDataset1) {
         List<ColumnsMaxLength> columnsMaxLengthList = new ArrayList<>();
         columnsMaxLengthList.add(
@@ -227,23 +218,14 @@ public class MaxLengthTransformerV2 {
             return dataset;
         }
 
-        UserDefinedFunction truncateWithMaxByteLengthUdf = udf(truncateWithMaxByteLength(), DataTypes.createStructType(
-                new StructField[]{
-                        DataTypes.createStructField("value", DataTypes.StringType, true),
-                        DataTypes.createStructField(TRUNCATED, DataTypes.BooleanType, true),
-                }
-        ));
-
-        Dataset<Row> datasetOut = dataset;
+        Map<String, Integer> maxByteLengths = new LinkedHashMap<>();
         for (ColumnsMaxLength columnsMaxLength : columnsMaxLengthList) {
             for (String colName : columnsMaxLength.columns) {
-                datasetOut = datasetOut.withColumn(colName + "_new", truncateWithMaxByteLengthUdf.apply(col(colName), lit(columnsMaxLength.maxLength)))
-                        .withColumn(colName + TRUNCATED, expr(colName + "_new." + TRUNCATED))
-                        .withColumn(colName, expr(colName + "_new.value"))
-                        .drop(colName + "_new");
+                // a column listed more than once keeps the smallest max length
+                maxByteLengths.merge(colName, columnsMaxLength.maxLength, Math::min);
             }
         }
-        return datasetOut;
+        return MaxLengthTransformer.truncateColumns(dataset, maxByteLengths);
     }
 
     @AllArgsConstructor
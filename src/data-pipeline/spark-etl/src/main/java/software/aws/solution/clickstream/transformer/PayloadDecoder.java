@@ -0,0 +1,148 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.transformer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.catalyst.expressions.Expression;
+import org.apache.spark.sql.catalyst.expressions.objects.StaticInvoke;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.catalyst.util.GenericArrayData;
+import org.apache.spark.sql.types.AbstractDataType;
+import org.apache.spark.sql.types.ArrayType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.types.UTF8String;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decodes the data column of the ingested requests into the raw JSON strings of its events.
+ * The decoding is a static call in the generated code of the stage, the values stay in Spark's internal
+ * representation, and the events are sliced from the decoded bytes without being parsed and written again.
+ */
+@Slf4j
+public final class PayloadDecoder {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int BUFFER_SIZE = 8192;
+    private static final UTF8String ARRAY_START = UTF8String.fromString("[");
+    private static final UTF8String ARRAY_END = UTF8String.fromString("]");
+
+    private PayloadDecoder() {
+    }
+
+    /**
+     * The events of the data column as array&lt;string&gt;. The data is a JSON array, raw or gzip compressed and base64 encoded.
+     * Data that cannot be decoded gives one error event, which is not valid JSON and ends up as a corrupt record,
+     * data that is not a JSON array gives null.
+     */
+    public static Column decodeEvents(final Column data) {
+        List<Expression> arguments = Collections.singletonList(data.expr());
+        List<AbstractDataType> inputTypes = Collections.singletonList(DataTypes.StringType);
+        return new Column(new StaticInvoke(PayloadDecoder.class, new ArrayType(DataTypes.StringType, true), "decode",
+                CollectionConverters.asScala(arguments).toList(), CollectionConverters.asScala(inputTypes).toList(),
+                false, true, true));
+    }
+
+    /**
+     * Called from the generated code of {@link #decodeEvents(Column)}.
+     */
+    public static ArrayData decode(final UTF8String data) {
+        if (data == null) {
+            return errorEvent("error: data is null");
+        }
+        byte[] jsonBytes;
+        // input data is not compress, is raw json array
+        UTF8String dataTrim = data.trimAll();
+        if (dataTrim.startsWith(ARRAY_START) && dataTrim.endsWith(ARRAY_END)) {
+            jsonBytes = dataTrim.getBytes();
+        } else {
+            try {
+                jsonBytes = decompress(Base64.getDecoder().decode(data.getBytes()));
+            } catch (Exception e) {
+                log.error("extractData error:" + e.getMessage());
+                return errorEvent("error: extractData error"
+                        + ", message: " + e.getMessage()
+                        + ", inputData: " + data);
+            }
+        }
+        return splitEvents(jsonBytes);
+    }
+
+    private static ArrayData errorEvent(final String error) {
+        return new GenericArrayData(new Object[]{UTF8String.fromString(error)});
+    }
+
+    private static byte[] decompress(final byte[] gzipData) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(gzipData.length * 4);
+        try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(gzipData), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = gis.read(buffer)) > 0) {
+                // line breaks are dropped as the line based decompression did, they cannot be part of a JSON value
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n' || buffer[i] == '\r') {
+                        out.write(buffer, start, i - start);
+                        start = i + 1;
+                    }
+                }
+                out.write(buffer, start, read - start);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Slice the elements of the JSON array, objects and arrays are kept as their raw text, scalars as their value.
+     */
+    private static ArrayData splitEvents(final byte[] jsonBytes) {
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonBytes)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return null;
+            }
+            List<UTF8String> events = new ArrayList<>();
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    return null;
+                }
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    int start = (int) parser.getTokenLocation().getByteOffset();
+                    parser.skipChildren();
+                    int end = (int) parser.getCurrentLocation().getByteOffset();
+                    events.add(UTF8String.fromBytes(jsonBytes, start, end - start));
+                } else if (token == JsonToken.VALUE_NULL) {
+                    events.add(null);
+                } else {
+                    events.add(UTF8String.fromString(parser.getText()));
+                }
+            }
+            return new GenericArrayData(events.toArray());
+        } catch (IOException e) {
+            log.warn("data is not a valid json array: " + e.getMessage());
+            return null;
+        }
+    }
+}
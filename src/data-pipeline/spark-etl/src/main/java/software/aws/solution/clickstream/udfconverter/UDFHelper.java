@@ -14,7 +14,6 @@
 package software.aws.solution.clickstream.udfconverter;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.sql.api.java.UDF10;
 import org.apache.spark.sql.catalyst.expressions.GenericRow;
@@ -34,7 +33,6 @@ import software.aws.solution.clickstream.transformer.TransformerNameEnum;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import static software.aws.solution.clickstream.common.Util.ERROR_LOG;
@@ -90,28 +88,15 @@ public final class UDFHelper {
     }
 
     public static List<GenericRow> getGenericRowList(final String rawDataString, final ExtraParams extraParams, final EventParser eventParser) throws JsonProcessingException {
-        JsonNode jsonNode = eventParser.getData(rawDataString);
-        List<GenericRow> rows = new ArrayList<>();
-        if (jsonNode == null) {
-            log.warn("Cannot parse data: " + rawDataString);
-            return rows;
-        }
-        int index = 0;
-        if (jsonNode.isArray()) {
-            for (Iterator<JsonNode> elementsIt = jsonNode.elements(); elementsIt.hasNext(); ) {
-                rows.add(getGenericRow(elementsIt.next().toString(), index, extraParams, eventParser));
-                index++;
-            }
-        } else {
-            rows.add(getGenericRow(jsonNode.toString(), index, extraParams, eventParser));
+        List<ParseDataResult> results = eventParser.parseRawData(rawDataString, extraParams);
+        List<GenericRow> rows = new ArrayList<>(results.size());
+        for (ParseDataResult result : results) {
+            rows.add(getGenericRow(result));
         }
         return rows;
-
     }
 
-    private static GenericRow getGenericRow(final String rawDataString, final int index, final ExtraParams extraParams, final EventParser eventParser) throws JsonProcessingException {
-        ParseDataResult result = eventParser.parseData(rawDataString, extraParams, index);
-
+    private static GenericRow getGenericRow(final ParseDataResult result) {
         List<GenericRow> eventRows = new ArrayList<>();
         for (ClickstreamEvent event : result.getClickstreamEventList()) {
             eventRows.add(toGenericRow(event));
@@ -0,0 +1,181 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import software.aws.solution.clickstream.exception.ExecuteTransformerException;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.concat_ws;
+import static org.apache.spark.sql.functions.lit;
+import static org.apache.spark.sql.functions.pmod;
+import static org.apache.spark.sql.functions.xxhash64;
+import static software.aws.solution.clickstream.common.Util.getStackTrace;
+import static software.aws.solution.clickstream.util.DatasetUtil.APP_ID;
+import static software.aws.solution.clickstream.util.DatasetUtil.COMPRESSION;
+import static software.aws.solution.clickstream.util.DatasetUtil.EVENT_TIMESTAMP;
+import static software.aws.solution.clickstream.util.DatasetUtil.SNAPPY;
+
+/**
+ * Keyed state of the user and item tables, one row per app and key, partitioned by app and a hash bucket of the key.
+ * A run reads and rewrites only the buckets that the incoming delta touches, the other buckets are left as they are,
+ * rows older than the keep days are dropped whenever their bucket is read or rewritten, a bucket left without rows is deleted.
+ * The bucket count must not change for an existing store, the rows in the old buckets would not be found.
+ */
+@Slf4j
+public final class BucketedStateStore {
+    public static final String STATE_BUCKET = "state_bucket";
+    public static final int DEFAULT_BUCKETS = 64;
+    private static final String BUCKET_SEPARATOR = "/";
+
+    private BucketedStateStore() {
+    }
+
+    public static int getBucketCount() {
+        return Integer.parseInt(System.getProperty(ContextUtil.STATE_STORE_BUCKETS_PROP, String.valueOf(DEFAULT_BUCKETS)));
+    }
+
+    /**
+     * Merge the delta into the store and return the merged rows of the touched buckets,
+     * which contain the latest state of every key in the delta.
+     *
+     * @param delta      new rows, with the same columns as the stored rows
+     * @param path       location of the store
+     * @param keyCol     key column, unique per app after aggregation
+     * @param keepDays   rows whose event timestamp is older than this are expired
+     * @param aggregator reduces the stored and new rows to one row per app and key
+     */
+    public static Dataset<Row> merge(final Dataset<Row> delta, final String path, final String keyCol, final int keepDays,
+                                     final UnaryOperator<Dataset<Row>> aggregator) {
+        return merge(delta, delta.select(col(APP_ID), col(keyCol)), path, keyCol, keepDays, aggregator);
+    }
+
+    /**
+     * Merge the delta into the store and return the rows of the buckets of the delta keys and of the lookup keys,
+     * which contain the latest state of every key in the delta and the stored state of every lookup key.
+     * Only the buckets of the delta are rewritten, the buckets of the lookup keys are only read.
+     *
+     * @param lookupKeys app id and key columns of the keys whose state the caller joins with, such as all the users of the run
+     */
+    public static Dataset<Row> merge(final Dataset<Row> delta, final Dataset<Row> lookupKeys, final String path, final String keyCol,
+                                     final int keepDays, final UnaryOperator<Dataset<Row>> aggregator) {
+        SparkSession spark = delta.sparkSession();
+        int buckets = getBucketCount();
+        StructType schema = withBucket(delta, keyCol, buckets).schema();
+        Column notExpired = notExpired(schema, keepDays);
+
+        List<String> touchedBuckets = collectBucketIds(withBucket(delta, keyCol, buckets));
+        Set<String> readBuckets = new TreeSet<>(touchedBuckets);
+        readBuckets.addAll(collectBucketIds(withBucket(lookupKeys, keyCol, buckets)));
+        log.info("merge state path=" + path + ", buckets=" + buckets + ", touchedBuckets=" + touchedBuckets.size()
+                + ", readBuckets=" + readBuckets.size() + ", keepDays=" + keepDays);
+        if (readBuckets.isEmpty()) {
+            return delta;
+        }
+
+        if (!touchedBuckets.isEmpty()) {
+            Dataset<Row> storedDataset = readBuckets(spark, path, schema, touchedBuckets).filter(notExpired).drop(STATE_BUCKET);
+            Dataset<Row> mergedDataset = withBucket(aggregator.apply(storedDataset.unionByName(delta)).filter(notExpired), keyCol, buckets);
+
+            // a bucket whose rows all expire has no partition in the merged dataset, the dynamic overwrite would leave its files as they are
+            Set<String> emptiedBuckets = new TreeSet<>(touchedBuckets);
+            emptiedBuckets.removeAll(collectBucketIds(mergedDataset));
+
+            // only the partitions present in the merged dataset are replaced
+            mergedDataset
+                    .repartition(col(APP_ID), col(STATE_BUCKET))
+                    .write()
+                    .partitionBy(APP_ID, STATE_BUCKET)
+                    .option("partitionOverwriteMode", "dynamic")
+                    .option(COMPRESSION, SNAPPY)
+                    .mode(SaveMode.Overwrite)
+                    .parquet(path);
+            deleteBuckets(spark, path, emptiedBuckets);
+        }
+
+        // read back the rewritten buckets, the merged dataset must not be evaluated again after its input files are replaced
+        return readBuckets(spark, path, schema, new ArrayList<>(readBuckets)).filter(notExpired).drop(STATE_BUCKET);
+    }
+
+    private static List<String> collectBucketIds(final Dataset<Row> dataset) {
+        return dataset.select(bucketId()).distinct()
+                .collectAsList().stream().map(row -> row.getString(0)).collect(Collectors.toList());
+    }
+
+    private static void deleteBuckets(final SparkSession spark, final String path, final Set<String> bucketIds) {
+        if (bucketIds.isEmpty()) {
+            return;
+        }
+        try {
+            FileSystem fs = new Path(path).getFileSystem(spark.sessionState().newHadoopConf());
+            for (String bucketId : bucketIds) {
+                int separator = bucketId.lastIndexOf(BUCKET_SEPARATOR);
+                Path bucketPath = new Path(path, APP_ID + "=" + bucketId.substring(0, separator) + "/" + STATE_BUCKET + "=" + bucketId.substring(separator + 1));
+                log.info("delete expired state bucket: " + bucketPath);
+                fs.delete(bucketPath, true);
+            }
+        } catch (IOException e) {
+            throw new ExecuteTransformerException(e);
+        }
+    }
+
+    private static Dataset<Row> withBucket(final Dataset<Row> dataset, final String keyCol, final int buckets) {
+        return dataset.withColumn(STATE_BUCKET, pmod(xxhash64(col(APP_ID), col(keyCol)), lit(buckets)).cast(DataTypes.IntegerType));
+    }
+
+    private static Column bucketId() {
+        return concat_ws(BUCKET_SEPARATOR, col(APP_ID), col(STATE_BUCKET).cast(DataTypes.StringType));
+    }
+
+    private static Column notExpired(final StructType schema, final int keepDays) {
+        long fromMillis = Instant.now().minusSeconds(keepDays * 24 * 3600L).toEpochMilli();
+        if (schema.apply(EVENT_TIMESTAMP).dataType() == DataTypes.LongType) {
+            return col(EVENT_TIMESTAMP).$greater$eq(fromMillis);
+        }
+        return col(EVENT_TIMESTAMP).$greater$eq(new Timestamp(fromMillis));
+    }
+
+    private static Dataset<Row> readBuckets(final SparkSession spark, final String path, final StructType schema, final List<String> bucketIds) {
+        try {
+            // the filter only refers to the partition columns, the files of the other buckets are not read
+            return spark.read().schema(schema).parquet(path).filter(bucketId().isin(bucketIds.toArray()));
+        } catch (Exception e) {
+            if (e.getMessage().toLowerCase().contains("path does not exist")) {
+                log.info("state path does not exist: " + path);
+                return spark.createDataFrame(new ArrayList<Row>(), schema);
+            }
+            log.error("readBuckets " + getStackTrace(e));
+            throw e;
+        }
+    }
+}
@@ -44,6 +44,15 @@ public final class ContextUtil {
     public static final String FILTER_BOT_BY_UA_PROP = "filter.bot.by.ua";
     public static final String DISABLE_TRAFFIC_SOURCE_ENRICHMENT = "disable.traffic.source.enrichment";
     public static final String DISABLE_MAX_LENGTH_CHECK = "disable.max.length.check";
+    public static final String LAZY_STAGE_METRICS = "lazy.stage.metrics";
+    public static final String BUCKETED_STATE_STORE = "bucketed.state.store";
+    public static final String STATE_STORE_BUCKETS_PROP = "state.store.buckets";
+    public static final String PROCESSED_FILE_LEDGER = "processed.file.ledger";
+    public static final String PROCESSED_FILE_LEDGER_KEEP_DAYS_PROP = "processed.file.ledger.keep.days";
+    public static final String CONCURRENT_TABLE_WRITES = "concurrent.table.writes";
+    public static final String SESSION_STATE_STORE = "session.state.store";
+    public static final String SESSION_STATE_KEEP_DAYS_PROP = "session.state.keep.days";
+    public static final int DEFAULT_SESSION_STATE_KEEP_DAYS = 2;
 
     private static Dataset<Row> datasetCached;
 
@@ -113,6 +122,21 @@ public final class ContextUtil {
     public static void setEnableEventTimeShift(final boolean enableEventTimeShift) {
         System.setProperty(ENABLE_EVENT_TIME_SHIFT_PROP, String.valueOf(enableEventTimeShift));
     }
+    public static boolean isBucketedStateStoreEnabled() {
+        return getEtlRunFlag().contains(BUCKETED_STATE_STORE);
+    }
+    public static boolean isProcessedFileLedgerEnabled() {
+        return getEtlRunFlag().contains(PROCESSED_FILE_LEDGER);
+    }
+    public static boolean isSessionStateStoreEnabled() {
+        return getEtlRunFlag().contains(SESSION_STATE_STORE);
+    }
+    public static int getSessionStateKeepDays() {
+        return Integer.parseInt(System.getProperty(SESSION_STATE_KEEP_DAYS_PROP, String.valueOf(DEFAULT_SESSION_STATE_KEEP_DAYS)));
+    }
+    public static boolean isConcurrentTableWritesEnabled() {
+        return getEtlRunFlag().contains(CONCURRENT_TABLE_WRITES);
+    }
     public static String getEtlRunFlag() {
         return System.getProperty(Constant.ETL_RUN_FLAG, "");
     }
@@ -91,6 +91,7 @@ public final class DatasetUtil {
     public static final String TABLE_ETL_USER_CHANNEL = "etl_user_channel";
     public static final String INCREMENTAL_SUFFIX = "_incremental";
     public static final String FULL_SUFFIX = "_full";
+    public static final String STATE_SUFFIX = "_state";
     public static final String DATA_SCHEMA_V2_FILE_PATH = System.getProperty("data.schema.file.path.v2", "/data_schema_v2.json");
     public static final String PROPERTIES = "properties";
     public static final String TRAFFIC_SOURCE_MEDIUM = "_traffic_source_medium";
@@ -200,12 +201,13 @@ public final class DatasetUtil {
     public static final String SESSION_START_TIMESTAMP = "_session_start_timestamp";
     public static final String TRUNCATED = "_truncated";
 
-    public static final String TABLE_REGEX = String.format("^(%s)|((%s|%s|(etl_[^/]+))(%s|%s)_v\\d+)$",
+    public static final String TABLE_REGEX = String.format("^(%s)|((%s|%s|(etl_[^/]+))(%s|%s|%s)_v\\d+)$",
             TABLE_NAME_ETL_MERGE_STATE,
             TableName.ITEM.getTableName(),
             TableName.USER.getTableName(),
             FULL_SUFFIX,
-            INCREMENTAL_SUFFIX);
+            INCREMENTAL_SUFFIX,
+            STATE_SUFFIX);
     private static final Map<String, StructType> SCHEMA_MAP = new HashMap<>();
     public static Map<String, StructType> getSchemaMap() {
         return SCHEMA_MAP;
@@ -270,13 +272,24 @@ public final class DatasetUtil {
                 .distinct();
     }
 
-    public static Dataset<Row> loadFullUserDataset(final Dataset<Row> newUserProfileMainDataset, final PathInfo pathInfo) {
+    /**
+     * Merge the profile set users into the full user state and return the state of the users in it.
+     *
+     * @param userKeys app id and user pseudo id of all the users that the caller joins with the returned state
+     */
+    public static Dataset<Row> loadFullUserDataset(final Dataset<Row> newUserProfileMainDataset, final Dataset<Row> userKeys, final PathInfo pathInfo) {
         SparkSession spark = newUserProfileMainDataset.sparkSession();
         log.info("newUserProfileMainDataset:" + newUserProfileMainDataset.count());
 
         Dataset<Row> newAggUserProfileMainDataset = getAggUserDataset(newUserProfileMainDataset);
         log.info("newAggUserProfileMainDataset count " + newAggUserProfileMainDataset.count());
 
+        if (ContextUtil.isBucketedStateStoreEnabled()) {
+            // the buckets of all the users are read, a user without a profile set in this run still finds its stored state
+            return BucketedStateStore.merge(newAggUserProfileMainDataset, userKeys, pathInfo.getState(), USER_PSEUDO_ID,
+                    ContextUtil.getUserKeepDays(), DatasetUtil::getAggUserDataset);
+        }
+
         String path = saveIncrementalDatasetToPath(pathInfo.getIncremental(), newAggUserProfileMainDataset);
         Dataset<Row> fullUsersDataset = readDatasetFromPath(spark, path, ContextUtil.getUserKeepDays());
         Dataset<Row> fullAggUserDataset = getAggUserDataset(fullUsersDataset);
@@ -292,6 +305,11 @@ public final class DatasetUtil {
         long newCount = newAggItemsDataset.count();
         log.info("newAggItemsDataset count  " + newCount);
 
+        if (ContextUtil.isBucketedStateStoreEnabled()) {
+            return BucketedStateStore.merge(newAggItemsDataset, pathInfo.getState(), ID,
+                    ContextUtil.getItemKeepDays(), DatasetUtil::getAggItemDataset);
+        }
+
         String path = saveIncrementalDatasetToPath(pathInfo.getIncremental(), newAggItemsDataset);
 
         Dataset<Row> fullItemsDataset = readDatasetFromPath(spark, path,
@@ -359,9 +377,10 @@ public final class DatasetUtil {
         StructType schema = newUserProfileMainDataset.schema().add(UPDATE_DATE, DataTypes.StringType, true);
         String pathFull = getPathForTable(tableName + FULL_SUFFIX + versionSuffix);
         String pathIncremental = getPathForTable(tableName + INCREMENTAL_SUFFIX + versionSuffix);
+        String pathState = getPathForTable(tableName + STATE_SUFFIX + versionSuffix);
         SCHEMA_MAP.put(pathFull, schema);
         SCHEMA_MAP.put(pathIncremental, schema);
-        return new PathInfo(pathFull, pathIncremental);
+        return new PathInfo(pathFull, pathIncremental, pathState);
     }
 
 
@@ -423,6 +442,10 @@ public final class DatasetUtil {
 
         tableInfoList.forEach(it -> {
             String tableName = it.getTableName();
+            if (it.isStateStoreBacked() && ContextUtil.isBucketedStateStoreEnabled()) {
+                log.info("skip merge table: " + tableName + ", it is kept in the bucketed state store");
+                return;
+            }
             int nDays = it.getKeptDays();
             log.info("start merge table: " + tableName);
             Dataset<Row> datasetFull = readDatasetFromPath(sparkSession, it.getFullPath(), nDays);
@@ -481,11 +504,21 @@ public final class DatasetUtil {
 
         private final String versionSuffix;
         private final int keptDays;
+        private final boolean stateStoreBacked;
 
         public TableInfo(final String tableName, final String versionSuffix, final int keptDays) {
+            this(tableName, versionSuffix, keptDays, false);
+        }
+
+        public TableInfo(final String tableName, final String versionSuffix, final int keptDays, final boolean stateStoreBacked) {
             this.tableName = tableName;
             this.keptDays = keptDays;
             this.versionSuffix = versionSuffix;
+            this.stateStoreBacked = stateStoreBacked;
+        }
+
+        public boolean isStateStoreBacked() {
+            return stateStoreBacked;
         }
 
         public String getTableName() {
@@ -512,10 +545,12 @@ public final class DatasetUtil {
     public static class PathInfo {
         private final String full;
         private final String incremental;
+        private final String state;
 
-        public PathInfo(final String full, final String incremental) {
+        public PathInfo(final String full, final String incremental, final String state) {
             this.full = full;
             this.incremental = incremental;
+            this.state = state;
         }
 
         public String getFull() {
@@ -525,6 +560,10 @@ public final class DatasetUtil {
         public String getIncremental() {
             return incremental;
         }
+
+        public String getState() {
+            return state;
+        }
     }
 
     public static boolean hasColumn(final Dataset<Row> datasetInput, final String inputFileName) {
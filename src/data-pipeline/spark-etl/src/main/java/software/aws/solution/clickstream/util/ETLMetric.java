@@ -13,26 +13,103 @@
 
 package software.aws.solution.clickstream.util;
 
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.spark.sql.functions.count;
+import static org.apache.spark.sql.functions.when;
+
+@Slf4j
 public class ETLMetric {
-    private final Long count;
+    private static volatile ETLMetricListener lazyListener;
+
+    @Getter
+    private final long count;
+    @Getter
+    private final long bytes;
+    @Getter
     private final String info;
 
     public ETLMetric(final Dataset<Row> dataset, final String info) {
-        this.info = info;
-        this.count  = dataset.count();
+        this(dataset.count(), info);
     }
 
     public ETLMetric(final long count, final String info) {
+        this(count, -1L, info);
+    }
+
+    public ETLMetric(final long count, final long bytes, final String info) {
         this.count = count;
+        this.bytes = bytes;
         this.info = info;
     }
 
+    /**
+     * Send the stage metrics to the given listener instead of counting each stage dataset, null restores exact counts.
+     */
+    public static void setLazyListener(final ETLMetricListener listener) {
+        lazyListener = listener;
+    }
+
+    /**
+     * Log the row count of an intermediate stage. The count is exact unless lazy stage metrics are enabled,
+     * then the returned dataset carries an observed metric that is reported after the results are written,
+     * so callers must continue with the returned dataset.
+     */
+    public static Dataset<Row> observe(final Dataset<Row> dataset, final String info) {
+        ETLMetricListener listener = lazyListener;
+        if (listener == null) {
+            log.info(new ETLMetric(dataset, info).toString());
+            return dataset;
+        }
+        return listener.observe(dataset, info);
+    }
+
+    /**
+     * Log how many rows of the dataset match each condition, keyed by the info to log. The counts are computed together
+     * in one aggregation unless lazy stage metrics are enabled, then they are observed like {@link #observe(Dataset, String)}.
+     */
+    public static Dataset<Row> observeCounts(final Dataset<Row> dataset, final Map<String, Column> conditions) {
+        if (conditions.isEmpty()) {
+            return dataset;
+        }
+        ETLMetricListener listener = lazyListener;
+        if (listener != null) {
+            return listener.observeCounts(dataset, conditions);
+        }
+        List<Column> counts = new ArrayList<>();
+        conditions.values().forEach(condition -> counts.add(count(when(condition, 1))));
+        Row row = dataset.agg(counts.get(0), counts.subList(1, counts.size()).toArray(new Column[0])).first();
+        int index = 0;
+        for (String info : conditions.keySet()) {
+            log.info(new ETLMetric(row.getLong(index++), info).toString());
+        }
+        return dataset;
+    }
+
+    /**
+     * Observe how many rows of the dataset match each condition when lazy stage metrics are enabled, the counts are reported
+     * with the metrics of the action that evaluates the dataset. Without the lazy listener the counts are not reported,
+     * this never runs a job of its own.
+     */
+    public static Dataset<Row> observeCountsIfLazy(final Dataset<Row> dataset, final Map<String, Column> conditions) {
+        ETLMetricListener listener = lazyListener;
+        if (listener == null || conditions.isEmpty()) {
+            return dataset;
+        }
+        return listener.observeCounts(dataset, conditions);
+    }
 
     @Override
     public String toString() {
-        return "[ETLMetric]" + this.info + " dataset count:" + this.count;
+        String metric = "[ETLMetric]" + this.info + " dataset count:" + this.count;
+        return this.bytes < 0 ? metric : metric + ", bytes:" + this.bytes;
     }
 }
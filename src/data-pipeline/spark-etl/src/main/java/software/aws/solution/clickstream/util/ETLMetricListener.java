@@ -0,0 +1,252 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.execution.CollectMetricsExec;
+import org.apache.spark.sql.execution.CommandResultExec;
+import org.apache.spark.sql.execution.QueryExecution;
+import org.apache.spark.sql.execution.SparkPlan;
+import org.apache.spark.sql.execution.adaptive.AdaptiveSparkPlanExec;
+import org.apache.spark.sql.execution.adaptive.QueryStageExec;
+import org.apache.spark.sql.execution.columnar.InMemoryTableScanExec;
+import org.apache.spark.sql.execution.command.DataWritingCommandExec;
+import org.apache.spark.sql.execution.datasources.InsertIntoHadoopFsRelationCommand;
+import org.apache.spark.sql.execution.metric.SQLMetric;
+import org.apache.spark.sql.util.QueryExecutionListener;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.spark.sql.functions.count;
+import static org.apache.spark.sql.functions.lit;
+import static org.apache.spark.sql.functions.when;
+
+/**
+ * Collects stage row counts and written rows and bytes from the queries the job runs anyway.
+ * Stage datasets are tagged with observed metrics, the values are picked up from every executed plan,
+ * including the plans of cached datasets, and all of them are logged once the job has written its results.
+ */
+@Slf4j
+public final class ETLMetricListener implements QueryExecutionListener {
+    private static final String OBSERVATION_PREFIX = "etl_metric_";
+    private static final long LISTENER_BUS_WAIT_MILLIS = 60_000L;
+
+    private final SparkSession spark;
+    private final AtomicInteger observationSeq = new AtomicInteger();
+    private final Map<String, List<String>> countStages = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, String> stageInfos = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Long> stageCounts = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Set<String> observationNames = Collections.synchronizedSet(new HashSet<>());
+    private final Map<String, Row> observedMetrics = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, ETLMetric> writeMetrics = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Set<SparkPlan> collectedWrites = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private ETLMetricListener(final SparkSession spark) {
+        this.spark = spark;
+    }
+
+    public static ETLMetricListener start(final SparkSession spark) {
+        ETLMetricListener listener = new ETLMetricListener(spark);
+        spark.listenerManager().register(listener);
+        return listener;
+    }
+
+    /**
+     * Tag the dataset so that its row count is collected by whichever action evaluates it.
+     */
+    public Dataset<Row> observe(final Dataset<Row> dataset, final String info) {
+        String name = OBSERVATION_PREFIX + observationSeq.incrementAndGet();
+        stageInfos.put(name, info);
+        return dataset.observe(name, count(lit(1)).alias("count"));
+    }
+
+    /**
+     * Tag the dataset so that the number of rows matching each condition is collected by whichever action evaluates it,
+     * the counts are reported with the given infos.
+     */
+    public Dataset<Row> observeCounts(final Dataset<Row> dataset, final Map<String, Column> conditions) {
+        String name = OBSERVATION_PREFIX + observationSeq.incrementAndGet();
+        List<String> stages = new ArrayList<>();
+        List<Column> counts = new ArrayList<>();
+        conditions.forEach((info, condition) -> {
+            String stage = name + "_" + stages.size();
+            stageInfos.put(stage, info);
+            stages.add(stage);
+            counts.add(count(when(condition, 1)).alias("count_" + counts.size()));
+        });
+        countStages.put(name, stages);
+        return dataset.observe(name, counts.get(0), counts.subList(1, counts.size()).toArray(new Column[0]));
+    }
+
+    /**
+     * Tag the dataset with the row count followed by the given aggregates, they are collected by whichever action evaluates it
+     * and returned by {@link #getObservedMetrics(String)} in the same order.
+     */
+    public Dataset<Row> observe(final Dataset<Row> dataset, final String name, final Column... metrics) {
+        String observationName = OBSERVATION_PREFIX + name;
+        observationNames.add(observationName);
+        return dataset.observe(observationName, count(lit(1)).alias("count"), metrics);
+    }
+
+    /**
+     * Return the metrics observed by {@link #observe(Dataset, String, Column...)}, null when the dataset was not evaluated yet.
+     */
+    public Row getObservedMetrics(final String name) {
+        waitForListenerBus();
+        return observedMetrics.get(OBSERVATION_PREFIX + name);
+    }
+
+    /**
+     * Log the collected metrics in the same format as the eager ones and stop listening.
+     */
+    public void report() {
+        List<ETLMetric> metrics = getMetrics();
+        spark.listenerManager().unregister(this);
+        metrics.forEach(metric -> log.info(metric.toString()));
+    }
+
+    /**
+     * Stop listening without logging the collected metrics.
+     */
+    public void stop() {
+        spark.listenerManager().unregister(this);
+    }
+
+    /**
+     * Return the rows and bytes written to the output path by the queries seen so far, null when nothing was written there.
+     */
+    public ETLMetric getWriteMetric(final String outputPath) {
+        waitForListenerBus();
+        // the recorded paths are qualified, compare them without the file system scheme
+        String expectedPath = new Path(outputPath).toUri().getPath();
+        synchronized (writeMetrics) {
+            for (Map.Entry<String, ETLMetric> write : writeMetrics.entrySet()) {
+                if (new Path(write.getKey()).toUri().getPath().equals(expectedPath)) {
+                    return write.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the row counts of the evaluated stages followed by the rows and bytes written to each output path.
+     */
+    public List<ETLMetric> getMetrics() {
+        waitForListenerBus();
+        List<ETLMetric> metrics = new ArrayList<>();
+        synchronized (stageInfos) {
+            for (Map.Entry<String, String> stage : stageInfos.entrySet()) {
+                Long stageCount = stageCounts.get(stage.getKey());
+                if (stageCount == null) {
+                    log.info("stage '{}' was not evaluated", stage.getValue());
+                } else {
+                    metrics.add(new ETLMetric(stageCount, stage.getValue()));
+                }
+            }
+        }
+        synchronized (writeMetrics) {
+            metrics.addAll(writeMetrics.values());
+        }
+        return metrics;
+    }
+
+    private void waitForListenerBus() {
+        try {
+            // listener events are delivered asynchronously, wait for the last writes to be seen
+            spark.sparkContext().listenerBus().waitUntilEmpty(LISTENER_BUS_WAIT_MILLIS);
+        } catch (TimeoutException e) {
+            log.warn("Timed out waiting for the listener bus, some metrics may be missing");
+        }
+    }
+
+    @Override
+    public void onSuccess(final String funcName, final QueryExecution qe, final long durationNs) {
+        collect(qe.executedPlan(), Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    @Override
+    public void onFailure(final String funcName, final QueryExecution qe, final Exception exception) {
+        // metrics of failed queries are incomplete
+    }
+
+    private void collect(final SparkPlan plan, final Set<SparkPlan> visited) {
+        if (!visited.add(plan)) {
+            return;
+        }
+        if (plan instanceof CollectMetricsExec) {
+            CollectMetricsExec collector = (CollectMetricsExec) plan;
+            if (stageInfos.containsKey(collector.name())) {
+                // a partially evaluated or not yet evaluated plan reports a smaller count, keep the largest one
+                stageCounts.merge(collector.name(), collector.collectedMetrics().getLong(0), Math::max);
+            } else if (countStages.containsKey(collector.name())) {
+                List<String> stages = countStages.get(collector.name());
+                for (int i = 0; i < stages.size(); i++) {
+                    stageCounts.merge(stages.get(i), collector.collectedMetrics().getLong(i), Math::max);
+                }
+            } else if (observationNames.contains(collector.name())) {
+                observedMetrics.merge(collector.name(), collector.collectedMetrics(),
+                        (previous, current) -> current.getLong(0) > previous.getLong(0) ? current : previous);
+            }
+        } else if (plan instanceof DataWritingCommandExec) {
+            collectWriteMetrics((DataWritingCommandExec) plan);
+        } else if (plan instanceof CommandResultExec) {
+            collect(((CommandResultExec) plan).commandPhysicalPlan(), visited);
+        } else if (plan instanceof AdaptiveSparkPlanExec) {
+            collect(((AdaptiveSparkPlanExec) plan).executedPlan(), visited);
+        } else if (plan instanceof QueryStageExec) {
+            collect(((QueryStageExec) plan).plan(), visited);
+        } else if (plan instanceof InMemoryTableScanExec) {
+            collect(((InMemoryTableScanExec) plan).relation().cachedPlan(), visited);
+        }
+        for (SparkPlan child : CollectionConverters.asJava(plan.children())) {
+            collect(child, visited);
+        }
+        for (SparkPlan subquery : CollectionConverters.asJava(plan.subqueries())) {
+            collect(subquery, visited);
+        }
+    }
+
+    private void collectWriteMetrics(final DataWritingCommandExec writeExec) {
+        // the same write command may be reached from more than one query execution
+        if (!(writeExec.cmd() instanceof InsertIntoHadoopFsRelationCommand) || !collectedWrites.add(writeExec)) {
+            return;
+        }
+        String outputPath = ((InsertIntoHadoopFsRelationCommand) writeExec.cmd()).outputPath().toString();
+        Map<String, SQLMetric> metrics = CollectionConverters.asJava(writeExec.metrics());
+        long rows = metrics.containsKey("numOutputRows") ? metrics.get("numOutputRows").value() : 0L;
+        long bytes = metrics.containsKey("numOutputBytes") ? metrics.get("numOutputBytes").value() : 0L;
+        ETLMetric previous = writeMetrics.get(outputPath);
+        if (previous != null) {
+            rows += previous.getCount();
+            bytes += previous.getBytes();
+        }
+        writeMetrics.put(outputPath, new ETLMetric(rows, bytes, "written " + outputPath));
+    }
+}
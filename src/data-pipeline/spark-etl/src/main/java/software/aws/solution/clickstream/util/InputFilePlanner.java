@@ -0,0 +1,179 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.execution.datasources.FileStatusCache;
+import org.apache.spark.sql.execution.datasources.HadoopFsRelation;
+import org.apache.spark.sql.execution.datasources.InMemoryFileIndex;
+import org.apache.spark.sql.execution.datasources.json.JsonFileFormat;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import scala.Option;
+import scala.jdk.javaapi.CollectionConverters;
+import software.aws.solution.clickstream.exception.ExecuteTransformerException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.spark.sql.functions.col;
+
+/**
+ * Plans the input files of a run once from the file system metadata and reads them in a single scan.
+ * The directories of the time window are listed recursively one time each, the files are filtered by modification time,
+ * and the scan is built from the listed file statuses, so Spark neither lists nor checks the files again.
+ */
+@Slf4j
+public final class InputFilePlanner {
+    private final SparkSession spark;
+    private final String basePath;
+    private final List<FileStatus> files = new ArrayList<>();
+    private long totalBytes;
+    private long excludedCount;
+
+    private InputFilePlanner(final SparkSession spark, final String basePath) {
+        this.spark = spark;
+        this.basePath = basePath;
+    }
+
+    /**
+     * List the files under the directories that were modified in the range (modifiedAfterMillis, modifiedBeforeMillis),
+     * the same range as the modifiedAfter and modifiedBefore options of the file sources.
+     * Missing directories are skipped, hidden files and directories are ignored like Spark does.
+     */
+    public static InputFilePlanner plan(final SparkSession spark, final String basePath, final List<String> directories,
+                                        final long modifiedAfterMillis, final long modifiedBeforeMillis) {
+        return plan(spark, basePath, directories, modifiedAfterMillis, modifiedBeforeMillis, Collections.emptySet());
+    }
+
+    /**
+     * Same as {@link #plan(SparkSession, String, List, long, long)}, the files in excludedFiles are not planned.
+     */
+    public static InputFilePlanner plan(final SparkSession spark, final String basePath, final List<String> directories,
+                                        final long modifiedAfterMillis, final long modifiedBeforeMillis, final Set<String> excludedFiles) {
+        InputFilePlanner planner = new InputFilePlanner(spark, basePath);
+        Configuration hadoopConf = spark.sessionState().newHadoopConf();
+        for (String directory : directories) {
+            planner.addFiles(hadoopConf, new Path(directory), modifiedAfterMillis, modifiedBeforeMillis, excludedFiles);
+        }
+        log.info("planned input files: " + planner.files.size() + ", bytes: " + planner.totalBytes + ", excluded files: " + planner.excludedCount);
+        return planner;
+    }
+
+    public List<String> getFilePaths() {
+        List<String> filePaths = new ArrayList<>(files.size());
+        for (FileStatus file : files) {
+            filePaths.add(file.getPath().toString());
+        }
+        return filePaths;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Read the planned files as JSON with the given schema. Partition columns found below the base path are used
+     * when they are part of the schema, the returned dataset has exactly the columns of the schema.
+     */
+    public Dataset<Row> readJson(final StructType schema, final Map<String, String> options) {
+        if (files.isEmpty()) {
+            // the base path may not exist either, there is nothing to infer partitions from
+            return spark.createDataFrame(new ArrayList<Row>(), schema);
+        }
+        Map<String, String> parameters = new HashMap<>(options);
+        parameters.put("basePath", basePath);
+        scala.collection.immutable.Map<String, String> scalaParameters = scala.collection.immutable.Map$.MODULE$.from(CollectionConverters.asScala(parameters));
+
+        List<Path> rootPaths = new ArrayList<>(files.size());
+        FileStatusCache fileStatusCache = FileStatusCache.getOrCreate(spark);
+        for (FileStatus file : files) {
+            rootPaths.add(file.getPath());
+            // the index takes the leaf files of each root path from the cache instead of listing it
+            fileStatusCache.putLeafFiles(file.getPath(), new FileStatus[]{file});
+        }
+        InMemoryFileIndex fileIndex = new InMemoryFileIndex(spark, CollectionConverters.asScala(rootPaths).toSeq(), scalaParameters,
+                Option.apply(schema), fileStatusCache, Option.empty(), Option.empty());
+        // the index keeps its own copy of the file statuses
+        fileStatusCache.invalidateAll();
+
+        StructType partitionSchema = fileIndex.partitionSchema();
+        List<String> partitionColumns = Arrays.asList(partitionSchema.fieldNames());
+        StructType dataSchema = new StructType(Arrays.stream(schema.fields())
+                .filter(field -> !partitionColumns.contains(field.name()))
+                .toArray(StructField[]::new));
+
+        HadoopFsRelation relation = new HadoopFsRelation(fileIndex, partitionSchema, dataSchema, Option.empty(),
+                new JsonFileFormat(), scalaParameters, spark);
+        // partition columns that are not in the schema, such as year, month and day, are dropped
+        Column[] columns = Arrays.stream(schema.fieldNames()).map(name -> col(name)).toArray(Column[]::new);
+        return spark.baseRelationToDataFrame(relation).select(columns);
+    }
+
+    private void addFiles(final Configuration hadoopConf, final Path directory,
+                          final long modifiedAfterMillis, final long modifiedBeforeMillis, final Set<String> excludedFiles) {
+        try {
+            FileSystem fs = directory.getFileSystem(hadoopConf);
+            Path qualifiedDirectory = fs.makeQualified(directory);
+            RemoteIterator<LocatedFileStatus> iterator = fs.listFiles(qualifiedDirectory, true);
+            while (iterator.hasNext()) {
+                LocatedFileStatus file = iterator.next();
+                long modificationTime = file.getModificationTime();
+                if (isHidden(qualifiedDirectory, file.getPath())
+                        || modificationTime <= modifiedAfterMillis || modificationTime >= modifiedBeforeMillis) {
+                    continue;
+                }
+                if (excludedFiles.contains(file.getPath().toString())) {
+                    excludedCount++;
+                } else {
+                    files.add(file);
+                    totalBytes += file.getLen();
+                }
+            }
+        } catch (FileNotFoundException e) {
+            log.info("input path does not exist: " + directory);
+        } catch (IOException e) {
+            throw new ExecuteTransformerException(e);
+        }
+    }
+
+    private static boolean isHidden(final Path directory, final Path file) {
+        Path path = file;
+        while (path != null && !path.equals(directory)) {
+            String name = path.getName();
+            if (name.startsWith("_") && !name.contains("=") || name.startsWith(".") || name.endsWith("._COPYING_")) {
+                return true;
+            }
+            path = path.getParent();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import software.aws.solution.clickstream.exception.ExecuteTransformerException;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Ledger of the input files that are already processed, one ledger per source path.
+ * Every run adds one batch file that lists the files it processed, the batch is written under a temporary name and renamed
+ * after the output of the run is written, so either all files of the run are committed or none of them.
+ * Batches older than the keep days are removed, files modified before that are not planned again.
+ */
+@Slf4j
+public final class ProcessedFileLedger {
+    public static final String LEDGER_DIR = "processed_file_ledger";
+    public static final int DEFAULT_KEEP_DAYS = 7;
+    private static final String BATCH_PREFIX = "batch-";
+    private static final String TMP_PREFIX = "_tmp-";
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    private final Configuration hadoopConf;
+    private final Path ledgerPath;
+    private final long keepMillis;
+
+    private ProcessedFileLedger(final Configuration hadoopConf, final Path ledgerPath, final int keepDays) {
+        this.hadoopConf = hadoopConf;
+        this.ledgerPath = ledgerPath;
+        this.keepMillis = keepDays * DAY_MILLIS;
+    }
+
+    /**
+     * Ledger of the source path under the ledger directory of the warehouse.
+     */
+    public static ProcessedFileLedger of(final Configuration hadoopConf, final String sourcePath) {
+        String ledgerDir = Paths.get(ContextUtil.getWarehouseDir(), LEDGER_DIR, DigestUtils.sha256Hex(sourcePath))
+                .toString().replace("s3:/", "s3://");
+        int keepDays = Integer.parseInt(System.getProperty(ContextUtil.PROCESSED_FILE_LEDGER_KEEP_DAYS_PROP, String.valueOf(DEFAULT_KEEP_DAYS)));
+        log.info("processed file ledger of " + sourcePath + ": " + ledgerDir + ", keepDays: " + keepDays);
+        return new ProcessedFileLedger(hadoopConf, new Path(ledgerDir), keepDays);
+    }
+
+    /**
+     * Files modified before this time may be missing from the ledger, they must not be planned.
+     */
+    public long getHorizonMillis(final long nowMillis) {
+        return nowMillis - keepMillis;
+    }
+
+    /**
+     * Paths of the processed files in the committed batches.
+     */
+    public Set<String> load() {
+        Set<String> processedFiles = new HashSet<>();
+        try {
+            FileSystem fs = ledgerPath.getFileSystem(hadoopConf);
+            for (FileStatus batch : fs.listStatus(ledgerPath, path -> path.getName().startsWith(BATCH_PREFIX))) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(batch.getPath()), StandardCharsets.UTF_8))) {
+                    reader.lines().filter(line -> !line.isEmpty()).forEach(processedFiles::add);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            log.info("processed file ledger does not exist: " + ledgerPath);
+        } catch (IOException e) {
+            throw new ExecuteTransformerException(e);
+        }
+        log.info("processed files in ledger: " + processedFiles.size());
+        return processedFiles;
+    }
+
+    /**
+     * Commit the files of a run whose output is written, and remove the batches that are older than the keep days.
+     */
+    public void commit(final Collection<String> files, final long nowMillis) {
+        if (files.isEmpty()) {
+            return;
+        }
+        String batchName = BATCH_PREFIX + nowMillis + "-" + UUID.randomUUID();
+        Path tmpPath = new Path(ledgerPath, TMP_PREFIX + batchName);
+        Path batchPath = new Path(ledgerPath, batchName);
+        try {
+            FileSystem fs = ledgerPath.getFileSystem(hadoopConf);
+            try (FSDataOutputStream out = fs.create(tmpPath, true)) {
+                for (String file : files) {
+                    out.write((file + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            if (!fs.rename(tmpPath, batchPath)) {
+                throw new ExecuteTransformerException("failed to commit processed file ledger batch: " + batchPath);
+            }
+            log.info("committed " + files.size() + " processed files to " + batchPath);
+            expire(fs, nowMillis);
+        } catch (IOException e) {
+            throw new ExecuteTransformerException(e);
+        }
+    }
+
+    private void expire(final FileSystem fs, final long nowMillis) throws IOException {
+        long horizonMillis = getHorizonMillis(nowMillis);
+        for (FileStatus batch : fs.listStatus(ledgerPath)) {
+            String name = batch.getPath().getName();
+            // the commit time is in the batch name, left over temporary batches are removed by their modification time
+            long batchMillis = name.startsWith(BATCH_PREFIX)
+                    ? Long.parseLong(name.substring(BATCH_PREFIX.length(), name.indexOf('-', BATCH_PREFIX.length())))
+                    : batch.getModificationTime();
+            if (batchMillis < horizonMillis) {
+                log.info("remove expired processed file ledger batch: " + batch.getPath());
+                fs.delete(batch.getPath(), false);
+            }
+        }
+    }
+}
@@ -136,6 +136,7 @@ public class BaseSparkTest extends BaseTest {
                 .config("spark.sql.warehouse.dir", ContextUtil.getWarehouseDir())
                 .config("spark.sql.mapKeyDedupPolicy", "LAST_WIN")
                 .config("spark.sql.session.timeZone", "UTC")
+                .config("spark.plugins", CacheStatsPlugin.class.getName())
                 .enableHiveSupport()
                 .getOrCreate();
         spark.sql("DROP DATABASE IF EXISTS " + dbName + " CASCADE");
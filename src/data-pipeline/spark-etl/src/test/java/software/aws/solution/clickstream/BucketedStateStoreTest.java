@@ -0,0 +1,169 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.aws.solution.clickstream.util.BucketedStateStore;
+import software.aws.solution.clickstream.util.DatasetUtil;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.apache.spark.sql.functions.col;
+import static software.aws.solution.clickstream.util.ContextUtil.STATE_STORE_BUCKETS_PROP;
+
+public class BucketedStateStoreTest extends BaseSparkTest {
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    private static final StructType SCHEMA = DataTypes.createStructType(new org.apache.spark.sql.types.StructField[]{
+            DataTypes.createStructField("app_id", DataTypes.StringType, true),
+            DataTypes.createStructField("id", DataTypes.StringType, true),
+            DataTypes.createStructField("event_timestamp", DataTypes.LongType, true),
+            DataTypes.createStructField("value", DataTypes.StringType, true),
+    });
+
+    @AfterEach
+    void clearBuckets() {
+        System.clearProperty(STATE_STORE_BUCKETS_PROP);
+    }
+
+    @Test
+    void should_merge_delta_into_touched_buckets_only() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.BucketedStateStoreTest.should_merge_delta_into_touched_buckets_only
+        System.setProperty(STATE_STORE_BUCKETS_PROP, "8");
+        String path = "/tmp/warehouse/bucketed_state_store/" + new Date().getTime() + "/item_state_v1";
+        long now = System.currentTimeMillis();
+
+        Dataset<Row> firstDelta = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("app1", "i1", now - 2 * DAY_MILLIS, "v1"),
+                RowFactory.create("app1", "i2", now - 2 * DAY_MILLIS, "v1"),
+                RowFactory.create("app1", "i3", now - 2 * DAY_MILLIS, "v1"),
+                RowFactory.create("app1", "i4", now - 2 * DAY_MILLIS, "v1"),
+                RowFactory.create("app2", "i1", now - 2 * DAY_MILLIS, "v1")
+        ), SCHEMA);
+        Dataset<Row> firstMerged = BucketedStateStore.merge(firstDelta, path, "id", 30, DatasetUtil::getAggItemDataset);
+        Assertions.assertEquals(5, firstMerged.count());
+        Map<String, Long> firstModified = bucketFilesModified(path);
+
+        Dataset<Row> secondDelta = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("app1", "i1", now, "v2")
+        ), SCHEMA);
+        Dataset<Row> secondMerged = BucketedStateStore.merge(secondDelta, path, "id", 30, DatasetUtil::getAggItemDataset);
+        Assertions.assertEquals("v2", secondMerged.filter(col("app_id").equalTo("app1").and(col("id").equalTo("i1")))
+                .select("value").first().getString(0));
+        Assertions.assertEquals(Arrays.asList("app1", "app1", "app1", "app1", "app2"), spark.read().parquet(path)
+                .select("app_id").orderBy("app_id").collectAsList().stream().map(row -> row.getString(0)).collect(Collectors.toList()));
+
+        Map<String, Long> secondModified = bucketFilesModified(path);
+        String touchedBucket = secondModified.keySet().stream().filter(bucket -> !firstModified.containsKey(bucket)).findFirst().orElse(null);
+        Assertions.assertNotNull(touchedBucket);
+        long rewrittenBuckets = firstModified.keySet().stream().filter(bucket -> !secondModified.containsKey(bucket)).count();
+        Assertions.assertEquals(1, rewrittenBuckets);
+        Assertions.assertEquals(firstModified.size(), secondModified.size());
+    }
+
+    @Test
+    void should_expire_rows_of_touched_buckets() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.BucketedStateStoreTest.should_expire_rows_of_touched_buckets
+        System.setProperty(STATE_STORE_BUCKETS_PROP, "1");
+        String path = "/tmp/warehouse/bucketed_state_store/" + new Date().getTime() + "/item_state_v1";
+        long now = System.currentTimeMillis();
+
+        Dataset<Row> firstDelta = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("app1", "old", now - 10 * DAY_MILLIS, "v1"),
+                RowFactory.create("app1", "new", now - DAY_MILLIS, "v1")
+        ), SCHEMA);
+        Assertions.assertEquals(2, BucketedStateStore.merge(firstDelta, path, "id", 30, DatasetUtil::getAggItemDataset).count());
+
+        Dataset<Row> secondDelta = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("app1", "latest", now, "v1")
+        ), SCHEMA);
+        List<String> ids = BucketedStateStore.merge(secondDelta, path, "id", 5, DatasetUtil::getAggItemDataset)
+                .select("id").orderBy("id").collectAsList().stream().map(row -> row.getString(0)).collect(Collectors.toList());
+        Assertions.assertEquals(Arrays.asList("latest", "new"), ids);
+        Assertions.assertEquals(2, spark.read().parquet(path).count());
+    }
+
+    @Test
+    void should_return_stored_state_of_lookup_keys_in_untouched_buckets() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.BucketedStateStoreTest.should_return_stored_state_of_lookup_keys_in_untouched_buckets
+        System.setProperty(STATE_STORE_BUCKETS_PROP, "8");
+        String path = "/tmp/warehouse/bucketed_state_store/" + new Date().getTime() + "/user_state_v1";
+        long now = System.currentTimeMillis();
+
+        Dataset<Row> firstDelta = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("app1", "i1", now - DAY_MILLIS, "v1"),
+                RowFactory.create("app1", "i2", now - DAY_MILLIS, "v1"),
+                RowFactory.create("app1", "i3", now - DAY_MILLIS, "v1"),
+                RowFactory.create("app1", "i4", now - DAY_MILLIS, "v1")
+        ), SCHEMA);
+        BucketedStateStore.merge(firstDelta, path, "id", 30, DatasetUtil::getAggItemDataset).count();
+        Map<String, Long> firstModified = bucketFilesModified(path);
+
+        // i1 has a new row, all the keys are looked up
+        Dataset<Row> secondDelta = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("app1", "i1", now, "v2")
+        ), SCHEMA);
+        Dataset<Row> merged = BucketedStateStore.merge(secondDelta, firstDelta.select("app_id", "id"), path, "id", 30, DatasetUtil::getAggItemDataset);
+        List<String> values = merged.select("id", "value").orderBy("id").collectAsList().stream()
+                .map(row -> row.getString(0) + "=" + row.getString(1)).collect(Collectors.toList());
+        Assertions.assertEquals(Arrays.asList("i1=v2", "i2=v1", "i3=v1", "i4=v1"), values);
+
+        // the buckets of the lookup keys are read, not rewritten
+        Map<String, Long> secondModified = bucketFilesModified(path);
+        long rewrittenBuckets = firstModified.keySet().stream().filter(bucket -> !secondModified.containsKey(bucket)).count();
+        Assertions.assertEquals(1, rewrittenBuckets);
+    }
+
+    @Test
+    void should_delete_touched_bucket_whose_rows_all_expire() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.BucketedStateStoreTest.should_delete_touched_bucket_whose_rows_all_expire
+        System.setProperty(STATE_STORE_BUCKETS_PROP, "1");
+        String path = "/tmp/warehouse/bucketed_state_store/" + new Date().getTime() + "/item_state_v1";
+        long now = System.currentTimeMillis();
+
+        Dataset<Row> firstDelta = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("app1", "old", now - 10 * DAY_MILLIS, "v1")
+        ), SCHEMA);
+        Assertions.assertEquals(1, BucketedStateStore.merge(firstDelta, path, "id", 30, DatasetUtil::getAggItemDataset).count());
+
+        // the late row of the second delta is expired too, the bucket has no row left
+        Dataset<Row> secondDelta = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("app1", "late", now - 8 * DAY_MILLIS, "v1")
+        ), SCHEMA);
+        Assertions.assertEquals(0, BucketedStateStore.merge(secondDelta, path, "id", 5, DatasetUtil::getAggItemDataset).count());
+        Assertions.assertEquals(0, bucketFilesModified(path).size());
+    }
+
+    private static Map<String, Long> bucketFilesModified(final String path) {
+        // key is the bucket directory and data file name, a rewritten bucket gets new file names
+        return Arrays.stream(Objects.requireNonNull(new File(path).listFiles(File::isDirectory)))
+                .flatMap(appDir -> Arrays.stream(Objects.requireNonNull(appDir.listFiles(File::isDirectory))))
+                .flatMap(bucketDir -> Arrays.stream(Objects.requireNonNull(bucketDir.listFiles((dir, name) -> name.endsWith(".parquet")))))
+                .collect(Collectors.toMap(file -> file.getParentFile().getParentFile().getName() + "/" + file.getParentFile().getName() + "/" + file.getName(),
+                        File::lastModified));
+    }
+}
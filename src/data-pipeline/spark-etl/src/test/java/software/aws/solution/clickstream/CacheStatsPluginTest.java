@@ -0,0 +1,45 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream;
+
+import org.apache.spark.api.plugin.ExecutorPlugin;
+import org.junit.jupiter.api.Test;
+import software.aws.solution.clickstream.common.Cache;
+import software.aws.solution.clickstream.util.CacheStatsPlugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CacheStatsPluginTest extends BaseSparkTest {
+
+    @Test
+    void should_report_cache_stats_when_executor_stops() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.CacheStatsPluginTest.should_report_cache_stats_when_executor_stops
+        assertEquals(CacheStatsPlugin.class.getName(), spark.sparkContext().getConf().get("spark.plugins"));
+
+        Cache<String> cache = Cache.<String>builder("pluginTest").build();
+        cache.put("k", "v");
+        cache.get("k");
+        cache.get("missing");
+
+        CacheStatsPlugin plugin = new CacheStatsPlugin();
+        assertNull(plugin.driverPlugin());
+        ExecutorPlugin executorPlugin = plugin.executorPlugin();
+        assertNotNull(executorPlugin);
+        executorPlugin.shutdown();
+        assertEquals(1, cache.getStats().getHitCount());
+        assertEquals(1, cache.getStats().getMissCount());
+    }
+}
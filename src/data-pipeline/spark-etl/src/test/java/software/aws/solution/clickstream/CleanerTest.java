@@ -13,13 +13,32 @@
 
 package software.aws.solution.clickstream;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.api.java.UDF1;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.ArrayType;
+import org.apache.spark.unsafe.types.UTF8String;
 import org.junit.jupiter.api.Test;
+import software.aws.solution.clickstream.common.Util;
 import software.aws.solution.clickstream.transformer.*;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
 import static java.util.Objects.requireNonNull;
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.from_json;
+import static org.apache.spark.sql.functions.udf;
+import static org.apache.spark.sql.types.DataTypes.StringType;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static software.aws.solution.clickstream.util.ContextUtil.*;
 
 class CleanerTest extends BaseSparkTest {
@@ -72,6 +91,26 @@ class CleanerTest extends BaseSparkTest {
     }
 
 
+    @Test
+    public void should_write_corrupt_records_with_reason() {
+        //  DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.CleanerTest.should_write_corrupt_records_with_reason
+        String warehouseDir = "/tmp/warehouse/cleaner_corrupt/" + new Date().getTime();
+        System.setProperty(WAREHOUSE_DIR_PROP, warehouseDir);
+        System.setProperty(APP_IDS_PROP, "uba-app");
+
+        Dataset<Row> dataset = spark.read().json(requireNonNull(getClass().getResource("/original_data_with_error.json")).getPath())
+                .union(spark.read().json(requireNonNull(getClass().getResource("/original_data.json")).getPath()));
+        Dataset<Row> cleanedDataset = cleaner.clean(dataset, "/data_schema.json");
+        assertEquals(2, cleanedDataset.count());
+        assertFalse(Arrays.asList(cleanedDataset.columns()).contains(Cleaner.CORRUPT_REASON));
+
+        Dataset<Row> corruptDataset = spark.read().json(warehouseDir + "/etl_corrupted_json_data");
+        assertEquals(1, corruptDataset.count());
+        Row corruptRow = corruptDataset.first();
+        assertEquals(Cleaner.REASON_MALFORMED_JSON, corruptRow.getAs(Cleaner.CORRUPT_REASON));
+        assertTrue(corruptRow.<String>getAs("inputFileName").endsWith("original_data_with_error.json"));
+    }
+
     @Test
     public void should_clean_when_data_is_null() {
        //  DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.CleanerTest.should_clean_when_data_is_null
@@ -110,4 +149,43 @@ class CleanerTest extends BaseSparkTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void should_decode_data_in_generated_code() throws IOException {
+        //  DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.CleanerTest.should_decode_data_in_generated_code
+        Dataset<Row> dataset = spark.read().json(requireNonNull(getClass().getResource("/original_data.json")).getPath());
+        Dataset<Row> decodedDataset = dataset.select(
+                PayloadDecoder.decodeEvents(col("data")).alias("events"),
+                from_json(udf((UDF1<String, String>) data -> Util.decompress(Base64.getDecoder().decode(data)), StringType).apply(col("data")),
+                        new ArrayType(StringType, true)).alias("expected_events"));
+
+        String plan = decodedDataset.queryExecution().executedPlan().toString();
+        assertTrue(plan.contains("staticinvoke(class software.aws.solution.clickstream.transformer.PayloadDecoder"), plan);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<Row> rows = decodedDataset.collectAsList();
+        assertEquals(2, rows.size());
+        for (Row row : rows) {
+            List<String> events = row.getList(0);
+            List<String> expectedEvents = row.getList(1);
+            assertEquals(expectedEvents.size(), events.size());
+            for (int i = 0; i < events.size(); i++) {
+                assertEquals(objectMapper.readTree(expectedEvents.get(i)), objectMapper.readTree(events.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void should_decode_raw_and_invalid_data() {
+        //  DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.CleanerTest.should_decode_raw_and_invalid_data
+        ArrayData events = PayloadDecoder.decode(UTF8String.fromString(" [{\"a\": [1, 2]}, \"s\", null] "));
+        assertEquals(3, events.numElements());
+        assertEquals("{\"a\": [1, 2]}", events.getUTF8String(0).toString());
+        assertEquals("s", events.getUTF8String(1).toString());
+        assertTrue(events.isNullAt(2));
+
+        assertEquals("error: data is null", PayloadDecoder.decode(null).getUTF8String(0).toString());
+        assertTrue(PayloadDecoder.decode(UTF8String.fromString("abc")).getUTF8String(0).toString().startsWith("error: extractData error"));
+        assertNull(PayloadDecoder.decode(UTF8String.fromString("[{\"a\": }]")));
+        assertNull(PayloadDecoder.decode(UTF8String.fromString("[{\"a\": 1} {\"b\": 2}]")));
+    }
+}
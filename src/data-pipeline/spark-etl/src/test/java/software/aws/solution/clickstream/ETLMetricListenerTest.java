@@ -0,0 +1,73 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.aws.solution.clickstream.util.ETLMetric;
+import software.aws.solution.clickstream.util.ETLMetricListener;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.apache.spark.sql.functions.col;
+
+public class ETLMetricListenerTest extends BaseSparkTest {
+
+    @Test
+    void should_collect_stage_and_write_metrics_lazily() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.ETLMetricListenerTest.should_collect_stage_and_write_metrics_lazily
+        ETLMetricListener listener = ETLMetricListener.start(spark);
+        ETLMetric.setLazyListener(listener);
+        try {
+            Dataset<Row> dataset = ETLMetric.observe(spark.range(100).toDF(), "stage enter");
+            Dataset<Row> filtered = ETLMetric.observe(dataset.filter(col("id").lt(30)), "stage filtered");
+            ETLMetric.observe(dataset.filter(col("id").lt(10)), "stage not evaluated");
+            filtered.cache();
+            String outputPath = "/tmp/etl-metric-test/" + System.currentTimeMillis();
+            filtered.write().mode(SaveMode.Overwrite).json(outputPath);
+
+            Map<String, ETLMetric> metrics = listener.getMetrics().stream()
+                    .collect(Collectors.toMap(ETLMetric::getInfo, metric -> metric));
+            Assertions.assertEquals(100, metrics.get("stage enter").getCount());
+            Assertions.assertEquals(30, metrics.get("stage filtered").getCount());
+            Assertions.assertFalse(metrics.containsKey("stage not evaluated"));
+
+            List<ETLMetric> writeMetrics = metrics.values().stream()
+                    .filter(metric -> metric.getInfo().startsWith("written ") && metric.getInfo().endsWith(outputPath))
+                    .collect(Collectors.toList());
+            Assertions.assertEquals(1, writeMetrics.size());
+            Assertions.assertEquals(30, writeMetrics.get(0).getCount());
+            Assertions.assertTrue(writeMetrics.get(0).getBytes() > 0);
+            filtered.unpersist();
+        } finally {
+            ETLMetric.setLazyListener(null);
+            listener.report();
+        }
+    }
+
+    @Test
+    void should_count_stage_eagerly_by_default() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.ETLMetricListenerTest.should_count_stage_eagerly_by_default
+        Dataset<Row> dataset = spark.range(10).toDF();
+        Assertions.assertSame(dataset, ETLMetric.observe(dataset, "stage enter"));
+        Assertions.assertEquals("[ETLMetric]sink dataset count:10", new ETLMetric(dataset, "sink").toString());
+        Assertions.assertEquals("[ETLMetric]written s3://bucket/event dataset count:10, bytes:2048",
+                new ETLMetric(10, 2048, "written s3://bucket/event").toString());
+    }
+}
@@ -131,6 +131,42 @@ class ETLRunnerForTransformerV3Test extends ETLRunnerBaseTest {
         Assertions.assertTrue(userDataset.filter(col(Constant.CREATED_TIME).isNotNull()).count() > 0);
 
     }
+    @Test
+    public void should_write_tables_concurrently() {
+        // DOWNLOAD_FILE=1 ./gradlew clean test --info --tests software.aws.solution.clickstream.ETLRunnerForTransformerV3Test.should_write_tables_concurrently
+        System.setProperty(APP_IDS_PROP, "app1");
+        System.setProperty(PROJECT_ID_PROP, "test_project_id_01");
+        setWarehouseDir("should_write_tables_concurrently");
+        String runFlag = getEtlRunFlag();
+        System.setProperty(Constant.ETL_RUN_FLAG, runFlag + "," + CONCURRENT_TABLE_WRITES);
+
+        spark.sparkContext().addFile(requireNonNull(getClass().getResource("/GeoLite2-City.mmdb")).getPath());
+
+        List<String> transformers = Lists.newArrayList();
+        transformers.add("software.aws.solution.clickstream.TransformerV3");
+        transformers.add("software.aws.solution.clickstream.UAEnrichmentV2");
+        transformers.add("software.aws.solution.clickstream.IPEnrichmentV2");
+
+        ETLRunnerConfig config = getRunnerConfig(transformers, "should_write_tables_concurrently_parquet");
+        try {
+            ETLRunner runner = new ETLRunner(spark, config);
+            Dataset<Row> sourceDataset =
+                    spark.read().json(requireNonNull(getClass().getResource("/original_data_with_app1.json")).getPath());
+
+            Dataset<Row> dataset = runner.executeTransformers(sourceDataset, transformers);
+            long eventCount = runner.writeResultEventDataset(dataset);
+            runner.awaitTableWrites();
+
+            String outputPath = config.getOutputPath();
+            Assertions.assertEquals(eventCount, spark.read().parquet(outputPath + TableName.EVENT_V2.getTableName()).count());
+            Assertions.assertTrue(spark.read().parquet(outputPath + TableName.SESSION.getTableName()).count() > 0);
+            Assertions.assertTrue(spark.read().parquet(outputPath + TableName.ITEM_V2.getTableName()).count() > 0);
+            Assertions.assertTrue(spark.read().parquet(outputPath + TableName.USER_V2.getTableName()).count() > 0);
+        } finally {
+            System.setProperty(Constant.ETL_RUN_FLAG, runFlag);
+        }
+    }
+
     @Test
     public void should_executeTransformers_with_TransformerV3_2() throws IOException {
         // DOWNLOAD_FILE=1 ./gradlew clean test --info --tests software.aws.solution.clickstream.ETLRunnerForTransformerV3Test.should_executeTransformers_with_TransformerV3_2
@@ -18,6 +18,7 @@ import com.clearspring.analytics.util.*;
 import org.apache.spark.sql.*;
 import org.junit.jupiter.api.*;
 import software.aws.solution.clickstream.common.TransformConfig;
+import software.aws.solution.clickstream.exception.ExecuteTransformerException;
 import software.aws.solution.clickstream.util.*;
 
 import java.io.*;
@@ -103,6 +104,64 @@ class ETLRunnerTest extends ETLRunnerBaseTest {
         assertEquals("\"abc\"", dataset.first().getAs("_corrupt_record"));
     }
 
+    @Test
+    public void should_read_files_not_in_processed_file_ledger() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.ETLRunnerTest.should_read_files_not_in_processed_file_ledger
+        System.setProperty(WAREHOUSE_DIR_PROP, "/tmp/warehouse/processed_file_ledger_test/" + new Date().getTime());
+        String runFlag = getEtlRunFlag();
+        System.setProperty(software.aws.solution.clickstream.common.Constant.ETL_RUN_FLAG, runFlag + "," + PROCESSED_FILE_LEDGER);
+        // the test files keep the modification time of the checkout
+        System.setProperty(PROCESSED_FILE_LEDGER_KEEP_DAYS_PROP, String.valueOf(365 * 100));
+        try {
+            List<String> transformers = Lists.newArrayList();
+            transformers.add("software.aws.solution.clickstream.Transformer");
+            String startTimestamp = "1667963966000"; // 2022-11-09T03:19:26.000Z
+            String endTimestamp = "1668136766000"; // 2022-11-11T03:19:26.000Z
+
+            ETLRunnerConfig config = getRunnerConfigForPartitionData(
+                    transformers, "read_files_not_in_processed_file_ledger",
+                    startTimestamp, endTimestamp
+            );
+            ETLRunner runner = new ETLRunner(spark, config);
+            assertEquals(9, runner.readInputDataset(false).count());
+            // not committed, the files are read again
+            assertEquals(9, runner.readInputDataset(false).count());
+            runner.commitInputFiles();
+
+            ETLRunner rerunRunner = new ETLRunner(spark, config);
+            assertEquals(0, rerunRunner.readInputDataset(false).count());
+        } finally {
+            System.setProperty(software.aws.solution.clickstream.common.Constant.ETL_RUN_FLAG, runFlag);
+            System.clearProperty(PROCESSED_FILE_LEDGER_KEEP_DAYS_PROP);
+        }
+    }
+
+    @Test
+    public void should_fail_when_start_timestamp_is_older_than_processed_file_ledger_horizon() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.ETLRunnerTest.should_fail_when_start_timestamp_is_older_than_processed_file_ledger_horizon
+        System.setProperty(WAREHOUSE_DIR_PROP, "/tmp/warehouse/processed_file_ledger_test/" + new Date().getTime());
+        String runFlag = getEtlRunFlag();
+        System.setProperty(software.aws.solution.clickstream.common.Constant.ETL_RUN_FLAG, runFlag + "," + PROCESSED_FILE_LEDGER);
+        System.setProperty(PROCESSED_FILE_LEDGER_KEEP_DAYS_PROP, "7");
+        try {
+            List<String> transformers = Lists.newArrayList();
+            transformers.add("software.aws.solution.clickstream.Transformer");
+            String startTimestamp = "1667963966000"; // 2022-11-09T03:19:26.000Z
+            String endTimestamp = "1668136766000"; // 2022-11-11T03:19:26.000Z
+
+            ETLRunnerConfig config = getRunnerConfigForPartitionData(
+                    transformers, "fail_when_start_timestamp_is_older_than_processed_file_ledger_horizon",
+                    startTimestamp, endTimestamp
+            );
+            ETLRunner runner = new ETLRunner(spark, config);
+            // a backfill of days the ledger no longer covers must not silently plan no files
+            assertThrows(ExecuteTransformerException.class, () -> runner.readInputDataset(true));
+        } finally {
+            System.setProperty(software.aws.solution.clickstream.common.Constant.ETL_RUN_FLAG, runFlag);
+            System.clearProperty(PROCESSED_FILE_LEDGER_KEEP_DAYS_PROP);
+        }
+    }
+
     @Test
     public void should_executeTransformers() throws IOException {
         //DOWNLOAD_FILE=1 ./gradlew clean test --info --tests software.aws.solution.clickstream.ETLRunnerTest.should_executeTransformers
@@ -136,6 +195,29 @@ class ETLRunnerTest extends ETLRunnerBaseTest {
                 .toFile().isDirectory());
     }
 
+    @Test
+    public void should_writeResult_rebalance_small_folders_into_one_file() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.ETLRunnerTest.should_writeResult_rebalance_small_folders_into_one_file
+        List<String> transformers = Lists.newArrayList();
+        transformers.add("software.aws.solution.clickstream.Transformer");
+        ETLRunnerConfig config = getRunnerConfig(transformers, "writeResult_parquet");
+        ETLRunner runner = new ETLRunner(spark, config);
+
+        Dataset<Row> dataset = spark.range(25_000).repartition(8).select(
+                when(col("id").lt(20_000), lit("app1")).otherwise(lit("app2")).alias("app_id"),
+                lit("2023-04-24").cast("date").alias("event_date"),
+                col("id").alias("event_id"));
+        String outPath = "/tmp/test-spark-etl/" + new Date().getTime();
+        assertEquals(25_000, runner.writeResult(outPath, dataset, TableName.ODS_EVENTS));
+
+        File app1Dir = Paths.get(outPath, "ods_events/partition_app=app1/partition_year=2023/partition_month=04/partition_day=24").toFile();
+        File app2Dir = Paths.get(outPath, "ods_events/partition_app=app2/partition_year=2023/partition_month=04/partition_day=24").toFile();
+        // the folders are far below the advisory partition size, each one is written by a single writer
+        assertEquals(1, requireNonNull(app1Dir.listFiles((dir, name) -> name.endsWith(".parquet"))).length);
+        assertEquals(1, requireNonNull(app2Dir.listFiles((dir, name) -> name.endsWith(".parquet"))).length);
+        assertEquals(25_000, spark.read().parquet(Paths.get(outPath, "ods_events").toString()).count());
+    }
+
     private void checkSchema(Dataset<Row> dataset) throws IOException {
         dataset.printSchema();
         System.out.println(dataset.schema().toDDL());
@@ -19,6 +19,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.List;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.spark.sql.functions.lit;
@@ -46,6 +47,29 @@ class IPEnrichmentTest extends BaseSparkTest {
         assertEquals(geo.getString(geo.fieldIndex("city")), "Singapore");
     }
 
+    @Test
+    public void should_enrich_ips_of_same_network_with_their_own_locale() {
+        // DOWNLOAD_FILE=1 ./gradlew clean test --info --tests software.aws.solution.clickstream.IPEnrichmentTest.should_enrich_ips_of_same_network_with_their_own_locale
+        System.setProperty(APP_IDS_PROP, "uba-app");
+        System.setProperty(PROJECT_ID_PROP, "test_project_id_01");
+
+        spark.sparkContext().addFile(requireNonNull(getClass().getResource("/GeoLite2-City.mmdb")).getPath());
+
+        Dataset<Row> dataset = spark.read().json(requireNonNull(getClass().getResource("/transformed_data.json")).getPath());
+        Dataset<Row> otherIpDataset = dataset.withColumn("geo_for_enrich", dataset.col("geo_for_enrich")
+                .withField("ip", lit("13.212.229.1"))
+                .withField("locale", lit("en_US")));
+        List<Row> geoRows = ipEnrichment.transform(dataset.limit(1).unionByName(otherIpDataset.limit(1)))
+                .select("geo").collectAsList();
+
+        Row geo1 = geoRows.get(0).getStruct(0);
+        Row geo2 = geoRows.get(1).getStruct(0);
+        assertEquals("Singapore", geo1.getString(geo1.fieldIndex("city")));
+        assertEquals("Singapore", geo2.getString(geo2.fieldIndex("city")));
+        assertEquals("zh_CN_#Hans", geo1.getString(geo1.fieldIndex("locale")));
+        assertEquals("en_US", geo2.getString(geo2.fieldIndex("locale")));
+    }
+
     @Test
     public void should_return_empty_when_enrich_ip_with_no_db_file() {
         System.setProperty(APP_IDS_PROP, "uba-app");
@@ -0,0 +1,94 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.aws.solution.clickstream.util.InputFilePlanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.input_file_name;
+
+public class InputFilePlannerTest extends BaseSparkTest {
+    private static final StructType SCHEMA = DataTypes.createStructType(new StructField[]{
+            DataTypes.createStructField("_corrupt_record", DataTypes.StringType, true),
+            DataTypes.createStructField("rid", DataTypes.StringType, true),
+            DataTypes.createStructField("hour", DataTypes.IntegerType, true)
+    });
+
+    @Test
+    void should_plan_files_by_modified_time_and_read_them_in_one_scan() throws IOException {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.InputFilePlannerTest.should_plan_files_by_modified_time_and_read_them_in_one_scan
+        String sourceDir = "/tmp/input-file-planner/" + new Date().getTime() + "/";
+        long modifiedTime = 1_700_000_000_000L;
+        writeFile(sourceDir + "year=2023/month=11/day=14/hour=22/a.json", "{\"rid\":\"a\"}", modifiedTime);
+        writeFile(sourceDir + "year=2023/month=11/day=15/hour=01/b.json", "{\"rid\":\"b\"}\n{\"rid\":\"c\"}", modifiedTime + 1000L);
+        writeFile(sourceDir + "year=2023/month=11/day=15/hour=02/late.json", "{\"rid\":\"late\"}", modifiedTime + 5000L);
+        writeFile(sourceDir + "year=2023/month=11/day=15/hour=01/_SUCCESS", "", modifiedTime);
+        writeFile(sourceDir + "year=2023/month=11/day=15/hour=01/.b.json.crc", "", modifiedTime);
+
+        List<String> days = Arrays.asList(sourceDir + "year=2023/month=11/day=14",
+                sourceDir + "year=2023/month=11/day=15",
+                sourceDir + "year=2023/month=11/day=16");
+        InputFilePlanner planner = InputFilePlanner.plan(spark, sourceDir, days, modifiedTime - 1000L, modifiedTime + 5000L);
+        Assertions.assertEquals(2, planner.getFilePaths().size());
+        Assertions.assertTrue(planner.getFilePaths().get(0).endsWith("hour=22/a.json"));
+        Assertions.assertTrue(planner.getFilePaths().get(1).endsWith("hour=01/b.json"));
+
+        Dataset<Row> dataset = planner.readJson(SCHEMA, Collections.singletonMap("mode", "PERMISSIVE"))
+                .withColumn("file_name", input_file_name());
+        Assertions.assertArrayEquals(new String[]{"_corrupt_record", "rid", "hour", "file_name"}, dataset.columns());
+        List<Row> rows = dataset.orderBy(col("rid")).collectAsList();
+        Assertions.assertEquals(3, rows.size());
+        Assertions.assertEquals("a", rows.get(0).getAs("rid"));
+        Assertions.assertEquals(22, (int) rows.get(0).getAs("hour"));
+        Assertions.assertEquals(1, (int) rows.get(2).getAs("hour"));
+        Assertions.assertTrue(rows.get(2).<String>getAs("file_name").endsWith("b.json"));
+    }
+
+    @Test
+    void should_read_empty_dataset_when_no_file_is_planned() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.InputFilePlannerTest.should_read_empty_dataset_when_no_file_is_planned
+        String sourceDir = "/tmp/input-file-planner/" + new Date().getTime() + "/";
+        InputFilePlanner planner = InputFilePlanner.plan(spark, sourceDir,
+                Collections.singletonList(sourceDir + "year=2023/month=11/day=14"), Long.MIN_VALUE, Long.MAX_VALUE);
+        Assertions.assertEquals(0, planner.getFilePaths().size());
+        Dataset<Row> dataset = planner.readJson(SCHEMA, Collections.emptyMap());
+        Assertions.assertEquals(SCHEMA.fieldNames().length, dataset.columns().length);
+        Assertions.assertEquals(0, dataset.count());
+    }
+
+    private static void writeFile(final String fileName, final String content, final long modifiedTime) throws IOException {
+        Path path = Paths.get(fileName);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        Assertions.assertTrue(new File(fileName).setLastModified(modifiedTime));
+    }
+}
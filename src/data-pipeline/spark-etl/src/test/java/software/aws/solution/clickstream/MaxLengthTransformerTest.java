@@ -16,11 +16,20 @@ package software.aws.solution.clickstream;
 
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.functions;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import software.aws.solution.clickstream.transformer.*;
+import software.aws.solution.clickstream.util.ETLMetric;
+import software.aws.solution.clickstream.util.ETLMetricListener;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.spark.sql.functions.col;
@@ -54,6 +63,64 @@ public class MaxLengthTransformerTest extends BaseSparkTest {
     public void test_transform_text() {
         // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.MaxLengthTransformerTest.test_transform_text
         Assertions.assertEquals("我爱", MaxLengthTransformer.checkStringValueLength("我爱你，亚马逊", 8));
+        Assertions.assertEquals("a\uD83D\uDE00", MaxLengthTransformer.checkStringValueLength("a\uD83D\uDE00b", 5));
+        Assertions.assertEquals("a", MaxLengthTransformer.checkStringValueLength("a\uD83D\uDE00b", 4));
+        Assertions.assertEquals("abc", MaxLengthTransformer.checkStringValueLength("abc", 3));
+    }
+
+    @Test
+    public void should_truncate_columns_in_one_projection() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.MaxLengthTransformerTest.should_truncate_columns_in_one_projection
+        Dataset<Row> dataset = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("我爱你", "a\uD83D\uDE00b", true),
+                RowFactory.create("ab", null, true)
+        ), DataTypes.createStructType(new StructField[]{
+                DataTypes.createStructField("name", DataTypes.StringType, true),
+                DataTypes.createStructField("address", DataTypes.StringType, true),
+                DataTypes.createStructField("name_truncated", DataTypes.BooleanType, true),
+        }));
+        Map<String, Integer> maxByteLengths = new LinkedHashMap<>();
+        maxByteLengths.put("name", 8);
+        maxByteLengths.put("address", 4);
+
+        List<Row> rows = MaxLengthTransformer.truncateColumns(dataset, maxByteLengths).collectAsList();
+
+        Assertions.assertEquals("{\"name\":\"我爱\",\"address\":\"a\",\"name_truncated\":true,\"address_truncated\":true}", rows.get(0).json());
+        Assertions.assertEquals("{\"name\":\"ab\",\"address\":null,\"name_truncated\":false,\"address_truncated\":false}", rows.get(1).json());
+    }
+
+    @Test
+    public void should_observe_truncated_counts_per_column() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.MaxLengthTransformerTest.should_observe_truncated_counts_per_column
+        Dataset<Row> dataset =
+                spark.read().json(requireNonNull(getClass().getResource("/user_cn_chars.json")).getPath());
+        ETLMetricListener listener = ETLMetricListener.start(spark);
+        ETLMetric.setLazyListener(listener);
+        try {
+            new MaxLengthTransformer().transform(dataset, List.of("name", "address"), 10).count();
+        } finally {
+            ETLMetric.setLazyListener(null);
+            listener.stop();
+        }
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        listener.getMetrics().forEach(metric -> counts.put(metric.getInfo(), metric.getCount()));
+        Assertions.assertEquals(0L, counts.get("truncated name"));
+        Assertions.assertEquals(dataset.filter(functions.octet_length(col("address")).gt(10)).count(), counts.get("truncated address"));
+    }
+
+    @Test
+    public void should_not_run_a_job_to_count_truncated_values_without_lazy_metrics() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.MaxLengthTransformerTest.should_not_run_a_job_to_count_truncated_values_without_lazy_metrics
+        Dataset<Row> dataset =
+                spark.read().json(requireNonNull(getClass().getResource("/user_cn_chars.json")).getPath());
+        spark.sparkContext().setJobGroup("truncate", "truncate columns", false);
+        try {
+            new MaxLengthTransformer().transform(dataset, List.of("name", "address"), 10);
+        } finally {
+            spark.sparkContext().clearJobGroup();
+        }
+        Assertions.assertEquals(0, spark.sparkContext().statusTracker().getJobIdsForGroup("truncate").length);
     }
 
 }
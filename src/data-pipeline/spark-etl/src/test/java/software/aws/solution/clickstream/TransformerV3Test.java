@@ -15,6 +15,7 @@ package software.aws.solution.clickstream;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SaveMode;
 import org.junit.jupiter.api.Assertions;
@@ -25,7 +26,10 @@ import software.aws.solution.clickstream.model.ModelV2;
 import software.aws.solution.clickstream.util.*;
 
 import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.spark.sql.functions.*;
@@ -316,4 +320,81 @@ class TransformerV3Test extends BaseSparkTest {
         String expectedJson1 = this.resourceFileAsString("/event_v2/expected/test_extract_session_from_event2.json");
         Assertions.assertEquals(expectedJson1, replaceDynData(sessionDataset.first().prettyJson()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void should_agg_user_dataset_in_one_shuffle() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.TransformerV3Test.should_agg_user_dataset_in_one_shuffle
+        List<String> lines = Arrays.asList(
+                "{\"app_id\":\"app1\",\"user_pseudo_id\":\"u1\",\"event_timestamp\":\"2023-10-01T00:00:01Z\",\"event_name\":\"_first_open\","
+                        + "\"first_traffic_source\":\"google\",\"process_info\":{\"k\":\"v\"}}",
+                "{\"app_id\":\"app1\",\"user_pseudo_id\":\"u1\",\"event_timestamp\":\"2023-10-01T00:00:02Z\",\"event_name\":\"_profile_set\","
+                        + "\"user_id\":\"id1\",\"user_properties\":{\"p\":{\"value\":\"1\"}},\"user_properties_json_str\":\"{\\\"p\\\":1}\"}",
+                "{\"app_id\":\"app1\",\"user_pseudo_id\":\"u1\",\"event_timestamp\":\"2023-10-01T00:00:03Z\",\"event_name\":\"_profile_set\"}",
+                "{\"app_id\":\"app1\",\"user_pseudo_id\":\"u1\",\"event_timestamp\":\"2023-10-01T00:00:04Z\",\"event_name\":\"_click\","
+                        + "\"first_traffic_source\":\"bing\"}",
+                "{\"app_id\":\"app1\",\"user_pseudo_id\":\"u2\",\"event_timestamp\":\"2023-10-01T00:00:05Z\",\"event_name\":\"_click\"}"
+        );
+        Dataset<Row> userDataset = spark.read().schema(ModelV2.USER_TYPE).json(spark.createDataset(lines, Encoders.STRING()))
+                .withColumn(TransformerV3.USER_FIRST_EVENT_NAME, col(Constant.EVENT_NAME))
+                .withColumn(TransformerV3.USER_LATEST_EVENT_NAME, col(Constant.EVENT_NAME))
+                .drop(Constant.EVENT_NAME);
+
+        Dataset<Row> userAggDataset = TransformerV3.aggUserDataset(userDataset, "test");
+
+        String plan = userAggDataset.queryExecution().executedPlan().toString();
+        Assertions.assertEquals(1, plan.split("Exchange hashpartitioning", -1).length - 1, plan);
+        Row user1 = userAggDataset.filter(col(Constant.USER_PSEUDO_ID).equalTo("u1")).first();
+        Assertions.assertEquals("id1", user1.getAs(Constant.USER_ID));
+        Assertions.assertEquals("{\"p\":1}", user1.getAs(Constant.USER_PROPERTIES_JSON_STR));
+        Assertions.assertEquals("google", user1.getAs(Constant.FIRST_TRAFFIC_SOURCE));
+        Assertions.assertEquals("_profile_set", user1.getAs(TransformerV3.USER_LATEST_EVENT_NAME));
+        Assertions.assertEquals("_first_open", user1.getAs(TransformerV3.USER_FIRST_EVENT_NAME));
+        Map<String, String> processInfo = user1.getJavaMap(user1.fieldIndex(Constant.PROCESS_INFO));
+        Assertions.assertEquals("v", processInfo.get("k"));
+        Row user2 = userAggDataset.filter(col(Constant.USER_PSEUDO_ID).equalTo("u2")).first();
+        Assertions.assertNull(user2.getAs(Constant.USER_PROPERTIES_JSON_STR));
+        Assertions.assertNull(user2.getAs(Constant.FIRST_TRAFFIC_SOURCE));
+        Assertions.assertNull(user2.getAs(TransformerV3.USER_FIRST_EVENT_NAME));
+    }
+
+    @Test
+    void should_merge_sessions_across_runs() {
+        // DOWNLOAD_FILE=0 ./gradlew clean test --info --tests software.aws.solution.clickstream.TransformerV3Test.should_merge_sessions_across_runs
+        setWarehouseDir("should_merge_sessions_across_runs");
+        System.setProperty(Constant.ETL_RUN_FLAG, SESSION_STATE_STORE);
+        System.setProperty(STATE_STORE_BUCKETS_PROP, "1");
+        try {
+            long now = System.currentTimeMillis();
+            Dataset<Row> firstSessions = transformer.extractSessionFromEvent(sessionEvents(Arrays.asList(
+                    sessionEvent("u1", "s1", "_session_start", now - 3000, "google"),
+                    sessionEvent("u2", "s2", "_session_start", now - 3000, "Direct")
+            )));
+            Assertions.assertEquals(2, firstSessions.count());
+
+            // s1 continues in the next run with direct events only, it keeps the source of its first event
+            Dataset<Row> secondSessions = transformer.extractSessionFromEvent(sessionEvents(Arrays.asList(
+                    sessionEvent("u1", "s1", "_page_view", now - 2000, "Direct"),
+                    sessionEvent("u1", "s3", "_session_start", now - 1000, "bing")
+            )));
+
+            // the session of u2 is in the same bucket, but it is not emitted again
+            Assertions.assertEquals(Arrays.asList("s1", "s3"), secondSessions.select(Constant.SESSION_ID).orderBy(Constant.SESSION_ID)
+                    .collectAsList().stream().map(row -> row.getString(0)).collect(Collectors.toList()));
+            Row session1 = secondSessions.filter(col(Constant.SESSION_ID).equalTo("s1")).first();
+            Assertions.assertEquals("google", session1.getAs(Constant.SESSION_SOURCE));
+            Assertions.assertEquals(now - 3000, ((Timestamp) session1.getAs(Constant.EVENT_TIMESTAMP)).getTime());
+        } finally {
+            System.clearProperty(Constant.ETL_RUN_FLAG);
+            System.clearProperty(STATE_STORE_BUCKETS_PROP);
+        }
+    }
+
+    private Dataset<Row> sessionEvents(final List<String> lines) {
+        return spark.read().schema(ModelV2.EVENT_TYPE).json(spark.createDataset(lines, Encoders.STRING()));
+    }
+
+    private static String sessionEvent(final String user, final String session, final String eventName, final long timestamp, final String source) {
+        return "{\"app_id\":\"app1\",\"user_pseudo_id\":\"" + user + "\",\"session_id\":\"" + session + "\",\"event_name\":\"" + eventName
+                + "\",\"event_timestamp\":\"" + Instant.ofEpochMilli(timestamp) + "\",\"traffic_source_source\":\"" + source + "\"}";
+    }
+}
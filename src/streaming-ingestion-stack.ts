@@ -104,6 +104,10 @@ export class StreamingIngestionStack extends Stack {
         destinationBucket: dataBucket,
         destinationKeyPrefix: appPrefix,
         buildImage: 'public.ecr.aws/docker/library/gradle:7.6-jdk11',
+        commonLibs: [
+          'cd /tmp/data-pipeline/etl-common/',
+          `gradle clean build install -PprojectVersion=${SolutionInfo.SOLUTION_VERSION_SHORT} -x test -x coverageCheck`,
+        ],
       },
     );
 
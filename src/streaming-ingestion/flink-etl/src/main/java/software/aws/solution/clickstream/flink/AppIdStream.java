@@ -15,15 +15,61 @@ package software.aws.solution.clickstream.flink;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.io.Serializable;
+
 @Getter
 @Setter
-public class AppIdStream {
+public class AppIdStream implements Serializable {
+    public static final TypeInformation<AppIdStream> TYPE_INFO = Types.POJO(AppIdStream.class);
+    private static final long serialVersionUID = 1L;
+    private static final int ARN_PARTS = 6;
+    private static final String STREAM_RESOURCE_PREFIX = "stream/";
+
     @JsonProperty(required = true)
     private String appId;
     @JsonProperty(required = true)
     private String streamArn;
     @JsonProperty(required = false)
     private boolean enabled = true;
+
+    public AppIdStream() {
+    }
+
+    public AppIdStream(final String appId, final String streamArn, final boolean enabled) {
+        this.appId = appId;
+        this.streamArn = streamArn;
+        this.enabled = enabled;
+    }
+
+    /**
+     * The name of the sink stream, read from an arn in the form arn:partition:kinesis:region:account:stream/name.
+     */
+    public String getStreamName() {
+        String streamName = parseStreamName(streamArn);
+        if (streamName == null) {
+            throw new ClickstreamException("Invalid Kinesis stream arn: " + streamArn + " of appId: " + appId);
+        }
+        return streamName;
+    }
+
+    public boolean hasValidStreamArn() {
+        return parseStreamName(streamArn) != null;
+    }
+
+    static String parseStreamName(final String streamArn) {
+        if (streamArn == null) {
+            return null;
+        }
+        String[] arnParts = streamArn.split(":", ARN_PARTS);
+        if (arnParts.length != ARN_PARTS || !"arn".equals(arnParts[0]) || !"kinesis".equals(arnParts[2])
+                || !arnParts[ARN_PARTS - 1].startsWith(STREAM_RESOURCE_PREFIX)) {
+            return null;
+        }
+        String streamName = arnParts[ARN_PARTS - 1].substring(STREAM_RESOURCE_PREFIX.length());
+        return streamName.isEmpty() || streamName.indexOf('/') >= 0 ? null : streamName;
+    }
 }
@@ -0,0 +1,71 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.streaming.api.functions.source.RichSourceFunction;
+
+import java.util.List;
+
+/**
+ * Emits the appId stream config, and then every change of it, so that the routing follows the config without a restart.
+ * A config stored in s3 is polled, a config given as content never changes and is emitted once.
+ */
+@Slf4j
+public class AppIdStreamConfigSource extends RichSourceFunction<List<AppIdStream>> {
+    public static final TypeInformation<List<AppIdStream>> TYPE_INFO = Types.LIST(AppIdStream.TYPE_INFO);
+    private static final long serialVersionUID = 1L;
+
+    private final String appIdStreamConfig;
+    private final String region;
+    private final long refreshIntervalMillis;
+    private volatile boolean running = true;
+
+    public AppIdStreamConfigSource(final String appIdStreamConfig, final String region, final long refreshIntervalMillis) {
+        this.appIdStreamConfig = appIdStreamConfig;
+        this.region = region;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    @Override
+    public void run(final SourceContext<List<AppIdStream>> ctx) throws Exception {
+        String lastContent = null;
+        while (running) {
+            try {
+                String content = ApplicationParameters.readConfigContent(appIdStreamConfig, region);
+                if (!content.equals(lastContent)) {
+                    List<AppIdStream> appIdStreamList = ApplicationParameters.parseConfig(content);
+                    synchronized (ctx.getCheckpointLock()) {
+                        ctx.collect(appIdStreamList);
+                    }
+                    lastContent = content;
+                }
+            } catch (Exception e) {
+                // keep routing with the last config
+                log.warn("Failed to refresh appIdStreamConfig: {}, error: {}", appIdStreamConfig, e.getMessage());
+            }
+            if (!ApplicationParameters.isS3Path(appIdStreamConfig)) {
+                return;
+            }
+            Thread.sleep(refreshIntervalMillis);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        running = false;
+    }
+}
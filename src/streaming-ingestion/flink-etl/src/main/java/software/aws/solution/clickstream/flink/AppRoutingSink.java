@@ -0,0 +1,133 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.api.connector.sink2.Sink;
+import org.apache.flink.api.connector.sink2.SinkWriter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sink for all apps, the records are written to the sink stream they were routed to.
+ * Flink cannot add sinks to a running job, so the writer of an app stream is created when its first record arrives
+ * and replaced when the app is moved to another stream.
+ * The records of a disabled app are no longer routed here, so the writer of an app that has received no record
+ * between two checkpoints and for longer than the idle timeout is closed, it is created again if the app comes back.
+ */
+@Slf4j
+public class AppRoutingSink implements Sink<SinkRecord> {
+    private static final long serialVersionUID = 1L;
+    private static final long DEFAULT_IDLE_WRITER_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private final StreamSourceAndSinkProvider sinkProvider;
+    private final long idleWriterTimeoutMillis;
+
+    public AppRoutingSink(final StreamSourceAndSinkProvider sinkProvider) {
+        this(sinkProvider, DEFAULT_IDLE_WRITER_TIMEOUT_MILLIS);
+    }
+
+    public AppRoutingSink(final StreamSourceAndSinkProvider sinkProvider, final long idleWriterTimeoutMillis) {
+        this.sinkProvider = sinkProvider;
+        this.idleWriterTimeoutMillis = idleWriterTimeoutMillis;
+    }
+
+    @Override
+    public SinkWriter<SinkRecord> createWriter(final InitContext context) {
+        return new AppRoutingSinkWriter(sinkProvider, context, idleWriterTimeoutMillis);
+    }
+
+    private static final class AppRoutingSinkWriter implements SinkWriter<SinkRecord> {
+        private final StreamSourceAndSinkProvider sinkProvider;
+        private final InitContext initContext;
+        private final long idleWriterTimeoutMillis;
+        private final Map<String, AppStreamWriter> appWriters = new HashMap<>();
+
+        AppRoutingSinkWriter(final StreamSourceAndSinkProvider sinkProvider, final InitContext initContext, final long idleWriterTimeoutMillis) {
+            this.sinkProvider = sinkProvider;
+            this.initContext = initContext;
+            this.idleWriterTimeoutMillis = idleWriterTimeoutMillis;
+        }
+
+        @Override
+        public void write(final SinkRecord element, final Context context) throws IOException, InterruptedException {
+            AppStreamWriter appWriter = appWriters.get(element.getAppId());
+            if (appWriter == null || !appWriter.streamArn.equals(element.getStreamArn())) {
+                if (appWriter != null) {
+                    log.info("appId: {} is moved from {} to {}", element.getAppId(), appWriter.streamArn, element.getStreamArn());
+                    closeWriter(appWriter);
+                }
+                AppIdStream appIdStream = new AppIdStream(element.getAppId(), element.getStreamArn(), true);
+                appWriter = new AppStreamWriter(element.getStreamArn(), sinkProvider.createSink(appIdStream).createWriter(initContext));
+                appWriters.put(element.getAppId(), appWriter);
+            }
+            appWriter.writer.write(element.getValue(), context);
+            appWriter.lastWriteMillis = System.currentTimeMillis();
+            appWriter.writtenSinceFlush = true;
+        }
+
+        @Override
+        public void flush(final boolean endOfInput) throws IOException, InterruptedException {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<String, AppStreamWriter>> entries = appWriters.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, AppStreamWriter> entry = entries.next();
+                AppStreamWriter appWriter = entry.getValue();
+                if (!appWriter.writtenSinceFlush && now - appWriter.lastWriteMillis >= idleWriterTimeoutMillis) {
+                    log.info("appId: {} has no record for {} ms, close its writer of {}", entry.getKey(), now - appWriter.lastWriteMillis, appWriter.streamArn);
+                    closeWriter(appWriter);
+                    entries.remove();
+                } else {
+                    // flush everything on checkpoints, the app writers are not part of the checkpointed state
+                    appWriter.writer.flush(true);
+                    appWriter.writtenSinceFlush = false;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            for (AppStreamWriter appWriter : appWriters.values()) {
+                appWriter.writer.close();
+            }
+            appWriters.clear();
+        }
+
+        private static void closeWriter(final AppStreamWriter appWriter) throws IOException, InterruptedException {
+            appWriter.writer.flush(true);
+            try {
+                appWriter.writer.close();
+            } catch (IOException | InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static final class AppStreamWriter {
+        private final String streamArn;
+        private final SinkWriter<String> writer;
+        private long lastWriteMillis;
+        private boolean writtenSinceFlush;
+
+        AppStreamWriter(final String streamArn, final SinkWriter<String> writer) {
+            this.streamArn = streamArn;
+            this.writer = writer;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -28,21 +29,28 @@ import java.util.Properties;
 @Getter
 @ToString
 @Slf4j
-public class ApplicationParameters {
+public class ApplicationParameters implements Serializable {
     public static final String ENVIRONMENT_PROPERTIES = "EnvironmentProperties";
+    private static final long serialVersionUID = 1L;
     private static final String DATA_BUCKET_NAME = "dataBucketName";
     private static final String APP_ID_STREAM_CONFIG = "appIdStreamConfig";
     private static final String PROJECT_ID = "projectId";
     private static final String GEO_FILE_KEY = "geoFileKey";
     private static final String INPUT_STREAM_ARN = "inputStreamArn";
+    private static final String GEO_FILE_REFRESH_INTERVAL_MINUTES = "geoFileRefreshIntervalMinutes";
+    private static final long DEFAULT_GEO_FILE_REFRESH_INTERVAL_MINUTES = 60;
+    private static final String APP_ID_STREAM_CONFIG_REFRESH_INTERVAL_SECONDS = "appIdStreamConfigRefreshIntervalSeconds";
+    private static final long DEFAULT_APP_ID_STREAM_CONFIG_REFRESH_INTERVAL_SECONDS = 30;
 
     private String dataBucketName;
     private String region;
     private String geoFileKey;
+    private long geoFileRefreshIntervalMinutes = DEFAULT_GEO_FILE_REFRESH_INTERVAL_MINUTES;
     private String inputStreamArn;
     private String inputStreamName;
     private String projectId;
     private String appIdStreamConfig;
+    private long appIdStreamConfigRefreshIntervalSeconds = DEFAULT_APP_ID_STREAM_CONFIG_REFRESH_INTERVAL_SECONDS;
     private List<AppIdStream> appIdStreamList;
     private int parallelism = 0;
 
@@ -55,6 +63,8 @@ public class ApplicationParameters {
         String projectId = props.getProperty(PROJECT_ID);
         parameters.setDataBucketName(bucket);
         parameters.setGeoFileKey(props.getProperty(GEO_FILE_KEY));
+        parameters.setGeoFileRefreshIntervalMinutes(Long.parseLong(
+                props.getProperty(GEO_FILE_REFRESH_INTERVAL_MINUTES, String.valueOf(DEFAULT_GEO_FILE_REFRESH_INTERVAL_MINUTES))));
         parameters.setInputStreamArn(inputStreamArn);
         parameters.setProjectId(projectId);
 
@@ -62,6 +72,8 @@ public class ApplicationParameters {
         String appIdStreamConfig = props.getProperty(APP_ID_STREAM_CONFIG, defaultConfigS3Path);
         log.info("AppIdStreamConfig: {}", appIdStreamConfig);
         parameters.setAppIdStreamConfig(appIdStreamConfig);
+        parameters.setAppIdStreamConfigRefreshIntervalSeconds(Long.parseLong(
+                props.getProperty(APP_ID_STREAM_CONFIG_REFRESH_INTERVAL_SECONDS, String.valueOf(DEFAULT_APP_ID_STREAM_CONFIG_REFRESH_INTERVAL_SECONDS))));
 
         parameters.setRegion(region);
         parameters.setAppIdStreamList(getConfig(parameters.getAppIdStreamConfig(), region));
@@ -76,14 +88,7 @@ public class ApplicationParameters {
             return new ArrayList<>();
         }
         try {
-            String contentStr = s3PathOrStringContent;
-            if (s3PathOrStringContent.startsWith("s3://")) {
-                log.info("Get config from s3: {}", s3PathOrStringContent);
-                contentStr = Utils.getInstance().readS3TextFile(s3PathOrStringContent, region);
-            }
-            log.info("Config content: {}", contentStr);
-            AppIdSteamConfig appIdSteamConfigs = Utils.fromJson(contentStr, AppIdSteamConfig.class);
-            return appIdSteamConfigs.getAppIdStreamList();
+            return parseConfig(readConfigContent(s3PathOrStringContent, region));
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             log.warn("return empty config");
@@ -91,6 +96,27 @@ public class ApplicationParameters {
         }
     }
 
+    /**
+     * Read the raw config, from s3 when the value is an s3 path, otherwise the value is the config content itself.
+     */
+    public static String readConfigContent(final String s3PathOrStringContent, final String region) throws IOException {
+        if (isS3Path(s3PathOrStringContent)) {
+            log.info("Get config from s3: {}", s3PathOrStringContent);
+            return Utils.getInstance().readS3TextFile(s3PathOrStringContent, region);
+        }
+        return s3PathOrStringContent;
+    }
+
+    public static List<AppIdStream> parseConfig(final String contentStr) throws IOException {
+        log.info("Config content: {}", contentStr);
+        AppIdSteamConfig appIdSteamConfigs = Utils.fromJson(contentStr, AppIdSteamConfig.class);
+        return appIdSteamConfigs.getAppIdStreamList();
+    }
+
+    public static boolean isS3Path(final String s3PathOrStringContent) {
+        return s3PathOrStringContent.startsWith("s3://");
+    }
+
     private static ApplicationParameters fromArgs(final String[] args) {
         ApplicationParameters parameters = new ApplicationParameters();
         parameters.setDataBucketName(args[0]);
@@ -0,0 +1,40 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+
+/**
+ * One event of an ingest record, the event JSON is carried as UTF-8 bytes so crossing an operator
+ * boundary costs a byte array copy rather than a Kryo copy of a Jackson tree.
+ */
+@Getter
+@Setter
+public class ExplodedEvent {
+    public static final TypeInformation<ExplodedEvent> TYPE_INFO = Types.POJO(ExplodedEvent.class);
+
+    private IngestEnvelope ingest;
+    private byte[] data;
+
+    public ExplodedEvent() {
+    }
+
+    public ExplodedEvent(final IngestEnvelope ingest, final byte[] data) {
+        this.ingest = ingest;
+        this.data = data;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Ingest record read from the source stream, only the fields used by the transformation are kept.
+ * It is a Flink POJO, so it is serialized field by field instead of falling back to Kryo.
+ */
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class IngestEnvelope {
+    public static final TypeInformation<IngestEnvelope> TYPE_INFO = Types.POJO(IngestEnvelope.class);
+
+    @JsonProperty("appId")
+    private String appId;
+    @JsonProperty("data")
+    private String data;
+    /**
+     * Null when the record has no ingest time, the transformed event then has no ingest timestamp.
+     */
+    @JsonProperty("ingest_time")
+    private Long ingestTime;
+    @JsonProperty("ip")
+    private String ip;
+    @JsonProperty("platform")
+    private String platform;
+    @JsonProperty("rid")
+    private String rid;
+    @JsonProperty("ua")
+    private String ua;
+    @JsonProperty("uri")
+    private String uri;
+    /**
+     * Sink stream of the app, resolved from the routing config when the envelope is routed.
+     */
+    @JsonIgnore
+    private String sinkStreamArn;
+
+    /**
+     * Copy of this envelope without the data field, shared by the events exploded from it.
+     */
+    public IngestEnvelope withoutData() {
+        IngestEnvelope envelope = new IngestEnvelope();
+        envelope.setAppId(this.appId);
+        envelope.setIngestTime(this.ingestTime);
+        envelope.setIp(this.ip);
+        envelope.setPlatform(this.platform);
+        envelope.setRid(this.rid);
+        envelope.setUa(this.ua);
+        envelope.setUri(this.uri);
+        envelope.setSinkStreamArn(this.sinkStreamArn);
+        return envelope;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+
+/**
+ * Transformed event with the app and the sink stream it is routed to.
+ */
+@Getter
+@Setter
+public class SinkRecord {
+    public static final TypeInformation<SinkRecord> TYPE_INFO = Types.POJO(SinkRecord.class);
+
+    private String appId;
+    private String streamArn;
+    private String value;
+
+    public SinkRecord() {
+    }
+
+    public SinkRecord(final String appId, final String streamArn, final String value) {
+        this.appId = appId;
+        this.streamArn = streamArn;
+        this.value = value;
+    }
+}
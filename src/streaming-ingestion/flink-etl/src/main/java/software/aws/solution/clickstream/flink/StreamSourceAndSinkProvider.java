@@ -16,7 +16,12 @@ package software.aws.solution.clickstream.flink;
 import org.apache.flink.api.connector.sink2.Sink;
 import org.apache.flink.streaming.api.functions.source.SourceFunction;
 
-public interface StreamSourceAndSinkProvider {
+import java.io.Serializable;
+
+/**
+ * Creates the job source and the per app sinks, the sinks are created on the task managers when an app is first seen.
+ */
+public interface StreamSourceAndSinkProvider extends Serializable {
     SourceFunction<String> createSource();
-    Sink<String> createSink(String appId);
+    Sink<String> createSink(AppIdStream appIdStream);
 }
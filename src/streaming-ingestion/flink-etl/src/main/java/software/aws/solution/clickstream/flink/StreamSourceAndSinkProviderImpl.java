@@ -27,6 +27,7 @@ import static org.apache.flink.streaming.connectors.kinesis.config.ConsumerConfi
 
 @Slf4j
 public class StreamSourceAndSinkProviderImpl implements StreamSourceAndSinkProvider {
+    private static final long serialVersionUID = 1L;
     private final ApplicationParameters props;
 
     public StreamSourceAndSinkProviderImpl(final ApplicationParameters props) {
@@ -49,12 +50,12 @@ public class StreamSourceAndSinkProviderImpl implements StreamSourceAndSinkProvi
     }
 
     @Override
-    public Sink<String> createSink(final String appId) {
+    public Sink<String> createSink(final AppIdStream appIdStream) {
         Properties sinkProperties = new Properties();
         // Required
         sinkProperties.put(AWSConfigConstants.AWS_REGION, props.getRegion());
-        String sinkStreamName = props.getSinkStreamNameByAppId(appId);
-        log.info("createSink appId: {}, sinkStreamName: {}", appId, sinkStreamName);
+        String sinkStreamName = appIdStream.getStreamName();
+        log.info("createSink appId: {}, sinkStreamName: {}", appIdStream.getAppId(), sinkStreamName);
 
         return KinesisStreamsSink.<String>builder()
                 .setKinesisClientProperties(sinkProperties)
@@ -14,28 +14,23 @@
 package software.aws.solution.clickstream.flink;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.flink.api.connector.sink2.Sink;
-import org.apache.flink.api.java.tuple.Tuple2;
-import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.JsonNode;
+import org.apache.flink.streaming.api.datastream.BroadcastStream;
 import org.apache.flink.streaming.api.datastream.DataStream;
-import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
 import org.apache.flink.streaming.api.environment.LocalStreamEnvironment;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
 import org.apache.flink.streaming.api.functions.source.SourceFunction;
-import org.apache.flink.util.OutputTag;
 import software.aws.solution.clickstream.function.ExplodeDataFlatMapFunction;
 import software.aws.solution.clickstream.function.RouteProcessFunction;
 import software.aws.solution.clickstream.function.TransformDataMapFunction;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class StreamingJob {
     private final StreamSourceAndSinkProvider streamProvider;
     private final ApplicationParameters props;
-    private final HashMap<String, Sink<String>> appSinkMap = new HashMap<>();
     private final ArrayList<String> appIds = new ArrayList<>();
     private final StreamExecutionEnvironment env;
 
@@ -48,10 +43,7 @@ public class StreamingJob {
 
         for (AppIdStream appIdStreamMap : this.props.getAppIdStreamList()) {
             if (appIdStreamMap.isEnabled()) {
-                String appId = appIdStreamMap.getAppId();
-                Sink<String> sink = this.streamProvider.createSink(appId);
-                appSinkMap.put(appId, sink);
-                appIds.add(appId);
+                appIds.add(appIdStreamMap.getAppId());
             }
         }
     }
@@ -61,55 +53,47 @@ public class StreamingJob {
         ApplicationParameters props = ApplicationParameters.loadApplicationParameters(args, env instanceof LocalStreamEnvironment);
         StreamSourceAndSinkProvider streamSourceAndSinkProvider = new StreamSourceAndSinkProviderImpl(props);
         StreamingJob job = new StreamingJob(env, streamSourceAndSinkProvider, props);
-        if (job.executeStreamJob()) {
-            env.execute("Clickstream application " + String.join("-", job.appIds));
-        }
+        job.executeStreamJob();
+        env.execute("Clickstream application " + props.getProjectId());
     }
 
 
-    public boolean executeStreamJob() {
+    public void executeStreamJob() {
         if (appIds.isEmpty()) {
-            log.error("No appId is enabled, exit");
-            return false;
+            // the routing follows the config, the records are dropped until an app is enabled in it
+            log.warn("No appId is enabled yet, start routing with the appId stream config: {}", props.getAppIdStreamConfig());
+        } else {
+            log.info("Enabled appId list: {}", appIds);
         }
-
-        log.info("Enabled appId list: {}", appIds);
         SourceFunction<String> kinesisSource = this.streamProvider.createSource();
         DataStream<String> inputStream = env.addSource(kinesisSource, "Kinesis source");
         runWithFlink(inputStream);
-        return true;
     }
 
     private void runWithFlink(final DataStream<String> inputStream) {
-
-        RouteProcessFunction processFunction = new RouteProcessFunction(appIds);
-        Map<String, OutputTag<JsonNode>> sideAppOutputTagMap = processFunction.getSideAppOutputTagMap();
-        SingleOutputStreamOperator<JsonNode> mainStream = inputStream.process(processFunction);
-
-        String defaultAppId = appIds.get(0);
-        transformAndSink(defaultAppId, mainStream, appSinkMap.get(defaultAppId));
-
-        for (Map.Entry<String, OutputTag<JsonNode>> entry : sideAppOutputTagMap.entrySet()) {
-            String appId = entry.getKey();
-            DataStream<JsonNode> sideAppStream = mainStream.getSideOutput(entry.getValue());
-            Sink<String> outKinesisSink = appSinkMap.get(appId);
-            transformAndSink(appId, sideAppStream, outKinesisSink);
-        }
-
-    }
-
-    private void transformAndSink(final String appId, final DataStream<JsonNode> inputStream,
-                                  final Sink<String> outKinesisSink) {
         String projectId = props.getProjectId();
         String bucketName = props.getDataBucketName();
         String geoFileKey = props.getGeoFileKey();
         String region = props.getRegion();
-
-        log.info("transformAndSink appId: {}", appId);
-        DataStream<Tuple2<JsonNode, JsonNode>> explodedData = inputStream.flatMap(new ExplodeDataFlatMapFunction(appId)).name("ExplodeDataFlatMapFunction" + appId);
-        DataStream<String> transformedData = explodedData.map(new TransformDataMapFunction(appId, projectId, bucketName, geoFileKey, region))
-                .name("TransformDataMapFunction" + appId);
-        transformedData.sinkTo(outKinesisSink).name(appId);
+        long geoFileRefreshIntervalMillis = TimeUnit.MINUTES.toMillis(props.getGeoFileRefreshIntervalMinutes());
+        long configRefreshIntervalMillis = TimeUnit.SECONDS.toMillis(props.getAppIdStreamConfigRefreshIntervalSeconds());
+
+        // apps are enabled, disabled or moved to another sink stream by updating the config, without restarting the job
+        BroadcastStream<List<AppIdStream>> configStream = env
+                .addSource(new AppIdStreamConfigSource(props.getAppIdStreamConfig(), region, configRefreshIntervalMillis),
+                        "AppIdStreamConfig source", AppIdStreamConfigSource.TYPE_INFO)
+                .setParallelism(1)
+                .broadcast(RouteProcessFunction.APP_ID_STREAM_STATE);
+
+        DataStream<IngestEnvelope> routedStream = inputStream.connect(configStream)
+                .process(new RouteProcessFunction(props.getAppIdStreamList()), IngestEnvelope.TYPE_INFO)
+                .name("RouteProcessFunction");
+        DataStream<ExplodedEvent> explodedData = routedStream.flatMap(new ExplodeDataFlatMapFunction(), ExplodedEvent.TYPE_INFO)
+                .name("ExplodeDataFlatMapFunction");
+        DataStream<SinkRecord> transformedData = explodedData.map(new TransformDataMapFunction(projectId, bucketName, geoFileKey, region, geoFileRefreshIntervalMillis),
+                        SinkRecord.TYPE_INFO)
+                .name("TransformDataMapFunction");
+        transformedData.sinkTo(new AppRoutingSink(streamProvider)).name("AppRoutingSink");
     }
 
 }
@@ -21,17 +21,19 @@ import org.apache.flink.kinesis.shaded.com.amazonaws.services.s3.model.S3Object;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.JsonNode;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.ObjectMapper;
+import software.aws.solution.clickstream.common.DataDecoder;
 import software.aws.solution.clickstream.plugin.transformer.KvTransformer;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
-import java.util.zip.GZIPInputStream;
 
 @Slf4j
 public final class Utils {
@@ -76,8 +78,8 @@ public final class Utils {
     public static StringBuilder gzipBytesToString(final byte[] decodedBytes) throws IOException {
         StringBuilder output = new StringBuilder();
         try (
-                GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(decodedBytes));
-                BufferedReader br = new BufferedReader(new InputStreamReader(gzip, StandardCharsets.UTF_8))
+                InputStream inflated = DataDecoder.inflate(decodedBytes);
+                BufferedReader br = new BufferedReader(new InputStreamReader(inflated, StandardCharsets.UTF_8))
         ) {
             String line;
             while ((line = br.readLine()) != null) {
@@ -126,6 +128,36 @@ public final class Utils {
         }
     }
 
+    public File downloadS3File(final String bucket, final String key, final String awsRegion) throws IOException {
+        // for test local, set bucket to "_" and key to local file
+        if ("_".equals(bucket)) {
+            return new File(key);
+        }
+        File localFile = File.createTempFile("clickstream-", "-" + new File(key).getName());
+        localFile.deleteOnExit();
+        S3Object s3Object = this.getS3Client(awsRegion).getObject(bucket, key);
+        try (InputStream s3Inputstream = s3Object.getObjectContent()) {
+            Files.copy(s3Inputstream, localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return localFile;
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            Files.deleteIfExists(localFile.toPath());
+            throw e;
+        }
+    }
+
+    public String getS3ObjectVersion(final String bucket, final String key, final String awsRegion) throws IOException {
+        // for test local, set bucket to "_" and key to local file
+        if ("_".equals(bucket)) {
+            File localfile = new File(key);
+            if (!localfile.isFile()) {
+                throw new FileNotFoundException(key);
+            }
+            return localfile.lastModified() + "-" + localfile.length();
+        }
+        return this.getS3Client(awsRegion).getObjectMetadata(bucket, key).getETag();
+    }
+
     public static long getCurrentTimeMillis() {
         if (System.getProperty("_LOCAL_TEST_TIME") != null) {
             return Long.parseLong(System.getProperty("_LOCAL_TEST_TIME"));
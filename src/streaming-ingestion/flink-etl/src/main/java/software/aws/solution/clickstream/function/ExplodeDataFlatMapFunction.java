@@ -15,85 +15,73 @@ package software.aws.solution.clickstream.function;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flink.api.common.functions.FlatMapFunction;
-import org.apache.flink.api.java.tuple.Tuple2;
-import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.JsonNode;
-import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.core.JsonFactory;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.core.JsonParser;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.core.JsonToken;
 import org.apache.flink.util.Collector;
+import software.aws.solution.clickstream.common.DataDecoder;
 import software.aws.solution.clickstream.flink.ClickstreamException;
+import software.aws.solution.clickstream.flink.ExplodedEvent;
+import software.aws.solution.clickstream.flink.IngestEnvelope;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.Iterator;
-
-import static software.aws.solution.clickstream.flink.Utils.gzipBytesToString;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 
+/**
+ * Emits the events of an ingest record one by one. The data is decompressed while it is parsed and the event array is
+ * walked token by token, each event is copied out as soon as it is complete, so the memory used for a record
+ * is bounded by its largest event rather than by the whole decompressed bundle.
+ */
 @Slf4j
-public class ExplodeDataFlatMapFunction implements FlatMapFunction<JsonNode, Tuple2<JsonNode, JsonNode>> {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-    private final String appId;
+public class ExplodeDataFlatMapFunction implements FlatMapFunction<IngestEnvelope, ExplodedEvent> {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int BUFFER_SIZE = 8192;
+    private transient ByteArrayOutputStream eventBuffer;
 
-    public ExplodeDataFlatMapFunction(final String appId) {
-        this.appId = appId;
-    }
-    private static JsonNode decodeData(final String dataText) {
-        JsonNode dataNode;
+    private static JsonParser createParser(final String dataText) throws IOException {
         if (dataText.startsWith("[") || dataText.startsWith("{")) {
-            try {
-                dataNode = OBJECT_MAPPER.readTree(dataText);
-            } catch (Exception e) {
-                log.warn("decodeData json error, dataText: {}, error: {}", dataText, e.getMessage());
-                return null;
-            }
-        } else {
-            try {
-                byte[] decodedBytes = Base64.getDecoder().decode(dataText.getBytes(StandardCharsets.UTF_8));
-                StringBuilder output = gzipBytesToString(decodedBytes);
-                return OBJECT_MAPPER.readValue(output.toString(), JsonNode.class);
-            } catch (Exception e) {
-                log.warn("decodeData gzip error, dataText: {}, error {}", dataText, e.getMessage());
-                return null;
-            }
+            return JSON_FACTORY.createParser(dataText);
         }
-        return dataNode;
+        // the pooled decoder of the thread inflates the payload while the parser reads, closing the parser gives it back
+        return JSON_FACTORY.createParser(DataDecoder.inflateBase64(dataText));
     }
 
     @Override
-    public void flatMap(final JsonNode value, final Collector<Tuple2<JsonNode, JsonNode>> out) {
-        try {
-            JsonNode jsonNode = value;
-            String dataText = jsonNode.get("data").asText();
-            JsonNode dataNode = decodeData(dataText);
-
-            if (dataNode == null) {
-                log.warn("decodeData error, appId: {}, dataText: {}", this.appId, dataText);
+    public void flatMap(final IngestEnvelope value, final Collector<ExplodedEvent> out) {
+        String dataText = value.getData();
+        IngestEnvelope ingest = value.withoutData();
+        int emitted = 0;
+        try (JsonParser parser = createParser(dataText)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                log.warn("decodeData error, appId: {}, dataText: {}", value.getAppId(), dataText);
                 return;
             }
-
-            ObjectNode ingestNode = OBJECT_MAPPER.createObjectNode();
-            ingestNode.set("date", jsonNode.get("date"));
-            ingestNode.put("ingest_time", jsonNode.get("ingest_time").asLong());
-            ingestNode.set("ip", jsonNode.get("ip"));
-            ingestNode.set("method", jsonNode.get("method"));
-            ingestNode.set("path", jsonNode.get("path"));
-            ingestNode.set("platform", jsonNode.get("platform"));
-            ingestNode.set("rid", jsonNode.get("rid"));
-            ingestNode.put("server_ingest_time", jsonNode.get("server_ingest_time").asLong());
-            ingestNode.set("source_type", jsonNode.get("source_type"));
-            ingestNode.set("timestamp", jsonNode.get("timestamp"));
-            ingestNode.set("ua", jsonNode.get("ua"));
-            ingestNode.set("uri", jsonNode.get("uri"));
-
-            if (dataNode.isArray()) {
-                Iterator<JsonNode> iterator = dataNode.elements();
-                while (iterator.hasNext()) {
-                    out.collect(new Tuple2<>(ingestNode, iterator.next()));
-                }
-            } else {
-                out.collect(new Tuple2<>(ingestNode, dataNode));
+            if (token != JsonToken.START_ARRAY) {
+                out.collect(new ExplodedEvent(ingest, copyEvent(parser)));
+                return;
             }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                out.collect(new ExplodedEvent(ingest, copyEvent(parser)));
+                emitted++;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // the events before the broken part of the data have been emitted already
+            log.warn("decodeData error, appId: {}, emitted events: {}, dataText: {}, error: {}", value.getAppId(), emitted, dataText, e.getMessage());
         } catch (Exception e) {
             throw new ClickstreamException(e);
         }
     }
+
+    private byte[] copyEvent(final JsonParser parser) throws IOException {
+        if (eventBuffer == null) {
+            eventBuffer = new ByteArrayOutputStream(BUFFER_SIZE);
+        }
+        eventBuffer.reset();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(eventBuffer)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return eventBuffer.toByteArray();
+    }
 }
@@ -13,75 +13,105 @@
 
 package software.aws.solution.clickstream.function;
 
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.core.JsonParseException;
-import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.JsonNode;
+import org.apache.flink.api.common.state.BroadcastState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.state.ReadOnlyBroadcastState;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.flink.streaming.api.functions.ProcessFunction;
+import org.apache.flink.streaming.api.functions.co.BroadcastProcessFunction;
 import org.apache.flink.util.Collector;
-import org.apache.flink.util.OutputTag;
+import software.aws.solution.clickstream.flink.AppIdStream;
+import software.aws.solution.clickstream.flink.IngestEnvelope;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
+/**
+ * Routes the ingested records of the enabled apps to their sink streams.
+ * The routing follows the appId stream config held in broadcast state, the config the job started with
+ * is used until the first config is broadcast.
+ */
 @Slf4j
-public class RouteProcessFunction extends ProcessFunction<String, JsonNode> {
+public class RouteProcessFunction extends BroadcastProcessFunction<String, List<AppIdStream>, IngestEnvelope> {
+    public static final MapStateDescriptor<String, AppIdStream> APP_ID_STREAM_STATE = new MapStateDescriptor<>(
+            "app-id-stream-config", Types.STRING, AppIdStream.TYPE_INFO);
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-    private final List<String> appIds;
-    @Getter
-    private final Map<String, OutputTag<JsonNode>> sideAppOutputTagMap;
+    private final Map<String, AppIdStream> initialAppIdStreams = new HashMap<>();
 
-    public RouteProcessFunction(final List<String> appIds) {
-        this.appIds = appIds;
-        this.sideAppOutputTagMap = new HashMap<>();
-        if (appIds.size() > 1) {
-            for (int i = 1; i < appIds.size(); i++) {
-                String appId = appIds.get(i);
-                OutputTag<JsonNode> outputTag = new OutputTag<>("side-output-" + appId) {
-                };
-                sideAppOutputTagMap.put(appId, outputTag);
-            }
+    public RouteProcessFunction(final List<AppIdStream> appIdStreamList) {
+        for (AppIdStream appIdStream : appIdStreamList) {
+            initialAppIdStreams.put(appIdStream.getAppId(), routable(appIdStream));
         }
     }
 
     @Override
-    public void processElement(final String value, final ProcessFunction<String, JsonNode>.Context ctx, final Collector<JsonNode> out) throws Exception {
-        JsonNode jsonNode = null;
+    public void processElement(final String value, final ReadOnlyContext ctx, final Collector<IngestEnvelope> out) throws Exception {
+        IngestEnvelope envelope;
         try {
-            jsonNode = OBJECT_MAPPER.readValue(value, JsonNode.class);
-        } catch (JsonParseException e) {
-            log.warn("JsonParseException: {}, value: {}", e.getMessage(), value);
+            envelope = OBJECT_MAPPER.readValue(value, IngestEnvelope.class);
+        } catch (JsonProcessingException e) {
+            log.warn("JsonProcessingException: {}, value: {}", e.getMessage(), value);
             return;
         }
 
-        if (!jsonNode.hasNonNull("appId")) {
+        String appId = envelope.getAppId();
+        if (appId == null) {
             log.warn("appId is null in value: {}", value);
             return;
         }
-        String appId = jsonNode.get("appId").asText();
 
-        if (!appIds.contains(appId)) {
-            log.warn("appId: {} is not in appIdList: {}", appId, appIds);
+        AppIdStream appIdStream = getAppIdStream(ctx.getBroadcastState(APP_ID_STREAM_STATE), appId);
+        if (appIdStream == null || !appIdStream.isEnabled()) {
+            log.warn("appId: {} is not enabled", appId);
             return;
         }
 
-        if (!jsonNode.hasNonNull("data")) {
+        if (envelope.getData() == null) {
             log.warn("data is null in value: {}", value);
             return;
         }
 
-        if (jsonNode.get("data").asText().isEmpty()) {
+        if (envelope.getData().isEmpty()) {
             log.warn("appId: {}, data is empty", appId);
             return;
         }
 
-        if (appIds.get(0).equals(appId)) {
-            out.collect(jsonNode);
-        } else {
-            ctx.output(sideAppOutputTagMap.get(appId), jsonNode);
+        envelope.setSinkStreamArn(appIdStream.getStreamArn());
+        out.collect(envelope);
+    }
+
+    @Override
+    public void processBroadcastElement(final List<AppIdStream> value, final Context ctx, final Collector<IngestEnvelope> out) throws Exception {
+        BroadcastState<String, AppIdStream> state = ctx.getBroadcastState(APP_ID_STREAM_STATE);
+        state.clear();
+        for (AppIdStream appIdStream : value) {
+            state.put(appIdStream.getAppId(), routable(appIdStream));
+        }
+        log.info("appIdStreamConfig updated, enabled appId list: {}",
+                value.stream().filter(AppIdStream::isEnabled).map(AppIdStream::getAppId).collect(Collectors.toList()));
+    }
+
+    /**
+     * An app whose sink stream arn is invalid is kept as disabled, the sink could not write its records.
+     */
+    private static AppIdStream routable(final AppIdStream appIdStream) {
+        if (!appIdStream.isEnabled() || appIdStream.hasValidStreamArn()) {
+            return appIdStream;
         }
+        log.error("appId: {} is disabled, invalid sink stream arn: {}", appIdStream.getAppId(), appIdStream.getStreamArn());
+        return new AppIdStream(appIdStream.getAppId(), appIdStream.getStreamArn(), false);
+    }
 
+    private AppIdStream getAppIdStream(final ReadOnlyBroadcastState<String, AppIdStream> state, final String appId) throws Exception {
+        AppIdStream appIdStream = state.get(appId);
+        if (appIdStream == null && !state.immutableEntries().iterator().hasNext()) {
+            // no config has been broadcast yet
+            appIdStream = initialAppIdStreams.get(appId);
+        }
+        return appIdStream;
     }
 }
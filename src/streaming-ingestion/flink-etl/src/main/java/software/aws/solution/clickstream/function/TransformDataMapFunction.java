@@ -14,14 +14,17 @@
 package software.aws.solution.clickstream.function;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.flink.api.common.functions.MapFunction;
-import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.configuration.Configuration;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.JsonNode;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.node.ObjectNode;
+import software.aws.solution.clickstream.common.Cache;
+import software.aws.solution.clickstream.flink.ExplodedEvent;
+import software.aws.solution.clickstream.flink.IngestEnvelope;
+import software.aws.solution.clickstream.flink.SinkRecord;
 import software.aws.solution.clickstream.flink.Utils;
-import software.aws.solution.clickstream.plugin.enrich.Enrichment;
 import software.aws.solution.clickstream.plugin.enrich.IPEnrichment;
 import software.aws.solution.clickstream.plugin.transformer.DeviceTransformer;
 import software.aws.solution.clickstream.plugin.transformer.JsonObjectNode;
@@ -32,6 +35,7 @@ import software.aws.solution.clickstream.plugin.transformer.Transformer;
 import software.aws.solution.clickstream.plugin.transformer.URITransformer;
 import software.aws.solution.clickstream.plugin.transformer.UserKvObjectNode;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -46,7 +50,7 @@ import static software.aws.solution.clickstream.flink.Utils.getCurrentTimeMillis
 import static software.aws.solution.clickstream.flink.Utils.getValueType;
 
 @Slf4j
-public class TransformDataMapFunction implements MapFunction<Tuple2<JsonNode, JsonNode>, String> {
+public class TransformDataMapFunction extends RichMapFunction<ExplodedEvent, SinkRecord> {
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     public static final String APP_ID = "app_id";
     public static final String TIMESTAMP = "timestamp";
@@ -60,18 +64,17 @@ public class TransformDataMapFunction implements MapFunction<Tuple2<JsonNode, Js
     public static final String TRAFFIC_SOURCE = "_traffic_source_";
     public static final String PRIVACY_INFO = "_privacy_info_";
     public static final String USER_LTV = "_user_ltv_";
-    private final String appId;
     private final String projectId;
-    private final Enrichment ipEnrich;
+    private final IPEnrichment ipEnrich;
     private final Transformer deviceTransformer;
     private final Transformer uriTransformer;
     private final Transformer kvTransformer;
     private final Transformer objNodeTransformer;
 
-    public TransformDataMapFunction(final String appId, final String projectId, final String bucketName, final String geoFileKey, final String region) {
-        this.appId = appId;
+    public TransformDataMapFunction(final String projectId, final String bucketName, final String geoFileKey, final String region,
+                                    final long geoFileRefreshIntervalMillis) {
         this.projectId = projectId;
-        this.ipEnrich = new IPEnrichment(bucketName, geoFileKey, region);
+        this.ipEnrich = new IPEnrichment(bucketName, geoFileKey, region, geoFileRefreshIntervalMillis);
         this.deviceTransformer = new DeviceTransformer();
         this.uriTransformer = new URITransformer();
         this.kvTransformer = new KvTransformer();
@@ -79,16 +82,32 @@ public class TransformDataMapFunction implements MapFunction<Tuple2<JsonNode, Js
     }
 
     @Override
-    public String map(final Tuple2<JsonNode, JsonNode> value) throws Exception {
+    public void open(final Configuration parameters) {
+        this.ipEnrich.registerMetrics(getRuntimeContext().getMetricGroup());
+    }
+
+    @Override
+    public void close() {
+        // the caches live as long as the TaskManager, report them when the subtask is done with them
+        this.ipEnrich.logCacheStats();
+        Cache.logAllStats();
+    }
+
+    @Override
+    public SinkRecord map(final ExplodedEvent value) throws Exception {
+        IngestEnvelope ingest = value.getIngest();
+        return new SinkRecord(ingest.getAppId(), ingest.getSinkStreamArn(), transform(ingest, value.getData()));
+    }
+
+    private String transform(final IngestEnvelope ingest, final byte[] eventData) throws Exception {
         ObjectNode data = OBJECT_MAPPER.createObjectNode();
         try {
-            JsonNode ingestNode = value.f0;
-            JsonNode dataNode = value.f1;
+            JsonNode dataNode = OBJECT_MAPPER.readTree(eventData);
 
             ObjectNode auditInfo = OBJECT_MAPPER.createObjectNode();
             auditInfo.set("kda_process_timestamp", JsonNodeFactory.instance.numberNode(getCurrentTimeMillis()));
-            if (ingestNode.hasNonNull("rid")) {
-                auditInfo.put("rid", ingestNode.get("rid").asText());
+            if (ingest.getRid() != null) {
+                auditInfo.put("rid", ingest.getRid());
             }
             data.set("audit_info", auditInfo);
 
@@ -102,13 +121,13 @@ public class TransformDataMapFunction implements MapFunction<Tuple2<JsonNode, Js
             data.set("user_pseudo_id", dataNode.get("unique_id"));
             data.set("event_timestamp", dataNode.get(TIMESTAMP));
 
-            transformDevice(dataNode, ingestNode, data);
+            transformDevice(dataNode, ingest, data);
             transformAppInfo(dataNode, attributesNode, data);
             data.set("ecommerce", null);
 
             Map<String, String> uriTransformerParamsMap = new HashMap<>();
-            if (ingestNode.hasNonNull("uri")) {
-                uriTransformerParamsMap.put(URITransformer.PARAM_KEY_URI, ingestNode.get("uri").asText());
+            if (ingest.getUri() != null) {
+                uriTransformerParamsMap.put(URITransformer.PARAM_KEY_URI, ingest.getUri());
                 data.put(EVENT_BUNDLE_SEQUENCE_ID, this.uriTransformer.transform(uriTransformerParamsMap).get(EVENT_BUNDLE_SEQUENCE_ID).asLong());
             } else {
                 data.put(EVENT_BUNDLE_SEQUENCE_ID, 0);
@@ -126,18 +145,18 @@ public class TransformDataMapFunction implements MapFunction<Tuple2<JsonNode, Js
             data.put("event_previous_timestamp", 0);
             data.put("event_value_in_usd", 0);
 
-            transformGeo(ingestNode, dataNode, data);
+            transformGeo(ingest, dataNode, data);
 
-            if (ingestNode.hasNonNull(INGEST_TIME)) {
-                data.put("ingest_timestamp", ingestNode.get(INGEST_TIME).asLong());
+            if (ingest.getIngestTime() != null) {
+                data.put("ingest_timestamp", ingest.getIngestTime());
                 if (dataNode.hasNonNull(TIMESTAMP)) {
-                    data.put("event_server_timestamp_offset", ingestNode.get(INGEST_TIME).asLong() - dataNode.get(TIMESTAMP).asLong());
+                    data.put("event_server_timestamp_offset", ingest.getIngestTime() - dataNode.get(TIMESTAMP).asLong());
                 }
             }
 
             data.set("items", null);
 
-            data.set(PLATFORM, ingestNode.get(PLATFORM));
+            data.put(PLATFORM, ingest.getPlatform());
 
             transformPrivacyInfo(attributesNode, data);
 
@@ -162,17 +181,18 @@ public class TransformDataMapFunction implements MapFunction<Tuple2<JsonNode, Js
             log.debug("map.result: {}", dataResult);
             return dataResult;
         } catch (Exception e) {
-            log.warn("Map ERROR: {}, appId: {} ignore data: {}", e.getClass(), this.appId, value.f1);
+            String dataText = new String(eventData, StandardCharsets.UTF_8);
+            log.warn("Map ERROR: {}, appId: {} ignore data: {}", e.getClass(), ingest.getAppId(), dataText);
             log.error(Utils.getStackError(e));
-            data.put("error", e.getMessage() + " " + e.getClass() + ", data: " + value.f1);
+            data.put("error", e.getMessage() + " " + e.getClass() + ", data: " + dataText);
             return OBJECT_MAPPER.writeValueAsString(data);
         }
     }
 
-    private void transformGeo(final JsonNode ingestNode, final JsonNode dataNode, final ObjectNode data) {
+    private void transformGeo(final IngestEnvelope ingest, final JsonNode dataNode, final ObjectNode data) {
         Map<String, String> ipEnrichParamsMap = new HashMap<>();
-        if (ingestNode.hasNonNull("ip")) {
-            ipEnrichParamsMap.put(IPEnrichment.PARAM_KEY_IP, ingestNode.get("ip").asText());
+        if (ingest.getIp() != null) {
+            ipEnrichParamsMap.put(IPEnrichment.PARAM_KEY_IP, ingest.getIp());
         }
         if (dataNode.hasNonNull("locale")) {
             ipEnrichParamsMap.put(IPEnrichment.PARAM_KEY_LOCALE, dataNode.get("locale").asText());
@@ -288,7 +308,7 @@ public class TransformDataMapFunction implements MapFunction<Tuple2<JsonNode, Js
         data.set("user_properties", this.kvTransformer.transformUserArrayNode(userProperty));
     }
 
-    private void transformDevice(final JsonNode dataNode, final JsonNode ingestNode, final ObjectNode data) {
+    private void transformDevice(final JsonNode dataNode, final IngestEnvelope ingest, final ObjectNode data) {
         Map<String, String> deviceParamMap = new HashMap<>();
         if (dataNode.hasNonNull("device_id")) {
             deviceParamMap.put(DeviceTransformer.PARAM_KEY_VENDOR_ID, dataNode.get("device_id").asText());
@@ -330,8 +350,8 @@ public class TransformDataMapFunction implements MapFunction<Tuple2<JsonNode, Js
             deviceParamMap.put(DeviceTransformer.PARAM_KEY_OS_VERSION, dataNode.get("os_version").asText());
         }
 
-        if (ingestNode.hasNonNull("ua")) {
-            deviceParamMap.put(DeviceTransformer.PARAM_KEY_UA, ingestNode.get("ua").asText());
+        if (ingest.getUa() != null) {
+            deviceParamMap.put(DeviceTransformer.PARAM_KEY_UA, ingest.getUa());
         }
 
         if (dataNode.hasNonNull("system_language")) {
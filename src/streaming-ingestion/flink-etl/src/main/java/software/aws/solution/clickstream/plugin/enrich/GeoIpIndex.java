@@ -0,0 +1,232 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+
+package software.aws.solution.clickstream.plugin.enrich;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.InetAddresses;
+import com.maxmind.db.DatabaseRecord;
+import com.maxmind.db.Reader;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import software.aws.solution.clickstream.common.CacheStats;
+import software.aws.solution.clickstream.flink.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory-mapped GeoLite2 index shared by all subtasks running in the same TaskManager JVM.
+ * Lookups are served through a bounded result cache keyed by IP network prefix, and the
+ * underlying database is swapped atomically when a newer version of the file is published.
+ */
+@Slf4j
+public final class GeoIpIndex {
+    public static final long DEFAULT_REFRESH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DEFAULT_CACHE_SIZE = 100_000L;
+    private static final long RETIRED_READER_CLOSE_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int IPV4_CACHE_PREFIX_LENGTH = 24;
+    private static final int IPV6_CACHE_PREFIX_LENGTH = 48;
+    private static final Map<String, GeoIpIndex> SHARED_INDEXES = new ConcurrentHashMap<>();
+
+    private final String bucket;
+    private final String key;
+    private final String region;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final ScheduledExecutorService refresher;
+
+    private GeoIpIndex(final String bucket, final String key, final String region, final long refreshIntervalMillis) throws IOException {
+        this.bucket = bucket;
+        this.key = key;
+        this.region = region;
+        this.current.set(loadSnapshot(Utils.getInstance().getS3ObjectVersion(bucket, key, region)));
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "geoip-index-refresher-" + key);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (refreshIntervalMillis > 0) {
+            this.refresher.scheduleWithFixedDelay(this::refreshIfChanged, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Return the index for the given geo file, loading it on first use. Every caller in the JVM
+     * asking for the same bucket and key shares one instance.
+     */
+    public static GeoIpIndex getShared(final String bucket, final String key, final String region, final long refreshIntervalMillis) throws IOException {
+        String indexKey = bucket + "/" + key;
+        GeoIpIndex index = SHARED_INDEXES.get(indexKey);
+        if (index != null) {
+            return index;
+        }
+        synchronized (SHARED_INDEXES) {
+            index = SHARED_INDEXES.get(indexKey);
+            if (index == null) {
+                index = new GeoIpIndex(bucket, key, region, refreshIntervalMillis);
+                SHARED_INDEXES.put(indexKey, index);
+            }
+            return index;
+        }
+    }
+
+    public GeoLocation lookup(final String ip) throws IOException {
+        InetAddress address = InetAddresses.forString(ip.trim());
+        byte[] addressBytes = address.getAddress();
+        int cachePrefixLength = addressBytes.length == 4 ? IPV4_CACHE_PREFIX_LENGTH : IPV6_CACHE_PREFIX_LENGTH;
+        String prefixKey = prefixKey(addressBytes, cachePrefixLength);
+
+        Snapshot snapshot = this.current.get();
+        GeoLocation location = snapshot.results.getIfPresent(prefixKey);
+        if (location == null) {
+            location = snapshot.results.getIfPresent(prefixKey(addressBytes, addressBytes.length * 8));
+        }
+        if (location != null) {
+            cacheHits.increment();
+            return location;
+        }
+
+        cacheMisses.increment();
+        DatabaseRecord<IPEnrichment.LookupResult> dbRecord = snapshot.reader.getRecord(address, IPEnrichment.LookupResult.class);
+        location = GeoLocation.of(dbRecord.getData());
+        // the whole cache prefix can share one entry only when the matched network covers it
+        if (dbRecord.getNetwork().getPrefixLength() <= cachePrefixLength) {
+            snapshot.results.put(prefixKey, location);
+        } else {
+            snapshot.results.put(prefixKey(addressBytes, addressBytes.length * 8), location);
+        }
+        return location;
+    }
+
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public long getCacheSize() {
+        return this.current.get().results.size();
+    }
+
+    /**
+     * The lookup counts since the index was loaded, the evictions and size are those of the current database version.
+     */
+    public CacheStats getCacheStats() {
+        Cache<String, GeoLocation> results = this.current.get().results;
+        return new CacheStats("geoip:" + key, cacheHits.sum(), cacheMisses.sum(), results.stats().evictionCount(), results.size(), -1L);
+    }
+
+    public String getVersion() {
+        return this.current.get().version;
+    }
+
+    void refreshIfChanged() {
+        try {
+            String latestVersion = Utils.getInstance().getS3ObjectVersion(bucket, key, region);
+            Snapshot previous = this.current.get();
+            if (latestVersion.equals(previous.version)) {
+                return;
+            }
+            log.info("Geo file s3://{}/{} changed from version {} to {}, reloading", bucket, key, previous.version, latestVersion);
+            this.current.set(loadSnapshot(latestVersion));
+            // in-flight lookups may still hold the previous reader, so close it a bit later
+            this.refresher.schedule(previous::close, RETIRED_READER_CLOSE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.warn("Failed to refresh geo file s3://{}/{}: {}", bucket, key, e.getMessage());
+        }
+    }
+
+    private Snapshot loadSnapshot(final String version) throws IOException {
+        File dbFile = Utils.getInstance().downloadS3File(bucket, key, region);
+        Reader reader = new Reader(dbFile, Reader.FileMode.MEMORY_MAPPED);
+        log.info("Loaded geo file s3://{}/{}, version: {}, build date: {}", bucket, key, version, reader.getMetadata().getBuildDate());
+        Cache<String, GeoLocation> results = CacheBuilder.newBuilder()
+                .maximumSize(DEFAULT_CACHE_SIZE)
+                .recordStats()
+                .build();
+        return new Snapshot(version, reader, "_".equals(bucket) ? null : dbFile, results);
+    }
+
+    private static String prefixKey(final byte[] addressBytes, final int prefixLength) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < prefixLength / 8; i++) {
+            sb.append(Integer.toHexString(addressBytes[i] & 0xff)).append('.');
+        }
+        return sb.append('/').append(prefixLength).toString();
+    }
+
+    private static final class Snapshot {
+        private final String version;
+        private final Reader reader;
+        private final File tempFile;
+        private final Cache<String, GeoLocation> results;
+
+        Snapshot(final String version, final Reader reader, final File tempFile, final Cache<String, GeoLocation> results) {
+            this.version = version;
+            this.reader = reader;
+            this.tempFile = tempFile;
+            this.results = results;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.warn("Failed to close geo reader for version {}: {}", version, e.getMessage());
+            }
+            if (tempFile != null && !tempFile.delete()) {
+                log.warn("Failed to delete geo file {}", tempFile);
+            }
+        }
+    }
+
+    public static final class GeoLocation {
+        static final GeoLocation EMPTY = new GeoLocation(null, null, null);
+
+        @Getter
+        private final String city;
+        @Getter
+        private final String continent;
+        @Getter
+        private final String country;
+
+        private GeoLocation(final String city, final String continent, final String country) {
+            this.city = city;
+            this.continent = continent;
+            this.country = country;
+        }
+
+        static GeoLocation of(final IPEnrichment.LookupResult result) {
+            if (result == null) {
+                return EMPTY;
+            }
+            return new GeoLocation(
+                    Optional.ofNullable(result.getCity()).map(IPEnrichment.LookupResult.City::getName).orElse(null),
+                    Optional.ofNullable(result.getContinent()).map(IPEnrichment.LookupResult.Continent::getName).orElse(null),
+                    Optional.ofNullable(result.getCountry()).map(IPEnrichment.LookupResult.Country::getName).orElse(null));
+        }
+    }
+}
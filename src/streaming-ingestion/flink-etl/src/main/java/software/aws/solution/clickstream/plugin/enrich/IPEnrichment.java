@@ -14,63 +14,77 @@
 
 package software.aws.solution.clickstream.plugin.enrich;
 
-import com.maxmind.db.CHMCache;
 import com.maxmind.db.MaxMindDbConstructor;
 import com.maxmind.db.MaxMindDbParameter;
-import com.maxmind.db.Reader;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.Histogram;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.runtime.metrics.DescriptiveStatisticsHistogram;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.node.ObjectNode;
-import software.aws.solution.clickstream.flink.Utils;
 
-import java.io.ByteArrayInputStream;
-import java.net.InetAddress;
+import java.io.IOException;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class IPEnrichment implements Enrichment {
     public static final String PARAM_KEY_IP = "ip";
     public static final String PARAM_KEY_LOCALE = "locale";
     private static final long serialVersionUID = 17054589439690001L;
+    private static final int LATENCY_HISTOGRAM_WINDOW_SIZE = 1000;
+    private static final long LOAD_RETRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
     private final String bucket;
     private final String fileName;
     private final String region;
-    private transient byte[] geoFileBytes;
+    private final long refreshIntervalMillis;
+    private transient GeoIpIndex geoIpIndex;
+    private transient long nextLoadAttemptMillis;
+    private transient Histogram lookupLatency;
 
     public IPEnrichment(final String bucket, final String fileName, final String region) {
+        this(bucket, fileName, region, GeoIpIndex.DEFAULT_REFRESH_INTERVAL_MILLIS);
+    }
+
+    public IPEnrichment(final String bucket, final String fileName, final String region, final long refreshIntervalMillis) {
         this.bucket = bucket;
         this.fileName = fileName;
         this.region = region;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    public void registerMetrics(final MetricGroup metricGroup) {
+        MetricGroup geoGroup = metricGroup.addGroup("geoip");
+        this.lookupLatency = geoGroup.histogram("lookupLatencyNanos", new DescriptiveStatisticsHistogram(LATENCY_HISTOGRAM_WINDOW_SIZE));
+        geoGroup.gauge("cacheHitRate", (Gauge<Double>) () -> this.geoIpIndex == null ? 0.0 : this.geoIpIndex.getCacheHitRate());
+        geoGroup.gauge("cacheSize", (Gauge<Long>) () -> this.geoIpIndex == null ? 0L : this.geoIpIndex.getCacheSize());
+        geoGroup.gauge("dbVersion", (Gauge<String>) () -> this.geoIpIndex == null ? null : this.geoIpIndex.getVersion());
+    }
+
+    public void logCacheStats() {
+        if (this.geoIpIndex != null) {
+            log.info(this.geoIpIndex.getCacheStats().toString());
+        }
     }
 
     public ObjectNode enrich(final ObjectNode geoNode, final Map<String, String> paramMap) {
         String ip = paramMap.get(PARAM_KEY_IP).split(",")[0];
         String locale = paramMap.get(PARAM_KEY_LOCALE);
         try {
-
-            if (this.geoFileBytes == null) {
-                this.geoFileBytes = Utils.getInstance().readS3BinaryFile(this.bucket, this.fileName, this.region);
+            long startNanos = System.nanoTime();
+            GeoIpIndex.GeoLocation location = getGeoIpIndex().lookup(ip);
+            if (this.lookupLatency != null) {
+                this.lookupLatency.update(System.nanoTime() - startNanos);
             }
 
-            try (Reader reader = new Reader(
-                    new ByteArrayInputStream(this.geoFileBytes),
-                    new CHMCache(1024 * 128))) {
-                final InetAddress ipAddress = InetAddress.getByName(ip);
-                LookupResult result = reader.get(ipAddress, LookupResult.class);
-
-                String city = Optional.ofNullable(result.getCity()).map(LookupResult.City::getName).orElse(null);
-                String continent = Optional.ofNullable(result.getContinent()).map(LookupResult.Continent::getName).orElse(null);
-                String country = Optional.ofNullable(result.getCountry()).map(LookupResult.Country::getName).orElse(null);
-
-                geoNode.put("city", city);
-                geoNode.put("continent", continent);
-                geoNode.put("country", country);
-                geoNode.set("metro", null);
-                geoNode.set("region", null);
-                geoNode.set("sub_continent", null);
-                geoNode.put(PARAM_KEY_LOCALE, locale);
-            }
+            geoNode.put("city", location.getCity());
+            geoNode.put("continent", location.getContinent());
+            geoNode.put("country", location.getCountry());
+            geoNode.set("metro", null);
+            geoNode.set("region", null);
+            geoNode.set("sub_continent", null);
+            geoNode.put(PARAM_KEY_LOCALE, locale);
         } catch (Exception e) {
             log.warn(e.getMessage(), e);
             geoNode.set("city", null);
@@ -84,6 +98,21 @@ public class IPEnrichment implements Enrichment {
         return geoNode;
     }
 
+    private GeoIpIndex getGeoIpIndex() throws IOException {
+        if (this.geoIpIndex == null) {
+            if (System.currentTimeMillis() < this.nextLoadAttemptMillis) {
+                throw new IOException("Geo file s3://" + this.bucket + "/" + this.fileName + " is not available");
+            }
+            try {
+                this.geoIpIndex = GeoIpIndex.getShared(this.bucket, this.fileName, this.region, this.refreshIntervalMillis);
+            } catch (IOException e) {
+                this.nextLoadAttemptMillis = System.currentTimeMillis() + LOAD_RETRY_INTERVAL_MILLIS;
+                throw e;
+            }
+        }
+        return this.geoIpIndex;
+    }
+
     public static class LookupResult {
 
         @Getter
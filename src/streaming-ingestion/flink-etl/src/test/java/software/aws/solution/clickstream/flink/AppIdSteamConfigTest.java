@@ -31,4 +31,18 @@ public class AppIdSteamConfigTest {
         config.getAppIdStreamList().add(app1Stream);
         Assertions.assertEquals(1, list.size());
     }
+
+    @Test
+    void testGetStreamNameOfValidArnOnly() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.AppIdSteamConfigTest.testGetStreamNameOfValidArnOnly
+        Assertions.assertEquals("app1Sink", new AppIdStream("app1", "arn:aws:kinesis:us-east-1:123456789012:stream/app1Sink", true).getStreamName());
+        Assertions.assertEquals("app1Sink", new AppIdStream("app1", "arn:aws-cn:kinesis:cn-north-1:123456789012:stream/app1Sink", true).getStreamName());
+
+        for (String streamArn : new String[]{null, "app1Sink", "stream/app1Sink", "arn:aws:kinesis:us-east-1:123456789012:stream/",
+                "arn:aws:kinesis:us-east-1:123456789012:stream/a/b", "arn:aws:firehose:us-east-1:123456789012:deliverystream/app1Sink"}) {
+            AppIdStream appIdStream = new AppIdStream("app1", streamArn, true);
+            Assertions.assertFalse(appIdStream.hasValidStreamArn());
+            Assertions.assertThrows(ClickstreamException.class, appIdStream::getStreamName);
+        }
+    }
 }
@@ -0,0 +1,75 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import org.apache.flink.api.connector.sink2.SinkWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.aws.solution.clickstream.flink.mock.MockKinesisSink;
+import software.aws.solution.clickstream.flink.mock.StreamSourceAndSinkProviderMock;
+
+import java.util.List;
+
+public class AppRoutingSinkTest {
+
+    @AfterEach
+    public void clear() {
+        MockKinesisSink.appValues.clear();
+        MockKinesisSink.streamValues.clear();
+        MockKinesisSink.closedStreams.clear();
+    }
+
+    @Test
+    void should_write_to_the_routed_stream_of_each_app() throws Exception {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.AppRoutingSinkTest.should_write_to_the_routed_stream_of_each_app
+        AppRoutingSink sink = new AppRoutingSink(new StreamSourceAndSinkProviderMock("/bad_data.json"));
+        SinkWriter<SinkRecord> writer = sink.createWriter(null);
+        SinkWriter.Context context = Mockito.mock(SinkWriter.Context.class);
+
+        writer.write(new SinkRecord("app1", "arn:aws:kinesis:us-east-1:123456789012:stream/app1Sink", "a"), context);
+        writer.write(new SinkRecord("app2", "arn:aws:kinesis:us-east-1:123456789012:stream/app2Sink", "b"), context);
+        writer.write(new SinkRecord("app1", "arn:aws:kinesis:us-east-1:123456789012:stream/app1NewSink", "c"), context);
+        writer.flush(false);
+        writer.close();
+
+        Assertions.assertEquals(List.of("a", "c"), MockKinesisSink.appValues.get("app1"));
+        Assertions.assertEquals(List.of("a"), MockKinesisSink.streamValues.get("app1Sink"));
+        Assertions.assertEquals(List.of("c"), MockKinesisSink.streamValues.get("app1NewSink"));
+        Assertions.assertEquals(List.of("b"), MockKinesisSink.streamValues.get("app2Sink"));
+    }
+
+    @Test
+    void should_close_the_writer_of_an_app_without_records_between_checkpoints() throws Exception {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.AppRoutingSinkTest.should_close_the_writer_of_an_app_without_records_between_checkpoints
+        AppRoutingSink sink = new AppRoutingSink(new StreamSourceAndSinkProviderMock("/bad_data.json"), 0);
+        SinkWriter<SinkRecord> writer = sink.createWriter(null);
+        SinkWriter.Context context = Mockito.mock(SinkWriter.Context.class);
+
+        writer.write(new SinkRecord("app1", "arn:aws:kinesis:us-east-1:123456789012:stream/app1Sink", "a"), context);
+        writer.write(new SinkRecord("app2", "arn:aws:kinesis:us-east-1:123456789012:stream/app2Sink", "b"), context);
+        writer.flush(false);
+        Assertions.assertEquals(List.of(), MockKinesisSink.closedStreams);
+
+        // app2 is disabled, only app1 has records until the next checkpoint
+        writer.write(new SinkRecord("app1", "arn:aws:kinesis:us-east-1:123456789012:stream/app1Sink", "c"), context);
+        writer.flush(false);
+        Assertions.assertEquals(List.of("app2Sink"), MockKinesisSink.closedStreams);
+
+        writer.write(new SinkRecord("app2", "arn:aws:kinesis:us-east-1:123456789012:stream/app2Sink", "d"), context);
+        writer.close();
+        Assertions.assertEquals(List.of("b", "d"), MockKinesisSink.streamValues.get("app2Sink"));
+    }
+}
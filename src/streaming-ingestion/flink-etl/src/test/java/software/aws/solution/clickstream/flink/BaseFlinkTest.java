@@ -105,6 +105,7 @@ public class BaseFlinkTest {
     @AfterEach
     public void clear() {
         MockKinesisSink.appValues.clear();
+        MockKinesisSink.streamValues.clear();
         System.out.println("AfterEach clear");
     }
 
@@ -0,0 +1,108 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import org.apache.flink.util.Collector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.aws.solution.clickstream.function.ExplodeDataFlatMapFunction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class ExplodeDataFlatMapFunctionTest {
+    private final ExplodeDataFlatMapFunction function = new ExplodeDataFlatMapFunction();
+    private final List<ExplodedEvent> exploded = new ArrayList<>();
+    private final Collector<ExplodedEvent> out = new Collector<>() {
+        @Override
+        public void collect(ExplodedEvent record) {
+            exploded.add(record);
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Test
+    void should_explode_raw_json_array() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.ExplodeDataFlatMapFunctionTest.should_explode_raw_json_array
+        function.flatMap(envelope("[{\"event_type\":\"_page_view\",\"attributes\":{\"a\":[1,2]}}, {\"event_type\":\"_click\"}]"), out);
+
+        Assertions.assertEquals(2, exploded.size());
+        Assertions.assertEquals("{\"event_type\":\"_page_view\",\"attributes\":{\"a\":[1,2]}}", data(0));
+        Assertions.assertEquals("{\"event_type\":\"_click\"}", data(1));
+        Assertions.assertEquals("app1", exploded.get(0).getIngest().getAppId());
+        Assertions.assertNull(exploded.get(0).getIngest().getData());
+    }
+
+    @Test
+    void should_explode_gzip_base64_data() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.ExplodeDataFlatMapFunctionTest.should_explode_gzip_base64_data
+        StringBuilder events = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            events.append(i == 0 ? "" : ",").append("{\"event_id\":\"").append(i).append("\",\"name\":\"中文\"}");
+        }
+        function.flatMap(envelope(gzipBase64(events.append("]").toString())), out);
+
+        Assertions.assertEquals(1000, exploded.size());
+        Assertions.assertEquals("{\"event_id\":\"999\",\"name\":\"中文\"}", data(999));
+    }
+
+    @Test
+    void should_emit_single_object() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.ExplodeDataFlatMapFunctionTest.should_emit_single_object
+        function.flatMap(envelope("{\"event_type\":\"_page_view\"}"), out);
+        function.flatMap(envelope(gzipBase64("{\"event_type\":\"_click\"}")), out);
+
+        Assertions.assertEquals(2, exploded.size());
+        Assertions.assertEquals("{\"event_type\":\"_page_view\"}", data(0));
+        Assertions.assertEquals("{\"event_type\":\"_click\"}", data(1));
+    }
+
+    @Test
+    void should_skip_invalid_data() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.ExplodeDataFlatMapFunctionTest.should_skip_invalid_data
+        function.flatMap(envelope("not-base64-gzip"), out);
+        function.flatMap(envelope(Base64.getEncoder().encodeToString("plain".getBytes(StandardCharsets.UTF_8))), out);
+        function.flatMap(envelope("[{\"event_type\":"), out);
+
+        Assertions.assertEquals(0, exploded.size());
+    }
+
+    private String data(final int index) {
+        return new String(exploded.get(index).getData(), StandardCharsets.UTF_8);
+    }
+
+    private static IngestEnvelope envelope(final String data) {
+        IngestEnvelope envelope = new IngestEnvelope();
+        envelope.setAppId("app1");
+        envelope.setData(data);
+        envelope.setIngestTime(1707028087000L);
+        return envelope;
+    }
+
+    private static String gzipBase64(final String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.java.typeutils.PojoTypeInfo;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class ExplodedEventTest {
+
+    @Test
+    void testTypesAreSerializedAsPojo() {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.ExplodedEventTest.testTypesAreSerializedAsPojo
+        Assertions.assertTrue(IngestEnvelope.TYPE_INFO instanceof PojoTypeInfo);
+        Assertions.assertTrue(ExplodedEvent.TYPE_INFO instanceof PojoTypeInfo);
+        Assertions.assertEquals(ExplodedEvent.TYPE_INFO, TypeInformation.of(ExplodedEvent.class));
+
+        ExecutionConfig config = new ExecutionConfig();
+        config.disableGenericTypes();
+        Assertions.assertDoesNotThrow(() -> ExplodedEvent.TYPE_INFO.createSerializer(config));
+    }
+
+    @Test
+    void testSerializeRoundTrip() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.ExplodedEventTest.testSerializeRoundTrip
+        IngestEnvelope envelope = new IngestEnvelope();
+        envelope.setAppId("app1");
+        envelope.setData("[{\"event_type\":\"_page_view\"}]");
+        envelope.setIngestTime(1707028087000L);
+        envelope.setIp("18.233.165.3");
+        envelope.setRid("rid1");
+        envelope.setUri("/collect?platform=Android&event_bundle_sequence_id=1");
+
+        IngestEnvelope ingest = envelope.withoutData();
+        Assertions.assertNull(ingest.getData());
+        Assertions.assertEquals("rid1", ingest.getRid());
+
+        TypeSerializer<ExplodedEvent> serializer = ExplodedEvent.TYPE_INFO.createSerializer(new ExecutionConfig());
+        DataOutputSerializer output = new DataOutputSerializer(256);
+        serializer.serialize(new ExplodedEvent(ingest, "{\"event_type\":\"_page_view\"}".getBytes(StandardCharsets.UTF_8)), output);
+
+        ExplodedEvent copy = serializer.deserialize(new DataInputDeserializer(output.getCopyOfBuffer()));
+        Assertions.assertEquals("{\"event_type\":\"_page_view\"}", new String(copy.getData(), StandardCharsets.UTF_8));
+        Assertions.assertEquals("app1", copy.getIngest().getAppId());
+        Assertions.assertEquals(1707028087000L, copy.getIngest().getIngestTime());
+        Assertions.assertEquals("18.233.165.3", copy.getIngest().getIp());
+        Assertions.assertNull(copy.getIngest().getPlatform());
+        Assertions.assertNull(copy.getIngest().getData());
+    }
+
+    @Test
+    void testMissingIngestTimeIsKeptAsNull() throws IOException {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.ExplodedEventTest.testMissingIngestTimeIsKeptAsNull
+        ObjectMapper objectMapper = new ObjectMapper();
+        IngestEnvelope envelope = objectMapper.readValue("{\"appId\":\"app1\",\"data\":\"[]\",\"ingest_time\":null}", IngestEnvelope.class);
+        Assertions.assertNull(envelope.getIngestTime());
+        Assertions.assertNull(objectMapper.readValue("{\"appId\":\"app1\",\"data\":\"[]\"}", IngestEnvelope.class).getIngestTime());
+
+        TypeSerializer<ExplodedEvent> serializer = ExplodedEvent.TYPE_INFO.createSerializer(new ExecutionConfig());
+        DataOutputSerializer output = new DataOutputSerializer(256);
+        serializer.serialize(new ExplodedEvent(envelope.withoutData(), "{}".getBytes(StandardCharsets.UTF_8)), output);
+        ExplodedEvent copy = serializer.deserialize(new DataInputDeserializer(output.getCopyOfBuffer()));
+        Assertions.assertNull(copy.getIngest().getIngestTime());
+    }
+}
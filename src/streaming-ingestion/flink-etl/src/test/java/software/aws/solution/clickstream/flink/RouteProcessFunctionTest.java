@@ -0,0 +1,108 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink;
+
+import org.apache.flink.streaming.api.functions.co.BroadcastProcessFunction;
+import org.apache.flink.util.Collector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.aws.solution.clickstream.flink.mock.MockBroadcastState;
+import software.aws.solution.clickstream.function.RouteProcessFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RouteProcessFunctionTest {
+    private static final String APP1_STREAM = "arn:aws:kinesis:us-east-1:123456789012:stream/app1Sink";
+    private static final String APP1_NEW_STREAM = "arn:aws:kinesis:us-east-1:123456789012:stream/app1NewSink";
+    private static final String APP2_STREAM = "arn:aws:kinesis:us-east-1:123456789012:stream/app2Sink";
+
+    private final MockBroadcastState<String, AppIdStream> state = new MockBroadcastState<>();
+    private final List<IngestEnvelope> routed = new ArrayList<>();
+    private final Collector<IngestEnvelope> out = new Collector<>() {
+        @Override
+        public void collect(IngestEnvelope record) {
+            routed.add(record);
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Test
+    void should_route_by_broadcast_config() throws Exception {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.RouteProcessFunctionTest.should_route_by_broadcast_config
+        RouteProcessFunction function = new RouteProcessFunction(List.of(
+                new AppIdStream("app1", APP1_STREAM, true),
+                new AppIdStream("app2", APP2_STREAM, false)));
+
+        // the startup config is used until a config is broadcast
+        function.processElement(record("app1"), readOnlyContext(), out);
+        function.processElement(record("app2"), readOnlyContext(), out);
+        Assertions.assertEquals(1, routed.size());
+        Assertions.assertEquals(APP1_STREAM, routed.get(0).getSinkStreamArn());
+
+        // enable app2 and move app1 to another stream
+        function.processBroadcastElement(List.of(
+                new AppIdStream("app1", APP1_NEW_STREAM, true),
+                new AppIdStream("app2", APP2_STREAM, true)), context(), out);
+        function.processElement(record("app1"), readOnlyContext(), out);
+        function.processElement(record("app2"), readOnlyContext(), out);
+        Assertions.assertEquals(3, routed.size());
+        Assertions.assertEquals(APP1_NEW_STREAM, routed.get(1).getSinkStreamArn());
+        Assertions.assertEquals(APP2_STREAM, routed.get(2).getSinkStreamArn());
+
+        // disable app1 by removing it from the config
+        function.processBroadcastElement(List.of(new AppIdStream("app2", APP2_STREAM, true)), context(), out);
+        function.processElement(record("app1"), readOnlyContext(), out);
+        function.processElement(record("app3"), readOnlyContext(), out);
+        Assertions.assertEquals(3, routed.size());
+    }
+
+    @Test
+    void should_not_route_app_with_invalid_stream_arn() throws Exception {
+        // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.RouteProcessFunctionTest.should_not_route_app_with_invalid_stream_arn
+        RouteProcessFunction function = new RouteProcessFunction(List.of(new AppIdStream("app1", "app1Sink", true)));
+        function.processElement(record("app1"), readOnlyContext(), out);
+        Assertions.assertEquals(0, routed.size());
+
+        function.processBroadcastElement(List.of(
+                new AppIdStream("app1", APP1_STREAM, true),
+                new AppIdStream("app2", "arn:aws:kinesis:us-east-1:123456789012:app2Sink", true)), context(), out);
+        function.processElement(record("app1"), readOnlyContext(), out);
+        function.processElement(record("app2"), readOnlyContext(), out);
+        Assertions.assertEquals(1, routed.size());
+        Assertions.assertEquals(APP1_STREAM, routed.get(0).getSinkStreamArn());
+    }
+
+    private static String record(String appId) {
+        return "{\"appId\":\"" + appId + "\",\"data\":\"[]\",\"ingest_time\":1707028087000}";
+    }
+
+    @SuppressWarnings("unchecked")
+    private BroadcastProcessFunction<String, List<AppIdStream>, IngestEnvelope>.ReadOnlyContext readOnlyContext() {
+        var ctx = Mockito.mock(BroadcastProcessFunction.ReadOnlyContext.class);
+        Mockito.when(ctx.getBroadcastState(RouteProcessFunction.APP_ID_STREAM_STATE)).thenReturn(state);
+        return ctx;
+    }
+
+    @SuppressWarnings("unchecked")
+    private BroadcastProcessFunction<String, List<AppIdStream>, IngestEnvelope>.Context context() throws Exception {
+        var ctx = Mockito.mock(BroadcastProcessFunction.Context.class);
+        Mockito.when(ctx.getBroadcastState(RouteProcessFunction.APP_ID_STREAM_STATE)).thenReturn(state);
+        return ctx;
+    }
+}
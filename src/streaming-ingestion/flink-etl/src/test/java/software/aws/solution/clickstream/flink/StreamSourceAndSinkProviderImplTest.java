@@ -56,7 +56,7 @@ public class StreamSourceAndSinkProviderImplTest {
     void testCreateSink() throws IOException {
         var props = ApplicationParameters.loadApplicationParameters(args, true);
         StreamSourceAndSinkProvider provider = new StreamSourceAndSinkProviderImpl(props);
-        var sink = provider.createSink("app1");
+        var sink = provider.createSink(props.getAppIdStreamList().get(0));
         Assertions.assertInstanceOf(KinesisStreamsSink.class, sink);
     }
 }
@@ -16,15 +16,13 @@ package software.aws.solution.clickstream.flink;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flink.api.common.restartstrategy.RestartStrategies;
-import org.apache.flink.api.connector.sink2.Sink;
-import org.apache.flink.streaming.api.functions.source.SourceFunction;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
 import org.testcontainers.shaded.com.fasterxml.jackson.databind.JsonNode;
 import org.testcontainers.shaded.com.fasterxml.jackson.databind.ObjectMapper;
 import software.aws.solution.clickstream.flink.mock.MockKinesisSink;
-import software.aws.solution.clickstream.flink.mock.SourceFunctionMock;
+import software.aws.solution.clickstream.flink.mock.StreamSourceAndSinkProviderMock;
 
 import java.util.List;
 
@@ -49,17 +47,7 @@ public class StreamingJobTest extends BaseFlinkTest {
         System.setProperty("_LOCAL_TEST_TIME", "1707028087000");
 
         var props = ApplicationParameters.loadApplicationParameters(args, true);
-        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProvider() {
-            @Override
-            public SourceFunction<String> createSource() {
-                return new SourceFunctionMock("/zip_data_app1.json");
-            }
-
-            @Override
-            public Sink<String> createSink(String appId) {
-                return new MockKinesisSink(appId);
-            }
-        };
+        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProviderMock("/zip_data_app1.json");
 
         env.setRestartStrategy(RestartStrategies.noRestart());
         StreamingJob steamingJob = new StreamingJob(env, streamSourceAndSinkProviderMock, props);
@@ -83,17 +71,7 @@ public class StreamingJobTest extends BaseFlinkTest {
         // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.StreamingJobTest.testExecuteStreamJob_zip_data_sApp1
 
         var props = ApplicationParameters.loadApplicationParameters(args, true);
-        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProvider() {
-            @Override
-            public SourceFunction<String> createSource() {
-                return new SourceFunctionMock("/zip_data_sapp1.json");
-            }
-
-            @Override
-            public Sink<String> createSink(String appId) {
-                return new MockKinesisSink(appId);
-            }
-        };
+        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProviderMock("/zip_data_sapp1.json");
 
         env.setRestartStrategy(RestartStrategies.noRestart());
         StreamingJob steamingJob = new StreamingJob(env, streamSourceAndSinkProviderMock, props);
@@ -112,17 +90,7 @@ public class StreamingJobTest extends BaseFlinkTest {
         System.setProperty("_LOCAL_TEST_TIME", "1707028087000");
 
         var props = ApplicationParameters.loadApplicationParameters(args, true);
-        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProvider() {
-            @Override
-            public SourceFunction<String> createSource() {
-                return new SourceFunctionMock("/none_zip_data_app2.json");
-            }
-
-            @Override
-            public Sink<String> createSink(String appId) {
-                return new MockKinesisSink(appId);
-            }
-        };
+        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProviderMock("/none_zip_data_app2.json");
 
         env.setRestartStrategy(RestartStrategies.noRestart());
         StreamingJob steamingJob = new StreamingJob(env, streamSourceAndSinkProviderMock, props);
@@ -146,17 +114,7 @@ public class StreamingJobTest extends BaseFlinkTest {
         // ./gradlew clean test --info --tests software.aws.solution.clickstream.flink.StreamingJobTest.testExecuteStreamJob_bad_data_should_not_crash_the_application
 
         var props = ApplicationParameters.loadApplicationParameters(args, true);
-        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProvider() {
-            @Override
-            public SourceFunction<String> createSource() {
-                return new SourceFunctionMock("/bad_data.json");
-            }
-
-            @Override
-            public Sink<String> createSink(String appId) {
-                return new MockKinesisSink(appId);
-            }
-        };
+        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProviderMock("/bad_data.json");
 
         env.setRestartStrategy(RestartStrategies.noRestart());
         StreamingJob steamingJob = new StreamingJob(env, streamSourceAndSinkProviderMock, props);
@@ -182,22 +140,13 @@ public class StreamingJobTest extends BaseFlinkTest {
         };
 
         var props = ApplicationParameters.loadApplicationParameters(args1, true);
-        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProvider() {
-            @Override
-            public SourceFunction<String> createSource() {
-                return new SourceFunctionMock("/none_zip_data_app2.json");
-            }
-
-            @Override
-            public Sink<String> createSink(String appId) {
-                return new MockKinesisSink(appId);
-            }
-        };
+        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProviderMock("/none_zip_data_app2.json");
 
         env.setRestartStrategy(RestartStrategies.noRestart());
         StreamingJob steamingJob = new StreamingJob(env, streamSourceAndSinkProviderMock, props);
-        boolean b = steamingJob.executeStreamJob();
-        Assertions.assertFalse(b);
+        steamingJob.executeStreamJob();
+        // the routing starts without an enabled app and follows the config once it has one
+        Assertions.assertTrue(env.getExecutionPlan().contains("AppRoutingSink"));
 
     }
 
@@ -214,22 +163,13 @@ public class StreamingJobTest extends BaseFlinkTest {
         };
 
         var props = ApplicationParameters.loadApplicationParameters(args1, true);
-        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProvider() {
-            @Override
-            public SourceFunction<String> createSource() {
-                return new SourceFunctionMock("/none_zip_data_app2.json");
-            }
-
-            @Override
-            public Sink<String> createSink(String appId) {
-                return new MockKinesisSink(appId);
-            }
-        };
+        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProviderMock("/none_zip_data_app2.json");
 
         env.setRestartStrategy(RestartStrategies.noRestart());
         StreamingJob steamingJob = new StreamingJob(env, streamSourceAndSinkProviderMock, props);
-        boolean b = steamingJob.executeStreamJob();
-        Assertions.assertFalse(b);
+        steamingJob.executeStreamJob();
+        // the routing starts without an enabled app and follows the config once it has one
+        Assertions.assertTrue(env.getExecutionPlan().contains("AppRoutingSink"));
     }
 
     @Test
@@ -244,21 +184,12 @@ public class StreamingJobTest extends BaseFlinkTest {
                 "errorAppIdStreamMap"
         };
         var props = ApplicationParameters.loadApplicationParameters(args1, true);
-        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProvider() {
-            @Override
-            public SourceFunction<String> createSource() {
-                return new SourceFunctionMock("/none_zip_data_app2.json");
-            }
-
-            @Override
-            public Sink<String> createSink(String appId) {
-                return new MockKinesisSink(appId);
-            }
-        };
+        var streamSourceAndSinkProviderMock = new StreamSourceAndSinkProviderMock("/none_zip_data_app2.json");
 
         env.setRestartStrategy(RestartStrategies.noRestart());
         StreamingJob steamingJob = new StreamingJob(env, streamSourceAndSinkProviderMock, props);
-        boolean b = steamingJob.executeStreamJob();
-        Assertions.assertFalse(b);
+        steamingJob.executeStreamJob();
+        // the routing starts without an enabled app and follows the config once it has one
+        Assertions.assertTrue(env.getExecutionPlan().contains("AppRoutingSink"));
     }
 }
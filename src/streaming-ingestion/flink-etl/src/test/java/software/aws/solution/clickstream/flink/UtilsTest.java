@@ -15,6 +15,7 @@ package software.aws.solution.clickstream.flink;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flink.kinesis.shaded.com.amazonaws.services.s3.AmazonS3;
+import org.apache.flink.kinesis.shaded.com.amazonaws.services.s3.model.ObjectMetadata;
 import org.apache.flink.kinesis.shaded.com.amazonaws.services.s3.model.S3Object;
 import org.apache.flink.kinesis.shaded.com.amazonaws.services.s3.model.S3ObjectInputStream;
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.core.JsonProcessingException;
@@ -29,8 +30,11 @@ import org.mockito.Mockito;
 import software.aws.solution.clickstream.plugin.transformer.KvTransformer;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 @Slf4j
 public class UtilsTest {
@@ -99,6 +103,33 @@ public class UtilsTest {
         Mockito.verify(s3ClientMock, Mockito.times(1)).getObject(bucket, key);
     }
 
+    @Test
+    void testDownloadS3FileAndVersion() throws IOException {
+        // ./gradlew clean test --tests software.aws.solution.clickstream.flink.UtilsTest.testDownloadS3FileAndVersion
+        String bucket = "testBucket";
+        String key = "testKey/GeoLite2-City.mmdb";
+        String awsRegion = "us-east-1";
+
+        AmazonS3 s3ClientMock = Mockito.mock(AmazonS3.class);
+        S3Object s3ObjectMock = Mockito.mock(S3Object.class);
+        ObjectMetadata metadataMock = Mockito.mock(ObjectMetadata.class);
+        Mockito.when(s3ClientMock.getObject(bucket, key)).thenReturn(s3ObjectMock);
+        Mockito.when(s3ClientMock.getObjectMetadata(bucket, key)).thenReturn(metadataMock);
+        Mockito.when(metadataMock.getETag()).thenReturn("etag1");
+        Mockito.when(s3ObjectMock.getObjectContent()).thenReturn(new S3ObjectInputStream(new ByteArrayInputStream("test2".getBytes(StandardCharsets.UTF_8)), null));
+
+        Utils utils = Utils.getInstance();
+        utils.setS3Client(s3ClientMock);
+
+        File result = Utils.getInstance().downloadS3File(bucket, key, awsRegion);
+
+        Assertions.assertEquals("test2", Files.readString(result.toPath()));
+        Assertions.assertTrue(result.getName().endsWith("GeoLite2-City.mmdb"));
+        Assertions.assertEquals("etag1", Utils.getInstance().getS3ObjectVersion(bucket, key, awsRegion));
+        Assertions.assertThrows(FileNotFoundException.class, () -> Utils.getInstance().getS3ObjectVersion("_", "/tmp/not-exist.mmdb", awsRegion));
+        Assertions.assertTrue(result.delete());
+    }
+
     @Test
     void testGetStackError() {
         // ./gradlew clean test --tests software.aws.solution.clickstream.flink.UtilsTest.testGetStackError
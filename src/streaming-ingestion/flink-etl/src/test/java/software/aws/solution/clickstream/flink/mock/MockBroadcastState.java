@@ -0,0 +1,69 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink.mock;
+
+import org.apache.flink.api.common.state.BroadcastState;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class MockBroadcastState<K, V> implements BroadcastState<K, V> {
+    private final Map<K, V> map = new HashMap<>();
+
+    @Override
+    public void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<K, V> map) {
+        this.map.putAll(map);
+    }
+
+    @Override
+    public void remove(K key) {
+        map.remove(key);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return map.entrySet().iterator();
+    }
+
+    @Override
+    public Iterable<Map.Entry<K, V>> entries() {
+        return map.entrySet();
+    }
+
+    @Override
+    public V get(K key) {
+        return map.get(key);
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public Iterable<Map.Entry<K, V>> immutableEntries() {
+        return map.entrySet();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+}
@@ -16,6 +16,7 @@ package software.aws.solution.clickstream.flink.mock;
 
 import org.apache.flink.api.connector.sink2.Sink;
 import org.apache.flink.api.connector.sink2.SinkWriter;
+import software.aws.solution.clickstream.flink.AppIdStream;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -26,9 +27,13 @@ import java.util.Map;
 
 public class MockKinesisSink implements Sink<String> {
     public static Map<String, List<String>> appValues =new HashMap<>();
+    public static Map<String, List<String>> streamValues =new HashMap<>();
+    public static List<String> closedStreams = new ArrayList<>();
     private String appId;
-    public MockKinesisSink(String appId) {
-        this.appId = appId;
+    private String streamName;
+    public MockKinesisSink(AppIdStream appIdStream) {
+        this.appId = appIdStream.getAppId();
+        this.streamName = appIdStream.getStreamName();
     }
 
     @Override
@@ -41,6 +46,7 @@ public class MockKinesisSink implements Sink<String> {
                         appValues.put(appId, new ArrayList<>());
                     }
                     appValues.get(appId).add(element);
+                    streamValues.computeIfAbsent(streamName, k -> new ArrayList<>()).add(element);
                 }
             }
 
@@ -51,7 +57,9 @@ public class MockKinesisSink implements Sink<String> {
 
             @Override
             public void close() throws Exception {
-
+                synchronized (MockKinesisSink.class) {
+                    closedStreams.add(streamName);
+                }
             }
         };
     }
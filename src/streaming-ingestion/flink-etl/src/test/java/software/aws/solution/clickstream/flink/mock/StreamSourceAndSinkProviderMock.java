@@ -0,0 +1,37 @@
+/**
+ *  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance
+ *  with the License. A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the 'license' file accompanying this file. This file is distributed on an 'AS IS' BASIS, WITHOUT WARRANTIES
+ *  OR CONDITIONS OF ANY KIND, express or implied. See the License for the specific language governing permissions
+ *  and limitations under the License.
+ */
+
+package software.aws.solution.clickstream.flink.mock;
+
+import org.apache.flink.api.connector.sink2.Sink;
+import org.apache.flink.streaming.api.functions.source.SourceFunction;
+import software.aws.solution.clickstream.flink.AppIdStream;
+import software.aws.solution.clickstream.flink.StreamSourceAndSinkProvider;
+
+public class StreamSourceAndSinkProviderMock implements StreamSourceAndSinkProvider {
+    private final String dataFilePath;
+
+    public StreamSourceAndSinkProviderMock(String dataFilePath) {
+        this.dataFilePath = dataFilePath;
+    }
+
+    @Override
+    public SourceFunction<String> createSource() {
+        return new SourceFunctionMock(dataFilePath);
+    }
+
+    @Override
+    public Sink<String> createSink(AppIdStream appIdStream) {
+        return new MockKinesisSink(appIdStream);
+    }
+}
@@ -17,6 +17,7 @@ import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.ObjectMap
 import org.apache.flink.shaded.jackson2.com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.jupiter.api.*;
 import software.aws.solution.clickstream.flink.*;
+import software.aws.solution.clickstream.plugin.enrich.GeoIpIndex;
 import software.aws.solution.clickstream.plugin.enrich.IPEnrichment;
 
 class IPEnrichmentTest extends BaseFlinkTest {
@@ -77,4 +78,23 @@ class IPEnrichmentTest extends BaseFlinkTest {
                 "\"metro\":null,\"region\":null,\"sub_continent\":null,\"locale\":\"US\"}", geoNode.toString());
 
     }
+
+    @Test
+    void testEnrichIP_sharedIndexCache() throws Exception {
+        // ./gradlew clean test --tests software.aws.solution.clickstream.flink.transformer.IPEnrichmentTest.testEnrichIP_sharedIndexCache
+
+        GeoIpIndex index = GeoIpIndex.getShared("_", TMP_GEO_LITE_2_CITY_MMDB, "us-east-1", 0);
+        Assertions.assertSame(index, GeoIpIndex.getShared("_", TMP_GEO_LITE_2_CITY_MMDB, "us-east-1", 0));
+
+        GeoIpIndex.GeoLocation first = index.lookup("18.233.165.3");
+        long cacheSize = index.getCacheSize();
+        GeoIpIndex.GeoLocation second = index.lookup("18.233.165.3");
+
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals("Ashburn", second.getCity());
+        Assertions.assertEquals(cacheSize, index.getCacheSize());
+        Assertions.assertTrue(index.getCacheHitRate() > 0);
+        Assertions.assertTrue(index.getCacheStats().getHitCount() > 0);
+        Assertions.assertEquals(cacheSize, index.getCacheStats().getSize());
+    }
 }